@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Times PricingEngine ticks over the markets of a world. Every market stocks a random subset of a
+ * shared product catalog, a few units of each, and the prices are left to settle first. Three kinds
+ * of tick are timed: one where nothing changed, one after sales of 1% of the stocked products, and
+ * one after sales of all of them. Every sale is restocked right away, so stock stays put while the
+ * velocity moves the prices. The sales happen outside the timed part; products sold in earlier
+ * ticks stay active, and are repriced, until they settle again. After each tick the cheapest offer of every product is looked up, as a buyer would,
+ * and timed separately, since the offer book puts off sorting repriced offers until they are read.
+ * Each kind first runs untimed for a few ticks, so the numbers are not mostly JIT and heap growth.
+ *
+ * Usage: java PricingTickBench [markets] [products] [products per market] [ticks]
+ */
+public class PricingTickBench {
+    private static final int STOCK = 5; // units of each product per market
+
+    public static void main(String[] args) {
+        int marketCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int productCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int perMarket = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int ticks = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int warmup = 5;
+
+        Product[] products = new Product[productCount];
+        for (int i = 0; i < productCount; i++) {
+            products[i] = new Product("PricedProduct_" + i, 1.0);
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        World world = new World();
+        List<Market> markets = new ArrayList<>(marketCount);
+        Product[][] stocked = new Product[marketCount][perMarket];
+        for (int m = 0; m < marketCount; m++) {
+            Market market = new Market("Market_" + m, 1_000_000);
+            int first = random.nextInt(productCount);
+            for (int k = 0; k < perMarket; k++) {
+                Product product = products[(first + k * 7) % productCount];
+                stocked[m][k] = product;
+                market.addProduct(product, STOCK, 2.0);
+            }
+            world.getMarketController().addMarket(market);
+            markets.add(market);
+        }
+        OfferBook book = world.getOfferBook();
+        PricingEngine engine = new PricingEngine(world);
+        int settling = 1;
+        while (engine.tick() > 0) { // reprices the deliveries above down to cost
+            settling++;
+        }
+        System.out.printf("%d markets, %d products, %d stocked per market (%d pairs), %d cores; settled in %d ticks%n",
+                marketCount, productCount, perMarket, (long) marketCount * perMarket, Runtime.getRuntime().availableProcessors(), settling);
+
+        for (double fraction : new double[] {0, 0.01, 1}) {
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            long lookups = 0;
+            int changed = 0;
+            for (int t = -warmup; t < ticks; t++) {
+                for (int m = 0; m < marketCount; m++) {
+                    for (int k = 0; k < perMarket; k++) {
+                        if (fraction >= 1 || (fraction > 0 && random.nextDouble() < fraction)) {
+                            int sold = 1 + random.nextInt(STOCK);
+                            markets.get(m).sellProduct(stocked[m][k], sold, 2.0, null);
+                            markets.get(m).addProduct(stocked[m][k], sold, 2.0);
+                        }
+                    }
+                }
+                long start = System.nanoTime();
+                changed = engine.tick();
+                long elapsed = System.nanoTime() - start;
+                long lookupStart = System.nanoTime();
+                for (Product product : products) {
+                    book.cheapest(product, null);
+                }
+                if (t >= 0) {
+                    best = Math.min(best, elapsed);
+                    total += elapsed;
+                    lookups += System.nanoTime() - lookupStart;
+                }
+            }
+            System.out.printf("%5.0f%% of pairs sold: best %8.3f ms, mean %8.3f ms per tick, %d prices changed in the last;"
+                            + " cheapest of every product after it %8.3f ms%n",
+                    fraction * 100, best / 1e6, total / 1e6 / ticks, changed, lookups / 1e6 / ticks);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records a deterministic run into a fresh trade journal, for comparing builds with JournalReplay.
+ * Everything is driven by one Simulation on one thread: producers produce, factories buy raw
+ * material and produce, markets restock from factories, a WorkloadGenerator's customers buy, and
+ * a PricingEngine reprices every tick. All randomness comes from the seed, so the same seed and
+ * size give the same journal and the same checksum with every build that behaves the same.
+ * <p>
+ * Prints the checksum of the world at the end; pass it to JournalReplay to check a replay:
+ * {@code java RegressionRecord run.journal && java JournalReplay run.journal <checksum>}
+ *
+ * Usage: java RegressionRecord [journal] [seed] [ticks] [orders per tick]
+ */
+public class RegressionRecord {
+    private static final int PRODUCERS = 4;
+    private static final int FACTORIES = 8;
+    private static final int MARKETS = 32;
+    private static final int PRODUCTS = 64;
+    private static final int CUSTOMERS = 5_000;
+
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args.length > 0 ? args[0] : "regression.journal");
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        double ordersPerTick = args.length > 3 ? Double.parseDouble(args[3]) : 1_000;
+
+        Files.deleteIfExists(path);
+        World world = new World();
+        TradeJournal journal = TradeJournal.open(path, world);
+        Simulation simulation = new Simulation();
+
+        List<RawMaterialProducer> producers = new ArrayList<>();
+        for (int i = 0; i < PRODUCERS; i++) {
+            RawMaterial material = new RawMaterial("Ore_" + i);
+            material.setProductionCost(0.5);
+            RawMaterialProducer producer = new RawMaterialProducer("Producer_" + i, 10_000, 1_000_000, material, 1.0);
+            world.getRawMaterialController().addProducer(producer);
+            producers.add(producer);
+            simulation.scheduleEvery(1, () -> producer.tryProduce(5_000));
+        }
+
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < PRODUCTS; i++) {
+            products.add(new Product("Good_" + i, 2.0));
+        }
+        List<Factory> factories = new ArrayList<>();
+        for (int f = 0; f < FACTORIES; f++) {
+            Factory factory = new Factory("Factory_" + f, 1_000_000, 10_000_000);
+            world.getFactoryController().addFactory(factory);
+            RawMaterialProducer supplier = producers.get(f % PRODUCERS);
+            String ore = supplier.getMaterialProduced().getName();
+            List<ProductDesign> designs = new ArrayList<>();
+            for (int p = f; p < PRODUCTS; p += FACTORIES) {
+                ProductDesign design = new ProductDesign(products.get(p), new ByProduct("Slag", 0.1), new RawMaterial(ore));
+                design.addInputRequirement(new RawMaterial(ore), 1.0);
+                design.setByproductAmount(0.5);
+                design.setProductionCost(1.0);
+                factory.addDesign(design);
+                designs.add(design);
+            }
+            factories.add(factory);
+            simulation.scheduleEvery(1, () -> {
+                factory.tryBuyRawMaterial(supplier, 1_000);
+                for (ProductDesign design : designs) {
+                    factory.tryProduceProduct(design, 100);
+                }
+            });
+        }
+
+        List<Market> markets = new ArrayList<>();
+        for (int m = 0; m < MARKETS; m++) {
+            Market market = new Market("Market_" + m, 1_000_000);
+            world.getMarketController().addMarket(market);
+            for (Product product : products) {
+                market.addProduct(product, 1_000, 4.0);
+            }
+            markets.add(market);
+        }
+        markets.get(0).setProductPrice(products.get(0), 5.0);
+
+        WorkloadGenerator workload = new WorkloadGenerator(seed, markets, products)
+                .setRestocking(factories, 0.1, 50);
+        workload.createCustomers(CUSTOMERS, 500, 1.0, world.getCustomerController());
+        workload.scheduleInto(simulation, ordersPerTick, ticks);
+
+        PricingEngine pricing = new PricingEngine(markets);
+        simulation.scheduleEvery(1, pricing::tick);
+
+        long start = System.nanoTime();
+        simulation.runUntil(ticks);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long records = journal.getLastSequence();
+        journal.close();
+
+        System.out.printf("seed %d, %d ticks: %d events executed, %d rejected, %d journal records (%,d bytes) in %.2f s%n",
+                seed, ticks, simulation.getExecutedEvents(), simulation.getRejectedEvents(), records, Files.size(path), seconds);
+        System.out.printf("checksum %016x%n", WorldSnapshot.checksum(world));
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.SplittableRandom;
+
+/**
+ * Measures how customer purchases on TradingShards scale with the number of shards. Every shard
+ * gets its own markets and customers; a given share of the purchases goes to a market on another
+ * shard, the rest stays local. One sender per shard submits purchases, and the time runs until the
+ * shards have closed, i.e. until every purchase and every response has been handled. With mostly
+ * local traffic the throughput should grow with the shard count up to the number of cores.
+ *
+ * Usage: java ShardScalingBench [max shards] [purchases per shard] [remote share]
+ */
+public class ShardScalingBench {
+    private static final int MARKETS_PER_SHARD = 4;
+    private static final int CUSTOMERS_PER_SHARD = 256;
+    private static final int PRODUCTS = 16;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxShards = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int perShard = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        double remoteShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+
+        Product[] products = new Product[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = new Product("ShardProduct_" + i, 0.01);
+        }
+        System.out.printf("%d cores, %d purchases per shard, %.0f%% to another shard%n",
+                Runtime.getRuntime().availableProcessors(), perShard, remoteShare * 100);
+        for (int shardCount = 1; shardCount <= maxShards; shardCount *= 2) {
+            run(shardCount, perShard, remoteShare, products);
+        }
+    }
+
+    private static void run(int shardCount, int perShard, double remoteShare, Product[] products) throws InterruptedException {
+        TradingShards shards = new TradingShards(shardCount, 1024);
+        Market[][] markets = new Market[shardCount][MARKETS_PER_SHARD];
+        Customers[][] customers = new Customers[shardCount][CUSTOMERS_PER_SHARD];
+        for (int s = 0; s < shardCount; s++) {
+            for (int m = 0; m < MARKETS_PER_SHARD; m++) {
+                markets[s][m] = new Market("Market_" + s + "_" + m, 0);
+                for (Product p : products) {
+                    markets[s][m].addProduct(p, Integer.MAX_VALUE / 2, 0.01);
+                }
+                shards.assign(markets[s][m], s);
+            }
+            for (int c = 0; c < CUSTOMERS_PER_SHARD; c++) {
+                customers[s][c] = new Customers("Customer_" + s + "_" + c, 1e12);
+                shards.assign(customers[s][c], s);
+            }
+        }
+
+        Thread[] senders = new Thread[shardCount];
+        long start = System.nanoTime();
+        for (int s = 0; s < shardCount; s++) {
+            int shard = s;
+            senders[s] = Thread.ofVirtual().start(() -> {
+                SplittableRandom random = new SplittableRandom(shard);
+                for (int i = 0; i < perShard; i++) {
+                    int marketShard = shardCount > 1 && random.nextDouble() < remoteShare
+                            ? (shard + 1 + random.nextInt(shardCount - 1)) % shardCount : shard;
+                    shards.buyProductFromMarket(customers[shard][random.nextInt(CUSTOMERS_PER_SHARD)],
+                            products[random.nextInt(PRODUCTS)], 1, markets[marketShard][random.nextInt(MARKETS_PER_SHARD)]);
+                }
+            });
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        shards.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long sold = 0;
+        for (Market[] row : markets) {
+            for (Market market : row) {
+                sold += (long) PRODUCTS * (Integer.MAX_VALUE / 2) - market.getTotalStock();
+            }
+        }
+        long purchases = (long) shardCount * perShard;
+        System.out.printf("%3d shards: %,12.0f purchases/s, %d cross-shard, %s%n",
+                shardCount, purchases / seconds, shards.getCrossShardRequests(),
+                sold == purchases ? "all purchases applied" : "MISMATCH: " + sold + " units sold");
+    }
+}
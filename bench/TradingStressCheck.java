@@ -0,0 +1,167 @@
+import java.util.SplittableRandom;
+
+/**
+ * Multi-threaded stress check for the trading paths.
+ * Several threads run random trades between shared markets, customers, factories and
+ * producers at the same time. Afterwards the check verifies that money and stock were
+ * conserved, that no stock went negative, and that every thread finished (no deadlock).
+ *
+ * Usage: java TradingStressCheck [threads] [trades per thread]
+ * Exits with status 1 if any check fails.
+ */
+public class TradingStressCheck {
+    private static final int PRODUCTS = 8;
+    private static final int MARKETS = 16;
+    private static final int CUSTOMERS = 64;
+    private static final int FACTORIES = 8;
+    private static final int PRODUCERS = 4;
+    private static final int INITIAL_STOCK = 100_000;
+    private static final double INITIAL_BALANCE = 1_000_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int tradesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        Product[] products = new Product[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = new Product("StressProduct_" + i, 1.0);
+        }
+        Market[] markets = new Market[MARKETS];
+        for (int i = 0; i < MARKETS; i++) {
+            markets[i] = new Market("Market_" + i, INITIAL_BALANCE);
+            for (Product p : products) {
+                markets[i].addProduct(p, INITIAL_STOCK, 2.0);
+            }
+        }
+        Customers[] customers = new Customers[CUSTOMERS];
+        for (int i = 0; i < CUSTOMERS; i++) {
+            customers[i] = new Customers("Customer_" + i, INITIAL_BALANCE);
+        }
+        Factory[] factories = new Factory[FACTORIES];
+        for (int i = 0; i < FACTORIES; i++) {
+            factories[i] = new Factory("Factory_" + i, INITIAL_BALANCE, Integer.MAX_VALUE);
+            for (Product p : products) {
+                factories[i].addProduct(p.getName(), INITIAL_STOCK);
+            }
+        }
+        RawMaterialProducer[] producers = new RawMaterialProducer[PRODUCERS];
+        for (int i = 0; i < PRODUCERS; i++) {
+            RawMaterial material = new RawMaterial("StressOre_" + i);
+            material.setProductionCost(1.0);
+            producers[i] = new RawMaterialProducer("Producer_" + i, INITIAL_BALANCE, Double.MAX_VALUE, material, 3.0);
+            producers[i].produce(INITIAL_STOCK);
+        }
+
+        double moneyBefore = totalMoney(markets, customers, factories, producers);
+        long[] productUnitsBefore = productUnits(products, markets, customers, factories);
+        double rawUnitsBefore = rawUnits(producers, factories);
+
+        Thread[] threads = new Thread[threadCount];
+        long[] rejected = new long[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int threadIndex = t;
+            threads[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(threadIndex);
+                for (int i = 0; i < tradesPerThread; i++) {
+                    Product product = products[random.nextInt(PRODUCTS)];
+                    Market market = markets[random.nextInt(MARKETS)];
+                    int amount = 1 + random.nextInt(3);
+                    try {
+                        switch (random.nextInt(4)) {
+                            case 0:
+                                customers[random.nextInt(CUSTOMERS)].buyProductFromMarket(product, amount, market);
+                                break;
+                            case 1:
+                                Market seller = markets[random.nextInt(MARKETS)];
+                                if (seller != market) {
+                                    market.buyProduct(product, amount, 1 + random.nextInt(3), seller);
+                                }
+                                break;
+                            case 2:
+                                market.buyProduct(product, amount, 1.0, factories[random.nextInt(FACTORIES)]);
+                                break;
+                            default:
+                                factories[random.nextInt(FACTORIES)].buyRawMaterial(producers[random.nextInt(PRODUCERS)], amount);
+                                break;
+                        }
+                    } catch (IllegalStateException ex) {
+                        rejected[threadIndex]++;
+                    }
+                }
+            }, "stress-" + t);
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        boolean finished = true;
+        for (Thread thread : threads) {
+            thread.join(60_000);
+            finished &= !thread.isAlive();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        boolean ok = check("all threads finished (no deadlock)", finished);
+        if (finished) {
+            long totalRejected = 0;
+            for (long r : rejected) {
+                totalRejected += r;
+            }
+            System.out.printf("%d threads, %d trades, %d rejected, %.0f trades/s%n", threadCount,
+                    (long) threadCount * tradesPerThread, totalRejected,
+                    (double) threadCount * tradesPerThread * 1e9 / elapsed);
+
+            ok &= check("money conserved", totalMoney(markets, customers, factories, producers) == moneyBefore);
+            ok &= check("product units conserved",
+                    java.util.Arrays.equals(productUnits(products, markets, customers, factories), productUnitsBefore));
+            ok &= check("raw material units conserved", rawUnits(producers, factories) == rawUnitsBefore);
+            ok &= check("no negative stock", noNegativeStock(products, markets, factories, producers));
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean check(String name, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        return passed;
+    }
+
+    private static double totalMoney(Market[] markets, Customers[] customers, Factory[] factories, RawMaterialProducer[] producers) {
+        double total = 0;
+        for (Market m : markets) total += m.getBalance();
+        for (Customers c : customers) total += c.getBalance();
+        for (Factory f : factories) total += f.getBalance();
+        for (RawMaterialProducer p : producers) total += p.getBalance();
+        return total;
+    }
+
+    private static long[] productUnits(Product[] products, Market[] markets, Customers[] customers, Factory[] factories) {
+        long[] units = new long[products.length];
+        for (int i = 0; i < products.length; i++) {
+            for (Market m : markets) units[i] += m.getStock(products[i]);
+            for (Customers c : customers) units[i] += c.getStock(products[i]);
+            for (Factory f : factories) units[i] += f.getProductStock(products[i].getCatalogIndex());
+        }
+        return units;
+    }
+
+    private static double rawUnits(RawMaterialProducer[] producers, Factory[] factories) {
+        double total = 0;
+        for (RawMaterialProducer p : producers) {
+            total += p.getStock();
+            for (Factory f : factories) {
+                total += f.getRawMaterialStock(p.getMaterialProduced().getCatalogIndex());
+            }
+        }
+        return total;
+    }
+
+    private static boolean noNegativeStock(Product[] products, Market[] markets, Factory[] factories, RawMaterialProducer[] producers) {
+        for (Product p : products) {
+            for (Market m : markets) if (m.getStock(p) < 0) return false;
+            for (Factory f : factories) if (f.getProductStock(p.getCatalogIndex()) < 0) return false;
+        }
+        for (RawMaterialProducer p : producers) if (p.getStock() < 0) return false;
+        return true;
+    }
+}
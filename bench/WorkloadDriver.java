@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives a WorkloadGenerator against a small world and reports how the load landed. Orders are
+ * scheduled into a Simulation, which is then run, and afterwards the stock each market and
+ * product lost shows how much of the load the hottest market and product took. The same seed
+ * gives the same report.
+ *
+ * Usage: java WorkloadDriver [seed] [skew] [orders per tick] [ticks]
+ */
+public class WorkloadDriver {
+    private static final int MARKETS = 50;
+    private static final int PRODUCTS = 200;
+    private static final int CUSTOMERS = 10_000;
+    private static final int INITIAL_STOCK = 1_000_000;
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        double skew = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        double ordersPerTick = args.length > 2 ? Double.parseDouble(args[2]) : 1_000;
+        int ticks = args.length > 3 ? Integer.parseInt(args[3]) : 1_000;
+
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < PRODUCTS; i++) {
+            products.add(new Product("LoadProduct_" + i, 1.0));
+        }
+        List<Market> markets = new ArrayList<>();
+        for (int i = 0; i < MARKETS; i++) {
+            Market market = new Market("Market_" + i, 1_000_000);
+            for (Product p : products) {
+                market.addProduct(p, INITIAL_STOCK, 2.0);
+            }
+            markets.add(market);
+        }
+
+        WorkloadGenerator generator = new WorkloadGenerator(seed, markets, products)
+                .setMarketSkew(skew)
+                .setProductSkew(skew)
+                .setMaxQuantity(3);
+        generator.createCustomers(CUSTOMERS, 500, 1.0, null);
+
+        Simulation simulation = new Simulation();
+        long start = System.nanoTime();
+        long scheduled = generator.scheduleInto(simulation, ordersPerTick, ticks);
+        simulation.runUntil(ticks);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] soldPerMarket = new long[MARKETS];
+        long[] soldPerProduct = new long[PRODUCTS];
+        long sold = 0;
+        for (int m = 0; m < MARKETS; m++) {
+            for (int p = 0; p < PRODUCTS; p++) {
+                int units = INITIAL_STOCK - markets.get(m).getStock(products.get(p));
+                soldPerMarket[m] += units;
+                soldPerProduct[p] += units;
+                sold += units;
+            }
+        }
+        System.out.printf("seed %d, skew %.2f: %d orders over %d ticks, %d executed, %d rejected, %.0f orders/s%n",
+                seed, skew, scheduled, ticks, simulation.getExecutedEvents(), simulation.getRejectedEvents(), scheduled / seconds);
+        System.out.printf("%d units sold; hottest market took %.1f%%, hottest product %.1f%% (uniform would be %.1f%% and %.1f%%)%n",
+                sold, share(soldPerMarket[0], sold), share(soldPerProduct[0], sold), 100.0 / MARKETS, 100.0 / PRODUCTS);
+    }
+
+    private static double share(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+}
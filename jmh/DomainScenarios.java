@@ -0,0 +1,366 @@
+import benchmarks.DomainBenchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * The worlds behind {@link DomainBenchmarks}. JMH cannot generate benchmarks for classes in the
+ * default package, where the domain lives, so the benchmark methods are in a package of their own
+ * and get their operations from here, by scenario name.
+ * <p>
+ * The size is the number of distinct items a factory or market holds, or the number of entities
+ * in a controller for the ID lookups.
+ */
+public class DomainScenarios implements DomainBenchmarks.Scenarios {
+    private static final int LARGE_STOCK = 1_000_000_000;
+    private static final double LARGE_BALANCE = 1e15;
+
+    @Override
+    public DomainBenchmarks.Scenario create(String name, int size) {
+        return switch (name) {
+            case "factoryGetTotalInventory" -> factoryGetTotalInventory(size);
+            case "factoryProduceProduct" -> factoryProduceProduct(size);
+            case "factoryProduceBatch" -> factoryProduceBatch(size);
+            case "factoryProductionLines" -> factoryProductionLines(size);
+            case "marketBuyProduct" -> marketBuyProduct(size);
+            case "marketSellProductToCustomer" -> marketSellProductToCustomer(size);
+            case "customersBuyProductFromMarket" -> customersBuyProductFromMarket(size);
+            case "customersBuyProductFromMarketListened" -> customersBuyProductFromMarketListened(size);
+            case "customersBuyProductFromMarketMetered" -> customersBuyProductFromMarketMetered(size);
+            case "customersBuyRejectedThrowing" -> customersBuyRejectedThrowing(size);
+            case "customersBuyRejectedResult" -> customersBuyRejectedResult(size);
+            case "marketControllerFindMarketByID" -> marketControllerFindMarketByID(size);
+            case "customerControllerFindCustomerByID" -> customerControllerFindCustomerByID(size);
+            case "offerBookCheapest" -> offerBookCheapest(size);
+            case "bomUnitCost" -> bomUnitCost(size);
+            case "bomRepriceRollup" -> bomRepriceRollup(size);
+            case "materialPlan" -> materialPlan(size);
+            default -> throw new IllegalArgumentException("No scenario named " + name + ".");
+        };
+    }
+
+    static DomainBenchmarks.Scenario factoryGetTotalInventory(int size) {
+        Factory factory = factoryWithItems(size);
+        return factory::getTotalInventory;
+    }
+
+    static DomainBenchmarks.Scenario factoryProduceProduct(int size) {
+        Factory factory = factoryWithItems(size);
+        factory.addRawMaterial("Ore", LARGE_STOCK);
+        ProductDesign design = new ProductDesign(new Product("Ingot", 1.0), new ByProduct("Slag", 0.5), new RawMaterial("Ore"));
+        design.addInputRequirement(new RawMaterial("Ore"), 1.0);
+        design.setProductionCost(1.0);
+        return () -> {
+            factory.produceProduct(design, 1);
+            return 1;
+        };
+    }
+
+    /**
+     * One call is a batch of 100 orders over 10 designs, which the benchmark counts as 100 operations.
+     */
+    static DomainBenchmarks.Scenario factoryProduceBatch(int size) {
+        Factory factory = factoryWithItems(size);
+        factory.addRawMaterial("Ore", LARGE_STOCK);
+        List<ProductionOrder> orders = new ArrayList<>();
+        for (int d = 0; d < 10; d++) {
+            ProductDesign design = new ProductDesign(new Product("Ingot_" + d, 1.0), new ByProduct("Slag", 0.5), new RawMaterial("Ore"));
+            design.addInputRequirement(new RawMaterial("Ore"), 1.0);
+            design.setProductionCost(1.0);
+            for (int i = 0; i < 10; i++) {
+                orders.add(new ProductionOrder(design, 1));
+            }
+        }
+        return () -> {
+            factory.produceBatch(orders);
+            return orders.size();
+        };
+    }
+
+    /**
+     * Size is the number of orders queued for a single production line. One op queues an order
+     * and advances the line one tick, which finishes and produces one order and starts the next,
+     * so the queue stays the same length.
+     */
+    static DomainBenchmarks.Scenario factoryProductionLines(int size) {
+        Factory factory = new Factory("LineFactory", LARGE_BALANCE, Integer.MAX_VALUE);
+        factory.addRawMaterial("Ore", LARGE_STOCK);
+        ProductDesign design = new ProductDesign(new Product("Ingot", 1.0), null, new RawMaterial("Ore"));
+        design.addInputRequirement(new RawMaterial("Ore"), 1.0);
+        design.setProductionCost(1.0);
+        factory.setProductionRate(design, 1);
+        ProductionOrder order = new ProductionOrder(design, 1);
+        SplittableRandom random = new SplittableRandom(size);
+        for (int i = 0; i < size; i++) {
+            factory.scheduleProduction(order, random.nextInt(10));
+        }
+        factory.setProductionLines(1);
+        long[] tick = {0};
+        return () -> {
+            factory.scheduleProduction(order, random.nextInt(10));
+            return factory.runProduction(++tick[0]);
+        };
+    }
+
+    static DomainBenchmarks.Scenario marketBuyProduct(int size) {
+        Market seller = marketWithItems("Seller", size);
+        Market buyer = new Market("Buyer", LARGE_BALANCE);
+        Product product = new Product("Item_0", 1.0);
+        return () -> {
+            buyer.buyProduct(product, 1, 1.0, seller);
+            seller.addProduct(product, 1, 1.0);
+            return 1;
+        };
+    }
+
+    static DomainBenchmarks.Scenario marketSellProductToCustomer(int size) {
+        Market market = marketWithItems("Market", size);
+        Customers customer = new Customers("Customer", LARGE_BALANCE);
+        Product product = new Product("Item_0", 1.0);
+        return () -> {
+            market.sellProductToCustomer(product, 1, customer);
+            market.addProduct(product, 1, 1.0);
+            return 1;
+        };
+    }
+
+    static DomainBenchmarks.Scenario customersBuyProductFromMarket(int size) {
+        Market market = marketWithItems("Market", size);
+        Customers customer = new Customers("Customer", LARGE_BALANCE);
+        Product product = new Product("Item_0", 1.0);
+        return () -> {
+            customer.buyProductFromMarket(product, 1, market);
+            market.addProduct(product, 1, 1.0);
+            return 1;
+        };
+    }
+
+    /**
+     * The purchase with TradeMetrics enabled; the difference to customersBuyProductFromMarket is
+     * the cost of recording the customer's purchase (the market's sale is nested and not recorded).
+     */
+    static DomainBenchmarks.Scenario customersBuyProductFromMarketMetered(int size) {
+        Market market = marketWithItems("Market", size);
+        Customers customer = new Customers("Customer", LARGE_BALANCE);
+        Product product = new Product("Item_0", 1.0);
+        TradeMetrics.setEnabled(true);
+        return closing(() -> {
+            customer.buyProductFromMarket(product, 1, market);
+            market.addProduct(product, 1, 1.0);
+            return 1;
+        }, () -> TradeMetrics.setEnabled(false));
+    }
+
+    /**
+     * A purchase the customer cannot afford, rejected with an exception.
+     */
+    static DomainBenchmarks.Scenario customersBuyRejectedThrowing(int size) {
+        Market market = marketWithItems("Market", size);
+        Customers customer = new Customers("Customer", 0);
+        Product product = new Product("Item_0", 1.0);
+        return () -> {
+            try {
+                customer.buyProductFromMarket(product, 1, market);
+                return 0;
+            } catch (IllegalStateException ex) {
+                return 1;
+            }
+        };
+    }
+
+    /**
+     * The same rejected purchase through tryBuyProductFromMarket.
+     */
+    static DomainBenchmarks.Scenario customersBuyRejectedResult(int size) {
+        Market market = marketWithItems("Market", size);
+        Customers customer = new Customers("Customer", 0);
+        Product product = new Product("Item_0", 1.0);
+        return () -> customer.tryBuyProductFromMarket(product, 1, market).ordinal();
+    }
+
+    /**
+     * The same trade with a change listener attached, so every change is published to the ring buffer.
+     */
+    static DomainBenchmarks.Scenario customersBuyProductFromMarketListened(int size) {
+        Market market = marketWithItems("Market", size);
+        Customers customer = new Customers("Customer", LARGE_BALANCE);
+        Product product = new Product("Item_0", 1.0);
+        long[] received = new long[1];
+        ChangeEvents.Listener listener = event -> received[0]++;
+        ChangeEvents.addListener(listener);
+        return closing(() -> {
+            customer.buyProductFromMarket(product, 1, market);
+            market.addProduct(product, 1, 1.0);
+            return 1;
+        }, () -> ChangeEvents.removeListener(listener));
+    }
+
+    static DomainBenchmarks.Scenario marketControllerFindMarketByID(int size) {
+        MarketController controller = new MarketController();
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            Market market = new Market("Market_" + i, 0);
+            controller.addMarket(market);
+            ids[i] = market.getID();
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        return () -> controller.findMarketByID(ids[random.nextInt(size)]).getName().length();
+    }
+
+    static DomainBenchmarks.Scenario customerControllerFindCustomerByID(int size) {
+        CustomerController controller = new CustomerController();
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            Customers customer = new Customers("Customer_" + i, 0);
+            controller.addCustomer(customer);
+            ids[i] = customer.getID();
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        return () -> controller.findCustomerByID(ids[random.nextInt(size)]).getName().length();
+    }
+
+    static DomainBenchmarks.Scenario offerBookCheapest(int size) {
+        Product product = new Product("Offered_" + size, 1.0);
+        World world = new World();
+        for (int i = 0; i < size; i++) {
+            Market market = new Market("Seller_" + i, LARGE_BALANCE);
+            market.addProduct(product, LARGE_STOCK, 1.0 + i);
+            world.getMarketController().addMarket(market);
+        }
+        OfferBook book = world.getOfferBook();
+        Customers customer = new Customers("Customer", LARGE_BALANCE);
+        return () -> {
+            OfferBook.Offer offer = book.cheapest(product, null);
+            customer.buyProductFromMarket(product, 1, (Market) offer.getSeller());
+            return offer.getQuantity() > 0 ? 1 : 0;
+        };
+    }
+
+    static DomainBenchmarks.Scenario bomUnitCost(int size) {
+        ProductDesign[] designs = designTree(size);
+        BillOfMaterials bom = new BillOfMaterials();
+        for (ProductDesign design : designs) {
+            bom.addDesign(design);
+        }
+        SplittableRandom random = new SplittableRandom(13);
+        return () -> bom.getUnitCost(designs[random.nextInt(size)]) > 0 ? 1 : 0;
+    }
+
+    /**
+     * One op changes the cost of one bought-in input and costs the top of the tree again.
+     */
+    static DomainBenchmarks.Scenario bomRepriceRollup(int size) {
+        ProductDesign[] designs = designTree(size);
+        BillOfMaterials bom = new BillOfMaterials();
+        for (ProductDesign design : designs) {
+            bom.addDesign(design);
+        }
+        SplittableRandom random = new SplittableRandom(17);
+        return () -> {
+            bom.setInputCost("BomRaw_" + size + "_" + random.nextInt(size), 1 + random.nextInt(10));
+            return bom.getUnitCost(designs[0]) > 0 ? 1 : 0;
+        };
+    }
+
+    /**
+     * One op plans a demand for size products across 10 markets; 20 factories make each product
+     * from two components of their own, and 30 materials have 3 producers each. B/op only counts the
+     * calling thread, not the fork/join workers that build the routes.
+     */
+    static DomainBenchmarks.Scenario materialPlan(int size) {
+        List<RawMaterialProducer> producers = new ArrayList<>();
+        for (int m = 0; m < 30; m++) {
+            RawMaterial raw = new RawMaterial("PlanRaw_" + m);
+            for (int k = 0; k < 3; k++) {
+                producers.add(new RawMaterialProducer("PlanProducer_" + m + "_" + k, LARGE_BALANCE, LARGE_STOCK, raw, 1 + k));
+            }
+        }
+        List<Factory> factories = new ArrayList<>();
+        for (int f = 0; f < 20; f++) {
+            Factory factory = new Factory("PlanFactory_" + f, LARGE_BALANCE, Integer.MAX_VALUE);
+            for (int c = 0; c < 50; c++) {
+                ProductDesign component = new ProductDesign(new Product("PlanPart_" + c, 1.0), null, null);
+                component.addInputRequirement(new RawMaterial("PlanRaw_" + (c % 30)), 2.0);
+                component.setProductionCost(1.0);
+                factory.addDesign(component);
+            }
+            factories.add(factory);
+        }
+        for (int p = 0; p < size; p++) {
+            ProductDesign design = new ProductDesign(new Product("PlanProduct_" + size + "_" + p, 1.0), null, null);
+            design.addInputRequirement(new Product("PlanPart_" + (p % 50), 1.0), 2.0);
+            design.addInputRequirement(new Product("PlanPart_" + (p * 3 % 50), 1.0), 1.5);
+            design.addInputRequirement(new RawMaterial("PlanRaw_" + (p % 30)), 1.0);
+            design.setProductionCost(2.0);
+            factories.get(p % factories.size()).addDesign(design);
+        }
+        Map<Market, Map<Product, Integer>> demand = new LinkedHashMap<>();
+        for (int m = 0; m < 10; m++) {
+            Map<Product, Integer> lines = new LinkedHashMap<>();
+            for (int p = m; p < size; p += 3) {
+                lines.put(new Product("PlanProduct_" + size + "_" + p, 1.0), 10);
+            }
+            demand.put(new Market("PlanMarket_" + m, LARGE_BALANCE), lines);
+        }
+        MaterialPlanner planner = new MaterialPlanner(factories, producers);
+        return () -> planner.plan(demand).getDeliveries().size();
+    }
+
+    // --- World builders ---
+
+    /**
+     * A scenario that undoes a global setting of its own when the trial ends.
+     */
+    private static DomainBenchmarks.Scenario closing(DomainBenchmarks.Scenario operation, Runnable close) {
+        return new DomainBenchmarks.Scenario() {
+            @Override
+            public long run() {
+                return operation.run();
+            }
+
+            @Override
+            public void close() {
+                close.run();
+            }
+        };
+    }
+
+    /**
+     * Designs forming a binary tree: design i uses the products of designs 2i+1 and 2i+2 and a raw
+     * material of its own, so design 0 depends on all of them.
+     */
+    private static ProductDesign[] designTree(int size) {
+        ProductDesign[] designs = new ProductDesign[size];
+        for (int i = 0; i < size; i++) {
+            RawMaterial raw = new RawMaterial("BomRaw_" + size + "_" + i);
+            designs[i] = new ProductDesign(new Product("BomPart_" + size + "_" + i, 1.0), null, raw);
+            designs[i].addInputRequirement(raw, 1.0);
+            designs[i].setProductionCost(1.0);
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                designs[i].addInputRequirement(new Product("BomPart_" + size + "_" + child, 1.0), 1.0);
+            }
+        }
+        return designs;
+    }
+
+    private static Factory factoryWithItems(int size) {
+        Factory factory = new Factory("Factory", LARGE_BALANCE, Integer.MAX_VALUE);
+        for (int i = 0; i < size; i++) {
+            factory.addProduct("Product_" + i, 1);
+            factory.addByproduct("Byproduct_" + i, 1);
+            factory.addRawMaterial("Raw_" + i, 1);
+        }
+        return factory;
+    }
+
+    private static Market marketWithItems(String name, int size) {
+        Market market = new Market(name, LARGE_BALANCE);
+        for (int i = 0; i < size; i++) {
+            market.addProduct(new Product("Item_" + i, 1.0), LARGE_STOCK, 1.0);
+        }
+        return market;
+    }
+}
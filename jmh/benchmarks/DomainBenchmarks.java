@@ -0,0 +1,275 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the domain hot paths, each run against several world sizes. The worlds are
+ * built by DomainScenarios in the default package, see there for what each size means.
+ * <p>
+ * Run with {@code gradle jmh}, passing JMH options through {@code -Pjmh}, e.g.
+ * {@code gradle jmh -Pjmh="customersBuy -p size=1000 -prof gc"} for one group at one size with
+ * the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DomainBenchmarks {
+
+    /**
+     * One operation of a scenario, with everything it works on already built.
+     */
+    public interface Scenario {
+        long run();
+
+        /**
+         * Undoes global settings the scenario made, such as listeners it added.
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * Builds scenarios by name; implemented by DomainScenarios.
+     */
+    public interface Scenarios {
+        Scenario create(String name, int size);
+    }
+
+    private static final Scenarios SCENARIOS = loadScenarios();
+
+    private static Scenarios loadScenarios() {
+        try {
+            return (Scenarios) Class.forName("DomainScenarios").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("DomainScenarios is not on the class path.", ex);
+        }
+    }
+
+    @State(Scope.Thread)
+    public abstract static class Trial {
+        @Param({"10", "1000", "100000"})
+        public int size;
+
+        private final String name;
+        Scenario scenario;
+
+        Trial(String name) {
+            this.name = name;
+        }
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            scenario = SCENARIOS.create(name, size);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            scenario.close();
+        }
+    }
+
+    public static class FactoryGetTotalInventory extends Trial {
+        public FactoryGetTotalInventory() {
+            super("factoryGetTotalInventory");
+        }
+    }
+
+    public static class FactoryProduceProduct extends Trial {
+        public FactoryProduceProduct() {
+            super("factoryProduceProduct");
+        }
+    }
+
+    public static class FactoryProduceBatch extends Trial {
+        public FactoryProduceBatch() {
+            super("factoryProduceBatch");
+        }
+    }
+
+    public static class FactoryProductionLines extends Trial {
+        public FactoryProductionLines() {
+            super("factoryProductionLines");
+        }
+    }
+
+    public static class MarketBuyProduct extends Trial {
+        public MarketBuyProduct() {
+            super("marketBuyProduct");
+        }
+    }
+
+    public static class MarketSellProductToCustomer extends Trial {
+        public MarketSellProductToCustomer() {
+            super("marketSellProductToCustomer");
+        }
+    }
+
+    public static class CustomersBuyProductFromMarket extends Trial {
+        public CustomersBuyProductFromMarket() {
+            super("customersBuyProductFromMarket");
+        }
+    }
+
+    public static class CustomersBuyProductFromMarketListened extends Trial {
+        public CustomersBuyProductFromMarketListened() {
+            super("customersBuyProductFromMarketListened");
+        }
+    }
+
+    public static class CustomersBuyProductFromMarketMetered extends Trial {
+        public CustomersBuyProductFromMarketMetered() {
+            super("customersBuyProductFromMarketMetered");
+        }
+    }
+
+    public static class CustomersBuyRejectedThrowing extends Trial {
+        public CustomersBuyRejectedThrowing() {
+            super("customersBuyRejectedThrowing");
+        }
+    }
+
+    public static class CustomersBuyRejectedResult extends Trial {
+        public CustomersBuyRejectedResult() {
+            super("customersBuyRejectedResult");
+        }
+    }
+
+    public static class MarketControllerFindMarketByID extends Trial {
+        public MarketControllerFindMarketByID() {
+            super("marketControllerFindMarketByID");
+        }
+    }
+
+    public static class CustomerControllerFindCustomerByID extends Trial {
+        public CustomerControllerFindCustomerByID() {
+            super("customerControllerFindCustomerByID");
+        }
+    }
+
+    public static class OfferBookCheapest extends Trial {
+        public OfferBookCheapest() {
+            super("offerBookCheapest");
+        }
+    }
+
+    public static class BomUnitCost extends Trial {
+        public BomUnitCost() {
+            super("bomUnitCost");
+        }
+    }
+
+    public static class BomRepriceRollup extends Trial {
+        public BomRepriceRollup() {
+            super("bomRepriceRollup");
+        }
+    }
+
+    public static class MaterialPlan extends Trial {
+        public MaterialPlan() {
+            super("materialPlan");
+        }
+    }
+
+    @Benchmark
+    public long factoryGetTotalInventory(FactoryGetTotalInventory trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long factoryProduceProduct(FactoryProduceProduct trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public long factoryProduceBatch(FactoryProduceBatch trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long factoryProductionLines(FactoryProductionLines trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long marketBuyProduct(MarketBuyProduct trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long marketSellProductToCustomer(MarketSellProductToCustomer trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long customersBuyProductFromMarket(CustomersBuyProductFromMarket trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long customersBuyProductFromMarketListened(CustomersBuyProductFromMarketListened trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long customersBuyProductFromMarketMetered(CustomersBuyProductFromMarketMetered trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long customersBuyRejectedThrowing(CustomersBuyRejectedThrowing trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long customersBuyRejectedResult(CustomersBuyRejectedResult trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long marketControllerFindMarketByID(MarketControllerFindMarketByID trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long customerControllerFindCustomerByID(CustomerControllerFindCustomerByID trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long offerBookCheapest(OfferBookCheapest trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long bomUnitCost(BomUnitCost trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long bomRepriceRollup(BomRepriceRollup trial) {
+        return trial.scenario.run();
+    }
+
+    @Benchmark
+    public long materialPlan(MaterialPlan trial) {
+        return trial.scenario.run();
+    }
+}
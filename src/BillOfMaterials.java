@@ -0,0 +1,403 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-level bill of materials over a set of designs, where the product of one design can be
+ * an input of another. For every design it works out the full cost of one unit, which is the
+ * design's own production cost plus the full cost of everything it consumes, and the explosion:
+ * how much of each bought-in input one unit needs once every intermediate product is broken down.
+ * <p>
+ * A product input is costed through the cheapest design in this bill that makes it. Inputs no
+ * design makes, which covers raw materials and byproducts, are bought in at the cost given with
+ * {@link #setInputCost}, or 0 if none was given.
+ * <p>
+ * Both results are memoised per design and only thrown away when something upstream changes: a
+ * recipe edit, a design added or removed, or an input cost. Everything downstream of that change
+ * is recomputed on the next query and the rest of the tree is left alone. Edits made directly on
+ * a {@link ProductDesign} are noticed through {@link ProductDesign#revision()}, so callers do not
+ * have to report them. All methods are synchronized.
+ */
+public final class BillOfMaterials {
+    private static final int INVALID = 0;
+    private static final int COMPUTING = 1;
+    private static final int VALID = 2;
+
+    private final IdentityHashMap<ProductDesign, DesignNode> designs = new IdentityHashMap<>();
+    private ItemNode[] items = new ItemNode[64]; // by ItemCatalog index
+    private long seenRevision = -1;
+
+    // Scratch space for adding up explosions, indexed by ItemCatalog index.
+    private double[] leafAmount = new double[64];
+    private int[] leafTouched = new int[16];
+
+    /**
+     * One catalog item, with the designs that make it and the designs that consume it.
+     */
+    private static final class ItemNode {
+        final int item;
+        final List<DesignNode> makers = new ArrayList<>();
+        final List<DesignNode> users = new ArrayList<>();
+        double inputCost;
+        boolean valid; // cost and cheapest are up to date; only used while the item has makers
+        double cost;
+        DesignNode cheapest;
+
+        ItemNode(int item) {
+            this.item = item;
+        }
+    }
+
+    private static final class DesignNode {
+        final ProductDesign design;
+        Recipe recipe; // the recipe the links below were made from
+        ItemNode makes;
+        ItemNode[] inputs;
+        int state = INVALID;
+        double unitCost;
+        int[] leafItems;
+        double[] leafPerUnit;
+
+        DesignNode(ProductDesign design) {
+            this.design = design;
+        }
+    }
+
+    public BillOfMaterials() {
+    }
+
+    /**
+     * Builds a bill of materials over every design of the given factories.
+     */
+    public static BillOfMaterials of(Collection<Factory> factories) {
+        BillOfMaterials bom = new BillOfMaterials();
+        for (Factory factory : factories) {
+            for (ProductDesign design : factory.getDesigns()) {
+                bom.addDesign(design);
+            }
+        }
+        return bom;
+    }
+
+    /**
+     * Adds a design. Adding a design that is already in the bill does nothing.
+     */
+    public synchronized void addDesign(ProductDesign design) {
+        if (design == null) {
+            throw new IllegalArgumentException("Design cannot be null.");
+        }
+        if (design.getProduct() == null) {
+            throw new IllegalArgumentException("Design has no product.");
+        }
+        if (designs.containsKey(design)) {
+            return;
+        }
+        DesignNode node = new DesignNode(design);
+        designs.put(design, node);
+        link(node);
+    }
+
+    public synchronized void removeDesign(ProductDesign design) {
+        DesignNode node = designs.remove(design);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    public synchronized int getDesignCount() {
+        return designs.size();
+    }
+
+    /**
+     * Sets the price of one unit of an input that is bought in rather than made by a design here.
+     * Only the designs that use the input, and whatever is made from them, are costed again.
+     */
+    public synchronized void setInputCost(String name, double costPerUnit) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Input name cannot be empty.");
+        }
+        if (costPerUnit < 0 || Double.isNaN(costPerUnit)) {
+            throw new IllegalArgumentException("Input cost cannot be negative.");
+        }
+        ItemNode node = item(ItemCatalog.indexOf(name));
+        if (Double.compare(node.inputCost, costPerUnit) != 0) {
+            node.inputCost = costPerUnit;
+            invalidateUsers(node);
+        }
+    }
+
+    public synchronized double getInputCost(String name) {
+        ItemNode node = existingItem(ItemCatalog.indexOf(name));
+        return node == null ? 0 : node.inputCost;
+    }
+
+    /**
+     * Sets the cost of each raw material to the lowest selling price among the producers of it.
+     */
+    public synchronized void setInputCostsFrom(Collection<RawMaterialProducer> producers) {
+        Map<String, Double> cheapest = new LinkedHashMap<>();
+        for (RawMaterialProducer producer : producers) {
+            if (producer.getMaterialProduced() != null) {
+                cheapest.merge(producer.getMaterialProduced().getName(), producer.getSellingPrice(), Math::min);
+            }
+        }
+        for (Map.Entry<String, Double> material : cheapest.entrySet()) {
+            setInputCost(material.getKey(), material.getValue());
+        }
+    }
+
+    /**
+     * Full cost of one unit of the design's product: its own production cost plus the full cost
+     * of its inputs.
+     *
+     * @throws IllegalArgumentException if the design is not in this bill.
+     * @throws IllegalStateException if the design's product is, through other designs, one of its own inputs.
+     */
+    public synchronized double getUnitCost(ProductDesign design) {
+        return designCost(node(design));
+    }
+
+    /**
+     * Full cost of one unit of the product through the cheapest design that makes it, or its
+     * input cost if no design here makes it.
+     */
+    public synchronized double getUnitCost(Product product) {
+        if (product == null) {
+            throw new IllegalArgumentException("Product cannot be null.");
+        }
+        refresh();
+        ItemNode node = existingItem(product.getCatalogIndex());
+        return node == null ? 0 : itemCost(node);
+    }
+
+    /**
+     * The design whose cost {@link #getUnitCost(Product)} uses, or null if no design here makes the product.
+     */
+    public synchronized ProductDesign getCheapestDesign(Product product) {
+        if (product == null) {
+            throw new IllegalArgumentException("Product cannot be null.");
+        }
+        refresh();
+        ItemNode node = existingItem(product.getCatalogIndex());
+        if (node == null || node.makers.isEmpty()) {
+            return null;
+        }
+        itemCost(node);
+        return node.cheapest.design;
+    }
+
+    /**
+     * The bought-in inputs needed for amount units of the design's product, by name, once every
+     * intermediate product has been broken down into what it is made of.
+     */
+    public synchronized Map<String, Double> explode(ProductDesign design, int amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive.");
+        }
+        DesignNode node = node(design);
+        designCost(node);
+        explode(node);
+        Map<String, Double> leaves = new LinkedHashMap<>();
+        for (int i = 0; i < node.leafItems.length; i++) {
+            leaves.put(ItemCatalog.nameOf(node.leafItems[i]), node.leafPerUnit[i] * amount);
+        }
+        return leaves;
+    }
+
+    private DesignNode node(ProductDesign design) {
+        if (design == null) {
+            throw new IllegalArgumentException("Design cannot be null.");
+        }
+        refresh();
+        DesignNode node = designs.get(design);
+        if (node == null) {
+            throw new IllegalArgumentException("Design for " + design.getProduct().getName() + " is not in the bill of materials.");
+        }
+        return node;
+    }
+
+    /**
+     * Relinks the designs whose recipe changed since the last query. Only scans when some design
+     * anywhere was changed.
+     */
+    private void refresh() {
+        long revision = ProductDesign.revision();
+        if (revision == seenRevision) {
+            return;
+        }
+        seenRevision = revision;
+        for (DesignNode node : designs.values()) {
+            if (node.design.compile() != node.recipe) {
+                unlink(node);
+                link(node);
+            }
+        }
+    }
+
+    private void link(DesignNode node) {
+        Recipe recipe = node.design.compile();
+        node.recipe = recipe;
+        node.state = INVALID;
+        node.makes = item(recipe.getProductItem());
+        node.makes.makers.add(node);
+        invalidateUsers(node.makes);
+        node.inputs = new ItemNode[recipe.getInputCount()];
+        for (int input = 0; input < node.inputs.length; input++) {
+            node.inputs[input] = item(recipe.getInputItem(input));
+            node.inputs[input].users.add(node);
+        }
+    }
+
+    private void unlink(DesignNode node) {
+        invalidate(node);
+        node.makes.makers.remove(node);
+        invalidateUsers(node.makes);
+        for (ItemNode input : node.inputs) {
+            input.users.remove(node);
+        }
+    }
+
+    private void invalidate(DesignNode node) {
+        if (node.state != VALID) {
+            return; // a design that is not valid has nothing valid downstream of it
+        }
+        node.state = INVALID;
+        node.leafItems = null;
+        node.leafPerUnit = null;
+        if (node.makes.valid) {
+            invalidateUsers(node.makes);
+        }
+    }
+
+    private void invalidateUsers(ItemNode item) {
+        item.valid = false;
+        for (DesignNode user : item.users) {
+            invalidate(user);
+        }
+    }
+
+    private double itemCost(ItemNode node) {
+        if (node.makers.isEmpty()) {
+            return node.inputCost;
+        }
+        if (!node.valid) {
+            DesignNode cheapest = null;
+            double cost = Double.POSITIVE_INFINITY;
+            for (DesignNode maker : node.makers) {
+                double makerCost = designCost(maker);
+                if (cheapest == null || makerCost < cost) {
+                    cheapest = maker;
+                    cost = makerCost;
+                }
+            }
+            node.cheapest = cheapest;
+            node.cost = cost;
+            node.valid = true;
+        }
+        return node.cost;
+    }
+
+    private boolean madeHere(DesignNode node, int input) {
+        return node.recipe.getInputStock(input) == Recipe.FROM_PRODUCTS && !node.inputs[input].makers.isEmpty();
+    }
+
+    private double designCost(DesignNode node) {
+        if (node.state == VALID) {
+            return node.unitCost;
+        }
+        if (node.state == COMPUTING) {
+            throw new IllegalStateException("The bill of materials has a cycle through " + node.design.getProduct().getName());
+        }
+        node.state = COMPUTING;
+        Recipe recipe = node.recipe;
+        double cost = recipe.getProductionCost();
+        try {
+            for (int input = 0; input < node.inputs.length; input++) {
+                ItemNode item = node.inputs[input];
+                double perUnit = madeHere(node, input) ? itemCost(item) : item.inputCost;
+                cost += recipe.getInputPerUnit(input) * perUnit;
+            }
+        } catch (RuntimeException ex) {
+            node.state = INVALID;
+            throw ex;
+        }
+        node.unitCost = cost;
+        node.state = VALID;
+        return cost;
+    }
+
+    /**
+     * Works out the explosion of a costed design, if it is not known yet. It is kept apart from the
+     * cost because most queries only want the cost. The designs chosen for its product inputs are
+     * exploded first, so the scratch arrays are free when this design's leaves are added up.
+     */
+    private void explode(DesignNode node) {
+        if (node.leafItems != null) {
+            return;
+        }
+        for (int input = 0; input < node.inputs.length; input++) {
+            if (madeHere(node, input)) {
+                explode(node.inputs[input].cheapest);
+            }
+        }
+        Recipe recipe = node.recipe;
+        int touched = 0;
+        for (int input = 0; input < node.inputs.length; input++) {
+            double perUnit = recipe.getInputPerUnit(input);
+            if (madeHere(node, input)) {
+                DesignNode source = node.inputs[input].cheapest;
+                for (int i = 0; i < source.leafItems.length; i++) {
+                    touched = addLeaf(source.leafItems[i], perUnit * source.leafPerUnit[i], touched);
+                }
+            } else {
+                touched = addLeaf(node.inputs[input].item, perUnit, touched);
+            }
+        }
+        int[] leafItems = Arrays.copyOf(leafTouched, touched);
+        Arrays.sort(leafItems);
+        double[] leafPerUnit = new double[touched];
+        for (int i = 0; i < touched; i++) {
+            leafPerUnit[i] = leafAmount[leafItems[i]];
+            leafAmount[leafItems[i]] = 0;
+        }
+        node.leafItems = leafItems;
+        node.leafPerUnit = leafPerUnit;
+    }
+
+    private int addLeaf(int item, double amount, int touched) {
+        if (amount == 0) {
+            return touched;
+        }
+        if (item >= leafAmount.length) {
+            leafAmount = Arrays.copyOf(leafAmount, Math.max(leafAmount.length * 2, item + 1));
+        }
+        if (leafAmount[item] == 0) {
+            if (touched == leafTouched.length) {
+                leafTouched = Arrays.copyOf(leafTouched, touched * 2);
+            }
+            leafTouched[touched++] = item;
+        }
+        leafAmount[item] += amount;
+        return touched;
+    }
+
+    private ItemNode existingItem(int item) {
+        return item < items.length ? items[item] : null;
+    }
+
+    private ItemNode item(int item) {
+        if (item >= items.length) {
+            items = Arrays.copyOf(items, Math.max(items.length * 2, item + 1));
+        }
+        ItemNode node = items[item];
+        if (node == null) {
+            node = new ItemNode(item);
+            items[item] = node;
+        }
+        return node;
+    }
+}
@@ -0,0 +1,245 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stream of changes to the domain: entities added and removed, balances, stock and prices.
+ * <p>
+ * The domain classes publish an event after each change while they still hold the entity lock, so
+ * the events about one entity arrive in the order its changes were made. Publishing fills a slot of
+ * a pre-allocated ring buffer and allocates nothing; while nobody listens it is one volatile read.
+ * A single daemon thread hands the events to the listeners in sequence order. Once the ring has
+ * been empty for a few milliseconds it parks until the next publish, so it costs nothing while
+ * nothing happens, including after the last listener is removed.
+ * <p>
+ * Publishers never wait for slow listeners. When the ring is full the event is dropped, and once the
+ * listeners have caught up they get a {@link #RESYNC} event telling them to re-read what they track.
+ */
+public final class ChangeEvents {
+    public static final byte ENTITY_ADDED = 1;
+    public static final byte ENTITY_REMOVED = 2;
+    /** The value is the new balance. */
+    public static final byte BALANCE_CHANGED = 3;
+    /** The value is the new quantity of the item in the stock that changed. */
+    public static final byte INVENTORY_CHANGED = 4;
+    /** The value is the market's new price for the item. */
+    public static final byte PRICE_CHANGED = 5;
+    /** Events were dropped; there is no entity. */
+    public static final byte RESYNC = 6;
+
+    static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    private static final long IDLE_PARK_NANOS = 100_000;
+    private static final int IDLE_PARKS_BEFORE_SLEEP = 100; // so about 10ms of polling before sleeping
+    private static final int DELIVERED_BATCH_MASK = 63; // delivered is advanced every 64 events, and when idle
+
+    /**
+     * Receives events on the delivery thread. Listeners must not block on entity locks: the
+     * publishers may hold them.
+     */
+    public interface Listener {
+        /**
+         * @param event reused for later events, so read it during the call only.
+         */
+        void onChange(Event event);
+    }
+
+    /**
+     * One slot of the ring buffer.
+     */
+    public static final class Event {
+        private volatile long published = -1; // sequence of the event the other fields belong to
+        private long sequence;
+        private byte type;
+        private Customer entity;
+        private int item;
+        private double value;
+
+        public long getSequence() { return sequence; }
+        public byte getType() { return type; }
+        public Customer getEntity() { return entity; }
+
+        /**
+         * The ItemCatalog index of the item, or -1 if the event is not about an item.
+         */
+        public int getItem() { return item; }
+        public double getValue() { return value; }
+    }
+
+    private static final Event[] ring = new Event[CAPACITY];
+    private static final AtomicLong claimed = new AtomicLong(); // next sequence to hand out
+    private static volatile long delivered; // every sequence below this has been delivered
+    private static volatile long deliveredSeen; // what publishers last read of delivered; only lags behind it
+    private static final AtomicBoolean dropped = new AtomicBoolean();
+    private static final Event resync = new Event();
+    private static volatile Listener[] listeners = new Listener[0];
+    private static volatile Thread deliverer;
+    private static volatile boolean sleeping; // the deliverer is parked until a publisher wakes it
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Event();
+        }
+        resync.type = RESYNC;
+        resync.item = -1;
+    }
+
+    private ChangeEvents() {
+    }
+
+    public static synchronized void addListener(Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        Listener[] current = listeners;
+        Listener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+        if (deliverer == null) {
+            deliverer = new Thread(ChangeEvents::deliverLoop, "change-events");
+            deliverer.setDaemon(true);
+            deliverer.start();
+        }
+    }
+
+    public static synchronized void removeListener(Listener listener) {
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                Listener[] updated = new Listener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Whether anyone listens. Publishers with several events to send can check this first.
+     */
+    public static boolean isActive() {
+        return listeners.length != 0;
+    }
+
+    /**
+     * Waits until every event published so far has been delivered, or the timeout passes.
+     * @return true if they were delivered.
+     */
+    public static boolean awaitDelivered(long timeoutMillis) {
+        long target = claimed.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        while (delivered < target) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        return true;
+    }
+
+    // --- Published by the domain classes ---
+
+    static void entityAdded(Customer entity) {
+        publish(ENTITY_ADDED, entity, -1, 0);
+    }
+
+    static void entityRemoved(Customer entity) {
+        publish(ENTITY_REMOVED, entity, -1, 0);
+    }
+
+    static void balanceChanged(Customer entity, double balance) {
+        publish(BALANCE_CHANGED, entity, -1, balance);
+    }
+
+    static void inventoryChanged(Customer entity, int item, double quantity) {
+        publish(INVENTORY_CHANGED, entity, item, quantity);
+    }
+
+    static void priceChanged(Market market, int item, double price) {
+        publish(PRICE_CHANGED, market, item, price);
+    }
+
+    private static void publish(byte type, Customer entity, int item, double value) {
+        if (listeners.length == 0) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - deliveredSeen >= CAPACITY) {
+                // Only look at the deliverer's counter when the ring looks full, so it is not shared on every publish.
+                deliveredSeen = delivered;
+                if (sequence - deliveredSeen >= CAPACITY) {
+                    dropped.set(true);
+                    wakeDeliverer();
+                    return;
+                }
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        // The slot's previous event, sequence - CAPACITY, has been delivered, so it is free.
+        Event slot = ring[(int) sequence & MASK];
+        slot.sequence = sequence;
+        slot.type = type;
+        slot.entity = entity;
+        slot.item = item;
+        slot.value = value;
+        slot.published = sequence; // volatile write, makes the fields above visible to the deliverer
+        wakeDeliverer();
+    }
+
+    /**
+     * The deliverer sets sleeping before it checks for events one last time, and publishers claim
+     * their sequence before they check sleeping, so either it sees the event or they wake it.
+     */
+    private static void wakeDeliverer() {
+        if (sleeping) {
+            sleeping = false;
+            LockSupport.unpark(deliverer);
+        }
+    }
+
+    private static void deliverLoop() {
+        long next = delivered;
+        int idleParks = 0;
+        while (true) {
+            Event slot = ring[(int) next & MASK];
+            if (slot.published == next) {
+                idleParks = 0;
+                dispatch(slot);
+                slot.entity = null;
+                if ((++next & DELIVERED_BATCH_MASK) == 0) {
+                    delivered = next;
+                }
+            } else if (delivered != next) {
+                delivered = next;
+            } else if (claimed.get() != next) {
+                Thread.onSpinWait(); // claimed but not filled in yet, which takes nanoseconds
+            } else if (dropped.getAndSet(false)) {
+                resync.sequence = next;
+                dispatch(resync);
+            } else if (idleParks < IDLE_PARKS_BEFORE_SLEEP) {
+                idleParks++;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            } else {
+                sleeping = true;
+                if (claimed.get() == next && !dropped.get()) {
+                    LockSupport.park(); // until a publisher wakes it; a spurious wakeup only loops once more
+                }
+                sleeping = false;
+                idleParks = 0;
+            }
+        }
+    }
+
+    private static void dispatch(Event event) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onChange(event);
+            } catch (RuntimeException ex) {
+                System.err.println("Change listener failed on event " + event.sequence + ": " + ex);
+            }
+        }
+    }
+}
@@ -8,8 +8,22 @@ public interface Customer {
 
     double getBalance();
 
+    /**
+     * Unique among all factories, markets, customers and producers. Lookups and the journal use this.
+     */
+    long getID();
+
+    /**
+     * The ID as shown to users, built from {@link #getID()} with a prefix for the kind of entity.
+     */
      String getCustomerID();
 
+    /**
+     * The lock that must be held while this entity's stock or balance is changed.
+     * Trades that touch two entities take both locks through {@link EntityLock#lockBoth}.
+     */
+    EntityLock getLock();
+
 
 }
 
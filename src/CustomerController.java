@@ -1,11 +1,13 @@
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class CustomerController {
-    private List<Customers> customers;
+    private EntityRegistry<Customers> customers;
+    private List<Customers> customersView;
 
     public CustomerController() {
-        this.customers = new ArrayList<>();
+        this.customers = new EntityRegistry<>();
+        this.customersView = Collections.unmodifiableList(customers);
         /*
         DUMMY'S FOR TESTING
         customers.add(new Customers("Customer_0", 400.0));
@@ -18,7 +20,7 @@ public class CustomerController {
     }
 
     public List<Customers> getCustomers() {
-        return new ArrayList<>(customers);
+        return customersView; // Read-only live view
     }
 
     public void addCustomer(Customers customer) {
@@ -26,6 +28,8 @@ public class CustomerController {
             throw new IllegalArgumentException("Customer cannot be null.");
         }
         this.customers.add(customer);
+        TradeJournal.recordCustomerCreated(customer);
+        ChangeEvents.entityAdded(customer);
     }
 
     public Customers getCustomer(int index) {
@@ -35,13 +39,8 @@ public class CustomerController {
         return customers.get(index);
     }
 
-    public Customers findCustomerByID(String customerID) {
-        for (Customers customer : customers) {
-            if (customer.getCustomerID().equals(customerID)) {
-                return customer;
-            }
-        }
-        return null;
+    public Customers findCustomerByID(long customerID) {
+        return customers.findByID(customerID);
     }
 
     /**
@@ -51,7 +50,7 @@ public class CustomerController {
      * @param newBalance The new balance for the customer.
      * @throws IllegalArgumentException if customer not found or inputs are invalid (handled by ConcreteCustomer setters).
      */
-    public void editCustomer(String customerID, String newName, double newBalance) {
+    public void editCustomer(long customerID, String newName, double newBalance) {
         Customers customerToEdit = findCustomerByID(customerID);
         if (customerToEdit == null) {
             throw new IllegalArgumentException("Customer with ID " + customerID + " not found for editing.");
@@ -65,11 +64,13 @@ public class CustomerController {
      * @param customerID The ID of the customer to delete.
      * @return true if the customer was found and removed, false otherwise.
      */
-    public boolean deleteCustomer(String customerID) {
-        Customers customerToRemove = findCustomerByID(customerID);
-        if (customerToRemove != null) {
-            return this.customers.remove(customerToRemove);
+    public boolean deleteCustomer(long customerID) {
+        Customers removed = this.customers.removeByID(customerID);
+        if (removed == null) {
+            return false;
         }
-        return false;
+        TradeJournal.recordCustomerDeleted(customerID);
+        ChangeEvents.entityRemoved(removed);
+        return true;
     }
 }
\ No newline at end of file
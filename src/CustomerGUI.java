@@ -4,23 +4,26 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 
 
 public class CustomerGUI extends JFrame {
 
-    private DefaultListModel<String> customerListModel;
-    private JList<String> customerList;
+    private EntityTableModel<Customers> customerTableModel;
+    private EntityTable<Customers> customerTable;
     private CustomerController customerController;
     private MarketController marketController;
+    private OfferBook offerBook;
 
-    public CustomerGUI(CustomerController customerController, MarketController marketController) {
+    public CustomerGUI(CustomerController customerController, MarketController marketController, OfferBook offerBook) {
         super("Customers");
         this.customerController = customerController;
         this.marketController = marketController;
+        this.offerBook = offerBook;
 
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         setLayout(new BorderLayout(10, 10));
@@ -32,17 +35,34 @@ public class CustomerGUI extends JFrame {
         titleLabel.setFont(new Font("Arial", Font.BOLD, 16));
         topPanel.add(titleLabel, BorderLayout.WEST);
 
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 0));
+        filterPanel.add(new JLabel("Filter:"));
+        JTextField filterField = new JTextField(12);
+        filterPanel.add(filterField);
+        topPanel.add(filterPanel, BorderLayout.CENTER);
+
         JButton backButton = new JButton("Back");
         backButton.addActionListener(e -> dispose());
         topPanel.add(backButton, BorderLayout.EAST);
         add(topPanel, BorderLayout.NORTH);
 
-        customerListModel = new DefaultListModel<>();
-        customerList = new JList<>(customerListModel);
-        customerList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        JScrollPane scrollPane = new JScrollPane(customerList);
+        customerTableModel = new EntityTableModel<>(customerController.getCustomers())
+                .addColumn("Name", String.class, Customers::getName)
+                .addColumn("ID", Long.class, Customers::getID)
+                .addColumn("Balance", Double.class, Customers::getBalance)
+                .addColumn("Items", Long.class, Customers::getTotalItems);
+        customerTable = new EntityTable<>(customerTableModel, filterField);
+        JScrollPane scrollPane = new JScrollPane(customerTable);
         add(scrollPane, BorderLayout.CENTER);
 
+        SwingTasks.addTable(customerTableModel);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                SwingTasks.removeTable(customerTableModel);
+            }
+        });
+
         JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 10));
         JButton addButton = new JButton("Add New Customer");
         JButton editButton = new JButton("Edit Customer");
@@ -55,38 +75,36 @@ public class CustomerGUI extends JFrame {
         bottomPanel.add(viewButton);
         add(bottomPanel, BorderLayout.SOUTH);
 
-        refreshCustomerList();
-
         addButton.addActionListener(e -> {
             new AddCustomerDialog(this);
-            refreshCustomerList();
+            customerTableModel.entitiesAppended();
         });
 
         editButton.addActionListener(e -> {
-            int selectedIndex = customerList.getSelectedIndex();
-            if (selectedIndex == -1) {
+            int selectedRow = customerTable.getSelectedModelRow();
+            if (selectedRow == -1) {
                 JOptionPane.showMessageDialog(this, "Please select a customer to edit.", "No Selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            Customers selectedCustomer = customerController.getCustomers().get(selectedIndex);
+            Customers selectedCustomer = customerTableModel.getEntity(selectedRow);
             new EditCustomerDialog(this, selectedCustomer);
-            refreshCustomerList();
+            customerTableModel.entityChanged(selectedRow);
         });
 
         deleteButton.addActionListener(e -> {
-            int selectedIndex = customerList.getSelectedIndex();
-            if (selectedIndex == -1) {
+            int selectedRow = customerTable.getSelectedModelRow();
+            if (selectedRow == -1) {
                 JOptionPane.showMessageDialog(this, "Please select a customer to delete.", "No Selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            Customers selectedCustomer = customerController.getCustomers().get(selectedIndex);
+            Customers selectedCustomer = customerTableModel.getEntity(selectedRow);
             int confirm = JOptionPane.showConfirmDialog(this,
                     "Are you sure you want to delete " + selectedCustomer.getName() + "?",
                     "Confirm Deletion", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
                 try {
-                    customerController.deleteCustomer(selectedCustomer.getCustomerID());
-                    refreshCustomerList();
+                    customerController.deleteCustomer(selectedCustomer.getID());
+                    customerTableModel.entityRemoved(selectedRow);
                 } catch (Exception ex) {
                     JOptionPane.showMessageDialog(this, "Error deleting customer: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -95,7 +113,7 @@ public class CustomerGUI extends JFrame {
 
         viewButton.addActionListener(e -> openCustomerDetail());
 
-        customerList.addMouseListener(new MouseAdapter() {
+        customerTable.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent evt) {
                 if (evt.getClickCount() == 2) {
                     openCustomerDetail();
@@ -109,32 +127,16 @@ public class CustomerGUI extends JFrame {
     }
 
     private void openCustomerDetail() {
-        int selectedIndex = customerList.getSelectedIndex();
-        if (selectedIndex != -1) {
-            Customers selectedCustomer = customerController.getCustomers().get(selectedIndex);
+        int selectedRow = customerTable.getSelectedModelRow();
+        if (selectedRow != -1) {
+            Customers selectedCustomer = customerTableModel.getEntity(selectedRow);
             new CustomerDetailPage(this, selectedCustomer);
-            refreshCustomerList();
+            customerTableModel.entityChanged(selectedRow);
         } else {
             JOptionPane.showMessageDialog(this, "Please select a customer to view.", "No Selection", JOptionPane.WARNING_MESSAGE);
         }
     }
 
-    public void refreshCustomerList() {
-        customerListModel.clear();
-        List<Customers> customers = customerController.getCustomers();
-        Map<String, Integer> nameCount = new HashMap<>();
-        for (Customers c : customers) {
-            nameCount.put(c.getName(), nameCount.getOrDefault(c.getName(), 0) + 1);
-        }
-        for (Customers customer : customers) {
-            String displayName = customer.getName();
-            if (nameCount.get(customer.getName()) > 1) {
-                displayName += " (ID: " + customer.getCustomerID() + ")";
-            }
-            customerListModel.addElement(displayName);
-        }
-    }
-
     class AddCustomerDialog extends JDialog {
         private JTextField nameField;
         private JTextField balanceField;
@@ -184,7 +186,6 @@ public class CustomerGUI extends JFrame {
                         return;
                     }
                     customerController.addCustomer(new Customers(name, balance));
-                    CustomerGUI.this.refreshCustomerList();
                     dispose();
                 } catch (IllegalArgumentException ex) {
                     JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
@@ -240,8 +241,7 @@ public class CustomerGUI extends JFrame {
                         balanceField.requestFocus();
                         return;
                     }
-                    customerController.editCustomer(customerToEdit.getCustomerID(), newName, newBalance);
-                    CustomerGUI.this.refreshCustomerList();
+                    customerController.editCustomer(customerToEdit.getID(), newName, newBalance);
                     dispose();
                 } catch (IllegalArgumentException ex) {
                     JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
@@ -298,7 +298,6 @@ public class CustomerGUI extends JFrame {
             shopButton.addActionListener(e -> {
                 new CustomerShoppingPage(this, customer); // 'this' is CustomerDetailPage instance
                 balanceValueLabel.setText(String.format("%.2f", customer.getBalance()));
-                CustomerGUI.this.refreshCustomerList(); // Refresh main list if balance changed in controller
             });
             inventoryButton.addActionListener(e -> {
                 new CustomerInventoryPage(this, customer);
@@ -424,11 +423,13 @@ public class CustomerGUI extends JFrame {
                     return;
                 }
 
-                try {
+                SwingTasks.call(buyButton, "Purchase Error", () -> {
                     customer.buyProductFromMarket(selectedEntry.product, amountToBuyNum, selectedEntry.market);
+                    return collectMarketProducts();
+                }, marketProducts -> {
                     JOptionPane.showMessageDialog(this, "Purchase successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
 
-                    populateProductCombo();
+                    showMarketProducts(marketProducts);
 
                     // NOTE TO SELF: DO NOT TOUCH THE FOLLOWING METHOD. IT PREVENTS A LOT OF ERRORS.
 
@@ -444,11 +445,7 @@ public class CustomerGUI extends JFrame {
                     if (parentCustomerDetailDialog != null) {
                         parentCustomerDetailDialog.refreshBalanceDisplay();
                     }
-                    CustomerGUI.this.refreshCustomerList();
-
-                } catch (IllegalStateException | IllegalArgumentException ex) {
-                    JOptionPane.showMessageDialog(this, ex.getMessage(), "Purchase Error", JOptionPane.ERROR_MESSAGE);
-                }
+                });
             });
 
             pack();
@@ -458,26 +455,33 @@ public class CustomerGUI extends JFrame {
         }
 
         private void populateProductCombo() {
-            availableMarketProducts.clear();
-            Object currentComboSelection = productSelectionCombo.getSelectedItem();
-            productSelectionCombo.removeAllItems();
+            showMarketProducts(collectMarketProducts());
+        }
 
-            List<Market> markets = marketController.getMarkets();
-            for (Market market : markets) {
-                for (Map.Entry<Product, Integer> entry : market.getInventory().entrySet()) {
-                    Product product = entry.getKey();
-                    int stock = entry.getValue();
-                    if (stock > 0) {
-                        double price = market.getProductPrice(product);
-                        MarketProductEntry mpe = new MarketProductEntry(market, product, stock, price);
-                        availableMarketProducts.add(mpe);
-                        productSelectionCombo.addItem(mpe.toString());
-                    }
-                }
+        /**
+         * Collects what the markets offer. Reads only the OfferBook, so it can run off the event thread.
+         */
+        private List<MarketProductEntry> collectMarketProducts() {
+            List<MarketProductEntry> marketProducts = new ArrayList<>();
+            // Offers come grouped by product, cheapest market first
+            for (OfferBook.Offer offer : offerBook.allOffers()) {
+                if (!(offer.getSeller() instanceof Market)) continue;
+                marketProducts.add(new MarketProductEntry((Market) offer.getSeller(), offer.getProduct(), offer.getQuantity(), offer.getPrice()));
+            }
+            return marketProducts;
+        }
+
+        private void showMarketProducts(List<MarketProductEntry> marketProducts) {
+            Object currentComboSelection = productSelectionCombo.getSelectedItem();
+            availableMarketProducts = marketProducts;
+            String[] items = new String[marketProducts.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = marketProducts.get(i).toString();
             }
+            productSelectionCombo.setModel(new DefaultComboBoxModel<>(items)); // one event instead of one per item
             if (currentComboSelection != null) {
-                for (int i = 0; i < productSelectionCombo.getItemCount(); i++) {
-                    if (productSelectionCombo.getItemAt(i).equals(currentComboSelection.toString())) {
+                for (int i = 0; i < items.length; i++) {
+                    if (items[i].equals(currentComboSelection.toString())) {
                         productSelectionCombo.setSelectedIndex(i);
                         break;
                     }
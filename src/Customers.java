@@ -1,13 +1,15 @@
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Objects;
 
 public class Customers implements Customer {
     private String name;
     private double balance;
-    private final String customerID;
+    private final long id;
     private Map<Product, Integer> inventory;
-    private static int nextID = 0;
+    private long totalItems; // units over all products
+    private final Map<Product, Integer> inventoryView;
+    private final EntityLock lock = new EntityLock();
 
     public Customers(String name, double initialBalance) {
         if (name == null || name.trim().isEmpty()) {
@@ -18,8 +20,22 @@ public class Customers implements Customer {
         }
         this.name = name;
         this.balance = initialBalance;
-        this.customerID = "CUST_" + nextID++;
+        this.id = IdAllocator.ENTITIES.next();
         this.inventory = new HashMap<>();
+        this.inventoryView = Collections.unmodifiableMap(inventory);
+    }
+
+    /**
+     * Recreates a customer under an ID it had before, when loading a snapshot or replaying the journal.
+     * Customers created afterwards get higher IDs.
+     */
+    Customers(long id, String name, double balance) {
+        this.name = name;
+        this.balance = balance;
+        this.id = id;
+        this.inventory = new HashMap<>();
+        this.inventoryView = Collections.unmodifiableMap(inventory);
+        IdAllocator.ENTITIES.reserve(id);
     }
 
     @Override
@@ -31,7 +47,13 @@ public class Customers implements Customer {
         if (name == null || name.trim().isEmpty()) {
             throw new IllegalArgumentException("Customer name cannot be empty.");
         }
-        this.name = name;
+        lock.lock();
+        try {
+            this.name = name;
+            TradeJournal.recordRename(this, name);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -40,26 +62,67 @@ public class Customers implements Customer {
     }
 
     public void setBalance(double balance) {
-        this.balance = balance;
+        lock.lock();
+        try {
+            this.balance = balance;
+            ChangeEvents.balanceChanged(this, balance);
+            TradeJournal.recordFieldSet(this, TradeJournal.FIELD_BALANCE, balance);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getID() {
+        return id;
     }
 
     @Override
     public String getCustomerID() {
-        return customerID;
+        return "CUST_" + id;
+    }
+
+    @Override
+    public EntityLock getLock() {
+        return lock;
     }
 
+    /**
+     * Read-only live view of what this customer has bought.
+     */
     public Map<Product, Integer> getInventory() {
-        return new HashMap<>(inventory);
+        return inventoryView;
+    }
+
+    public int getStock(Product product) {
+        return inventory.getOrDefault(product, 0);
+    }
+
+    /**
+     * Returns the units owned over all products.
+     */
+    public long getTotalItems() {
+        return totalItems;
     }
 
     public void addToInventory(Product product, int quantity) {
-        if (product == null) {
-            throw new IllegalArgumentException("Product cannot be null.");
-        }
-        if (quantity <= 0) {
-            throw new IllegalArgumentException("Quantity to add must be positive.");
+        lock.lock();
+        try {
+            if (product == null) {
+                throw new IllegalArgumentException("Product cannot be null.");
+            }
+            if (quantity <= 0) {
+                throw new IllegalArgumentException("Quantity to add must be positive.");
+            }
+            this.inventory.put(product, this.inventory.getOrDefault(product, 0) + quantity);
+            this.totalItems += quantity;
+            ChangeEvents.inventoryChanged(this, product.getCatalogIndex(), inventory.get(product));
+            if (lock.isOutermost()) {
+                TradeJournal.recordCustomerAddToInventory(this, product, quantity);
+            }
+        } finally {
+            lock.unlock();
         }
-        this.inventory.put(product, this.inventory.getOrDefault(product, 0) + quantity);
     }
 
     /**
@@ -74,6 +137,21 @@ public class Customers implements Customer {
      * @throws IllegalStateException if the customer cannot afford the product or market doesn't have enough stock.
      */
     public void buyProductFromMarket(Product product, int quantity, Market sellerMarket) {
+        buyProductFromMarket(product, quantity, sellerMarket, true);
+    }
+
+    /**
+     * Same as {@link #buyProductFromMarket(Product, int, Market)}, but a purchase the customer cannot
+     * afford or the market cannot supply is reported as NO_FUNDS or NO_STOCK instead of thrown.
+     *
+     * @throws IllegalArgumentException if inputs are invalid.
+     */
+    public TradeResult tryBuyProductFromMarket(Product product, int quantity, Market sellerMarket) {
+        return buyProductFromMarket(product, quantity, sellerMarket, false);
+    }
+
+    private TradeResult buyProductFromMarket(Product product, int quantity, Market sellerMarket, boolean throwOnReject) {
+        long start = TradeMetrics.start();
         if (product == null || sellerMarket == null) {
             throw new IllegalArgumentException("Product or seller market cannot be null.");
         }
@@ -81,27 +159,53 @@ public class Customers implements Customer {
             throw new IllegalArgumentException("Quantity to buy must be positive.");
         }
 
-        double pricePerUnit = sellerMarket.getProductPrice(product);
-        if (pricePerUnit < 0) {
-            throw new IllegalStateException("Product price from market cannot be negative.");
-        }
-        double totalCost = pricePerUnit * quantity;
-
-        if (this.balance < totalCost) {
-            throw new IllegalStateException("Insufficient funds. Required: " + String.format("%.2f", totalCost) +
-                    ", Available: " + String.format("%.2f", this.balance));
-        }
-
-        int marketStock = sellerMarket.getInventory().getOrDefault(product, 0);
-        if (marketStock < quantity) {
-            throw new IllegalStateException("Market " + sellerMarket.getName() + " does not have enough stock of " + product.getName() +
-                    ". Available: " + marketStock + ", Requested: " + quantity);
+        EntityLock.lockBoth(this, sellerMarket);
+        try {
+            double pricePerUnit = sellerMarket.getProductPrice(product);
+            if (pricePerUnit < 0) {
+                throw new IllegalStateException("Product price from market cannot be negative.");
+            }
+            double totalCost = pricePerUnit * quantity;
+
+            if (this.balance < totalCost) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_FUNDS, "Insufficient funds. Required: " + String.format("%.2f", totalCost) +
+                            ", Available: " + String.format("%.2f", this.balance));
+                }
+                return rejected(TradeMetrics.Operation.CUSTOMER_BUY, start, TradeResult.NO_FUNDS);
+            }
+
+            int marketStock = sellerMarket.getStock(product);
+            if (marketStock < quantity) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_STOCK, "Market " + sellerMarket.getName() + " does not have enough stock of " + product.getName() +
+                            ". Available: " + marketStock + ", Requested: " + quantity);
+                }
+                return rejected(TradeMetrics.Operation.CUSTOMER_BUY, start, TradeResult.NO_STOCK);
+            }
+
+            this.balance -= totalCost;
+            ChangeEvents.balanceChanged(this, balance);
+            this.addToInventory(product, quantity);
+
+            sellerMarket.sellProductToCustomer(product, quantity, this);
+            if (lock.isOutermost()) {
+                TradeJournal.recordCustomerBuy(this, sellerMarket, product, quantity);
+                TradeMetrics.succeeded(TradeMetrics.Operation.CUSTOMER_BUY, start);
+            }
+            return TradeResult.OK;
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.CUSTOMER_BUY, start, ex);
+            }
+            throw ex;
+        } finally {
+            EntityLock.unlockBoth(this, sellerMarket);
         }
+    }
 
-        this.balance -= totalCost;
-        this.addToInventory(product, quantity);
-
-        sellerMarket.sellProductToCustomer(product, quantity, this);
+    private TradeResult rejected(TradeMetrics.Operation operation, long start, TradeResult result) {
+        return lock.isOutermost() ? TradeMetrics.rejected(operation, start, result) : result;
     }
 
     @Override
@@ -109,16 +213,16 @@ public class Customers implements Customer {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Customers that = (Customers) o;
-        return Objects.equals(customerID, that.customerID);
+        return id == that.id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(customerID);
+        return Long.hashCode(id);
     }
 
     @Override
     public String toString() {
-        return name + " (ID: " + customerID + ", Balance: " + String.format("%.2f", balance) + ")";
+        return name + " (ID: " + getCustomerID() + ", Balance: " + String.format("%.2f", balance) + ")";
     }
 }
\ No newline at end of file
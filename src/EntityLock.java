@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The lock that guards one trading entity (factory, market, customer or producer).
+ * Every lock gets a unique order number when it is created. A trade that touches two
+ * entities always locks the lower number first, so two trades can never wait on each
+ * other in a cycle, and trades between disjoint entities never contend.
+ */
+public class EntityLock extends ReentrantLock {
+    private static final AtomicLong nextOrder = new AtomicLong();
+
+    private final long order = nextOrder.getAndIncrement();
+
+    public long getOrder() {
+        return order;
+    }
+
+    /**
+     * True if the current thread holds this lock exactly once, i.e. it is running the outermost
+     * operation on the entity and not a step nested inside another trade (for example the seller's
+     * half of a purchase). Only outermost operations are written to the {@link TradeJournal}.
+     */
+    public boolean isOutermost() {
+        return getHoldCount() == 1;
+    }
+
+    /**
+     * Locks both entities in lock order. The two may be the same entity.
+     */
+    public static void lockBoth(Customer first, Customer second) {
+        EntityLock a = first.getLock();
+        EntityLock b = second.getLock();
+        if (a == b) {
+            a.lock();
+        } else if (a.order < b.order) {
+            a.lock();
+            b.lock();
+        } else {
+            b.lock();
+            a.lock();
+        }
+    }
+
+    public static void unlockBoth(Customer first, Customer second) {
+        first.getLock().unlock();
+        if (second.getLock() != first.getLock()) {
+            second.getLock().unlock();
+        }
+    }
+
+    /**
+     * Locks every given entity in lock order, which stops all trades touching them.
+     * @return the locks taken, to pass to {@link #unlockAll(List)}.
+     */
+    public static List<EntityLock> lockAll(List<? extends Customer> entities) {
+        List<EntityLock> locks = new ArrayList<>(entities.size());
+        for (Customer entity : entities) {
+            locks.add(entity.getLock());
+        }
+        locks.sort(Comparator.comparingLong(EntityLock::getOrder));
+        for (EntityLock lock : locks) {
+            lock.lock();
+        }
+        return locks;
+    }
+
+    public static void unlockAll(List<EntityLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+}
@@ -0,0 +1,382 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Holds the entities of one kind (factories, markets, customers or producers) in insertion order,
+ * indexed by their numeric ID.
+ * Lookup and removal by ID are O(1). A removal only leaves an empty slot behind, and the filled
+ * slots are counted in a Fenwick tree, so access by position (the GUIs use list indexes) finds
+ * its slot in O(log n) without shifting anything. The slots are compacted once at least half of
+ * them are empty, which keeps that cost amortized O(1) per removal.
+ *
+ * @param <T> the entity type, identified by {@link Customer#getID()}.
+ */
+public class EntityRegistry<T extends Customer> extends AbstractList<T> implements RandomAccess {
+    private final ArrayList<T> slots = new ArrayList<>();
+    private final SlotIndex slotByID = new SlotIndex();
+    private final SlotCounts filled = new SlotCounts();
+    private int emptySlots;
+
+    public T findByID(long id) {
+        int slot = slotByID.get(id);
+        return slot < 0 ? null : slots.get(slot);
+    }
+
+    public boolean containsID(long id) {
+        return slotByID.get(id) >= 0;
+    }
+
+    /**
+     * Removes the entity with the given ID.
+     * @return the removed entity, or null if there was none.
+     */
+    public T removeByID(long id) {
+        int slot = slotByID.remove(id);
+        if (slot < 0) {
+            return null;
+        }
+        T removed = slots.set(slot, null);
+        filled.add(slot, -1);
+        emptySlots++;
+        modCount++;
+        if (emptySlots * 2 >= slots.size()) {
+            compact();
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean add(T entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Entity cannot be null.");
+        }
+        long id = entity.getID();
+        if (slotByID.get(id) >= 0) {
+            throw new IllegalArgumentException("An entity with ID " + entity.getCustomerID() + " is already registered.");
+        }
+        slotByID.put(id, slots.size());
+        filled.append(slots.size());
+        slots.add(entity);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public T get(int index) {
+        checkIndex(index);
+        return slots.get(filled.slotOf(index));
+    }
+
+    @Override
+    public T set(int index, T entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Entity cannot be null.");
+        }
+        checkIndex(index);
+        int slot = filled.slotOf(index);
+        T old = slots.get(slot);
+        if (old.getID() != entity.getID()) {
+            if (slotByID.get(entity.getID()) >= 0) {
+                throw new IllegalArgumentException("An entity with ID " + entity.getCustomerID() + " is already registered.");
+            }
+            slotByID.remove(old.getID());
+            slotByID.put(entity.getID(), slot);
+        }
+        slots.set(slot, entity);
+        return old;
+    }
+
+    @Override
+    public T remove(int index) {
+        return removeByID(get(index).getID());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+        removeByID(((Customer) o).getID());
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Customer)) {
+            return false;
+        }
+        T found = findByID(((Customer) o).getID());
+        return found != null && found.equals(o);
+    }
+
+    /**
+     * Returns the position of the entity in O(log n), counting the filled slots before its own,
+     * so a table can find the row of an entity it hears about.
+     */
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Customer)) {
+            return -1;
+        }
+        int slot = slotByID.get(((Customer) o).getID());
+        return slot >= 0 && slots.get(slot).equals(o) ? filled.countBefore(slot) : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o); // IDs are unique
+    }
+
+    @Override
+    public void clear() {
+        slots.clear();
+        slotByID.clear();
+        filled.clear();
+        emptySlots = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return slotByID.size();
+    }
+
+    /**
+     * Iterates in insertion order, skipping removed slots without compacting them.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private final int expectedModCount = modCount;
+            private int nextSlot = advance(0);
+
+            private int advance(int from) {
+                while (from < slots.size() && slots.get(from) == null) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextSlot < slots.size();
+            }
+
+            @Override
+            public T next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T entity = slots.get(nextSlot);
+                nextSlot = advance(nextSlot + 1);
+                return entity;
+            }
+        };
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index);
+        }
+    }
+
+    private void compact() {
+        int write = 0;
+        for (int read = 0; read < slots.size(); read++) {
+            T entity = slots.get(read);
+            if (entity != null) {
+                if (write != read) {
+                    slots.set(write, entity);
+                    slotByID.put(entity.getID(), write);
+                }
+                write++;
+            }
+        }
+        slots.subList(write, slots.size()).clear();
+        filled.fill(write);
+        emptySlots = 0;
+    }
+
+    /**
+     * Counts the filled slots in a Fenwick tree, so the slot holding the n-th entity is found in
+     * O(log n). The capacity stays a power of two, which lets it double by copying.
+     */
+    private static final class SlotCounts {
+        private int[] tree = new int[17]; // 1-based; tree[i] counts the slots (i - (i & -i), i]
+        private int capacity = 16;
+
+        void add(int slot, int delta) {
+            for (int i = slot + 1; i <= capacity; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        /**
+         * Marks a new slot at the end as filled.
+         */
+        void append(int slot) {
+            if (slot >= capacity) {
+                // The new top node covers every old slot, whose count the old top node holds.
+                int[] grown = Arrays.copyOf(tree, capacity * 2 + 1);
+                grown[capacity * 2] = tree[capacity];
+                tree = grown;
+                capacity *= 2;
+            }
+            add(slot, 1);
+        }
+
+        /**
+         * Returns the number of filled slots before the given one.
+         */
+        int countBefore(int slot) {
+            int count = 0;
+            for (int i = slot; i > 0; i -= i & -i) {
+                count += tree[i];
+            }
+            return count;
+        }
+
+        /**
+         * Returns the slot of the filled slot with the given position among the filled ones.
+         */
+        int slotOf(int index) {
+            int slot = 0;
+            int remaining = index + 1;
+            for (int step = capacity; step > 0; step >>= 1) {
+                int next = slot + step;
+                if (next <= capacity && tree[next] < remaining) {
+                    slot = next;
+                    remaining -= tree[next];
+                }
+            }
+            return slot;
+        }
+
+        /**
+         * Resets the counts to the first count slots filled and the rest empty.
+         */
+        void fill(int count) {
+            Arrays.fill(tree, 0);
+            for (int i = 1; i <= capacity; i++) {
+                if (i <= count) {
+                    tree[i]++;
+                }
+                int parent = i + (i & -i);
+                if (parent <= capacity) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(tree, 0);
+        }
+    }
+
+    /**
+     * Map from entity ID to slot with open addressing over primitive arrays, so lookups do not box.
+     * IDs are never negative, which leaves -1 free to mark an empty bucket.
+     */
+    private static final class SlotIndex {
+        private long[] keys = newKeys(16);
+        private int[] values = new int[16];
+        private int size;
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, -1);
+            return keys;
+        }
+
+        private int bucket(long id, int mask) {
+            return Long.hashCode(id * 0x9E3779B97F4A7C15L) & mask;
+        }
+
+        /**
+         * Returns the slot of the ID, or -1.
+         */
+        int get(long id) {
+            int mask = keys.length - 1;
+            for (int b = bucket(id, mask); keys[b] != -1; b = (b + 1) & mask) {
+                if (keys[b] == id) {
+                    return values[b];
+                }
+            }
+            return -1;
+        }
+
+        void put(long id, int slot) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int b = bucket(id, mask);
+            while (keys[b] != -1 && keys[b] != id) {
+                b = (b + 1) & mask;
+            }
+            if (keys[b] == -1) {
+                size++;
+            }
+            keys[b] = id;
+            values[b] = slot;
+        }
+
+        /**
+         * Removes the ID and returns its slot, or -1 if it was not there. Later entries of the same
+         * probe run are moved back, so no tombstones are needed.
+         */
+        int remove(long id) {
+            int mask = keys.length - 1;
+            int b = bucket(id, mask);
+            while (keys[b] != id) {
+                if (keys[b] == -1) {
+                    return -1;
+                }
+                b = (b + 1) & mask;
+            }
+            int slot = values[b];
+            size--;
+            int hole = b;
+            for (int next = (hole + 1) & mask; keys[next] != -1; next = (next + 1) & mask) {
+                int home = bucket(keys[next], mask);
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = -1;
+            return slot;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            Arrays.fill(keys, -1);
+            size = 0;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int b = 0; b < oldKeys.length; b++) {
+                if (oldKeys[b] != -1) {
+                    put(oldKeys[b], oldValues[b]);
+                }
+            }
+        }
+    }
+}
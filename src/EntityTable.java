@@ -0,0 +1,64 @@
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.RowFilter;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.TableRowSorter;
+import java.util.regex.Pattern;
+
+/**
+ * Single-selection table over an {@link EntityTableModel} with fixed row height, columns sorted by
+ * clicking their header, and rows filtered by the text typed into a filter field. The first column
+ * is the one filtered on, normally the name.
+ *
+ * @param <T> the entity type of the rows.
+ */
+public class EntityTable<T extends Customer> extends JTable {
+    private final EntityTableModel<T> entityModel;
+    private final TableRowSorter<EntityTableModel<T>> sorter;
+
+    public EntityTable(EntityTableModel<T> model, JTextField filterField) {
+        super(model);
+        this.entityModel = model;
+        this.sorter = new TableRowSorter<>(model);
+        sorter.setSortsOnUpdates(true);
+        setRowSorter(sorter);
+        setRowHeight(getFontMetrics(getFont()).getHeight() + 4);
+        setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        setFillsViewportHeight(true);
+
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { applyFilter(filterField.getText()); }
+            public void removeUpdate(DocumentEvent e) { applyFilter(filterField.getText()); }
+            public void changedUpdate(DocumentEvent e) { applyFilter(filterField.getText()); }
+        });
+    }
+
+    private void applyFilter(String text) {
+        String trimmed = text.trim();
+        sorter.setRowFilter(trimmed.isEmpty() ? null : RowFilter.regexFilter("(?i)" + Pattern.quote(trimmed), 0));
+    }
+
+    /**
+     * Returns the model row of the selected entity, or -1 if nothing is selected.
+     */
+    public int getSelectedModelRow() {
+        int viewRow = getSelectedRow();
+        return viewRow < 0 ? -1 : convertRowIndexToModel(viewRow);
+    }
+
+    /**
+     * Returns the selected entity, or null if nothing is selected.
+     */
+    public T getSelectedEntity() {
+        return entityModel.getEntity(getSelectedModelRow());
+    }
+
+    /**
+     * Returns the model row shown at the given view row, or -1.
+     */
+    public int modelRowAt(int viewRow) {
+        return viewRow < 0 || viewRow >= getRowCount() ? -1 : convertRowIndexToModel(viewRow);
+    }
+}
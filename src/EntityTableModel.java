@@ -0,0 +1,178 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Table model that reads its rows straight from a controller's live entity list, so nothing is
+ * copied and the table only asks for the cells it paints. Changes made through the GUI are announced
+ * as single-row events, and so are the changes made elsewhere, such as by a running simulation,
+ * which {@link SwingTasks} passes to {@link #apply}. {@link #refresh()} re-reads every row, for
+ * when changes may have been missed.
+ * <p>
+ * The row count is the one last announced, so the table and its sorter never see rows that were
+ * added or removed behind their back before the next event.
+ *
+ * @param <T> the entity type of the rows.
+ */
+public class EntityTableModel<T extends Customer> extends AbstractTableModel {
+    private final List<T> entities;
+    private final List<String> columnNames = new ArrayList<>();
+    private final List<Class<?>> columnTypes = new ArrayList<>();
+    private final List<Function<? super T, ?>> columnValues = new ArrayList<>();
+    private int rowCount;
+    private final BitSet changedRows = new BitSet(); // by apply, until flushChanges
+
+    public EntityTableModel(List<T> entities) {
+        this.entities = entities;
+        this.rowCount = entities.size();
+    }
+
+    /**
+     * Adds a column. Columns of a Comparable type such as Double or Long sort by value.
+     */
+    public <V> EntityTableModel<T> addColumn(String name, Class<V> type, Function<? super T, ? extends V> value) {
+        columnNames.add(name);
+        columnTypes.add(type);
+        columnValues.add(value);
+        return this;
+    }
+
+    /**
+     * Returns the entity in the given model row, or null if it is no longer there.
+     */
+    public T getEntity(int row) {
+        return row >= 0 && row < rowCount && row < entities.size() ? entities.get(row) : null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.size();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames.get(column);
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return columnTypes.get(column);
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        T entity = getEntity(row);
+        return entity == null ? null : columnValues.get(column).apply(entity);
+    }
+
+    /**
+     * Announces the entities appended to the list since the last event, if any.
+     */
+    public void entitiesAppended() {
+        int size = entities.size();
+        if (size < rowCount) {
+            refresh();
+        } else if (size > rowCount) {
+            int first = rowCount;
+            rowCount = size;
+            fireTableRowsInserted(first, size - 1);
+        }
+    }
+
+    /**
+     * Announces a change to the entity in the given model row. Entities appended meanwhile do not
+     * move it; removed ones may have, which refreshes the table instead.
+     */
+    public void entityChanged(int row) {
+        if (entities.size() < rowCount) {
+            refresh();
+            return;
+        }
+        fireTableRowsUpdated(row, row);
+    }
+
+    /**
+     * Announces that the entity in the given model row was removed from the list.
+     */
+    public void entityRemoved(int row) {
+        if (entities.size() != rowCount - 1) {
+            refresh();
+            return;
+        }
+        rowCount--;
+        fireTableRowsDeleted(row, row);
+    }
+
+    /**
+     * Announces a change the domain reported through {@link ChangeEvents}, if it concerns an
+     * entity of this table: a changed entity has its row updated by the next {@link #flushChanges()},
+     * an added one is appended. A
+     * removed entity is no longer in the list to find its row by, so a removal this table has not
+     * been told about yet refreshes it; so does a RESYNC.
+     */
+    public void apply(Customer entity, byte type) {
+        if (type == ChangeEvents.RESYNC) {
+            refresh();
+            return;
+        }
+        if (type == ChangeEvents.ENTITY_REMOVED) {
+            if (entities.size() < rowCount) {
+                refresh();
+            }
+            return;
+        }
+        int row = entities.indexOf(entity); // O(log n) on an EntityRegistry
+        if (row < 0) {
+            return;
+        }
+        if (row >= rowCount) {
+            entitiesAppended();
+        } else {
+            changedRows.set(row);
+        }
+    }
+
+    /**
+     * Announces the rows {@link #apply} found changed, one by one. When more than a tenth of the
+     * rows changed they are announced as one range instead: a sorted table then sorts once, as
+     * its sorter would for such a range anyway, rather than moving every row on its own.
+     */
+    public void flushChanges() {
+        if (changedRows.isEmpty()) {
+            return;
+        }
+        if (entities.size() < rowCount) {
+            refresh();
+        } else if (changedRows.cardinality() * 10L > rowCount) {
+            changedRows.clear();
+            fireTableRowsUpdated(0, rowCount - 1);
+        } else {
+            for (int row = changedRows.nextSetBit(0); row >= 0; row = changedRows.nextSetBit(row + 1)) {
+                fireTableRowsUpdated(row, row);
+            }
+            changedRows.clear();
+        }
+    }
+
+    /**
+     * Picks up changes that were not announced. Only the row count changing rebuilds the table;
+     * otherwise every row is marked updated, which makes a sorted table sort again, so this is
+     * for when changes may have been missed, not for every change.
+     */
+    public void refresh() {
+        changedRows.clear();
+        if (entities.size() != rowCount) {
+            rowCount = entities.size();
+            fireTableDataChanged();
+        } else if (rowCount > 0) {
+            fireTableRowsUpdated(0, rowCount - 1);
+        }
+    }
+}
@@ -1,178 +1,1038 @@
-import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Factory implements Customer {
-    private final String factoryID;
+    private final long id;
     private final String name;
     private double balance;
     private int capacity;
+    private int usedCapacity; // running total of products, byproducts and raw materials
+    private int reservedCapacity; // storage held for the output of running production orders
 
-    private Map<String, Integer> products;
-    private Map<String, Integer> byproducts;
-    private Map<String, Integer> rawMaterials;
+    // Stock per ItemCatalog index, so the trading and production paths never box or hash.
+    private ItemStock products;
+    private ItemStock byproducts;
+    private ItemStock rawMaterials;
+    private final ItemStock[] stocks = new ItemStock[3]; // the three above, indexed as Recipe.FROM_*
 
     private List<ProductDesign> designs;
 
-    private static int nextID = 0;
+    private ProductionSchedule schedule; // production lines and their queue; null until first used
+    private OfferBook offerBook; // of the world this factory is in; null while in none
+
+    private final EntityLock lock = new EntityLock();
+
+    // Scratch space for produceBatch, indexed by ItemCatalog index * 3 + Recipe.FROM_*. Only used while holding the lock.
+    private double[] batchNeed = new double[16];
+    private int[] batchTouched = new int[16];
+
+    /**
+     * Factories sell their products to markets at this multiple of the design's production cost.
+     */
+    public static final double SALE_MARKUP = 1.2;
 
     public Factory(String name, double initialBalance, int capacity) {
         this.name = name;
         this.balance = initialBalance;
         this.capacity = capacity;
-        this.factoryID = "FACTORY_" + nextID++;
-        this.products = new HashMap<>();
-        this.byproducts = new HashMap<>();
-        this.rawMaterials = new HashMap<>();
+        this.id = IdAllocator.ENTITIES.next();
+        this.products = new ItemStock();
+        this.byproducts = new ItemStock();
+        this.rawMaterials = new ItemStock();
         this.designs = new ArrayList<>();
+        initStocks();
     }
 
-    public String getFactoryID() { return factoryID; }
+    /**
+     * Recreates a factory under an ID it had before, when loading a snapshot or replaying the journal.
+     * Factories created afterwards get higher IDs.
+     */
+    Factory(long id, String name, double balance, int capacity) {
+        this.name = name;
+        this.balance = balance;
+        this.capacity = capacity;
+        this.id = id;
+        this.products = new ItemStock();
+        this.byproducts = new ItemStock();
+        this.rawMaterials = new ItemStock();
+        this.designs = new ArrayList<>();
+        initStocks();
+        IdAllocator.ENTITIES.reserve(id);
+    }
+
+    private void initStocks() {
+        stocks[Recipe.FROM_RAW_MATERIALS] = rawMaterials;
+        stocks[Recipe.FROM_PRODUCTS] = products;
+        stocks[Recipe.FROM_BYPRODUCTS] = byproducts;
+    }
+
+    public long getID() { return id; }
+
+    /**
+     * The ID as shown to users.
+     */
+    public String getFactoryID() { return "FACTORY_" + id; }
     public String getName() { return name; }
     public double getBalance() { return balance; }
     public int getCapacity() { return capacity; }
 
-    public void setBalance(double balance) { this.balance = balance; }
-    public void setCapacity(int capacity) { this.capacity = capacity; }
+    public void setBalance(double balance) {
+        lock.lock();
+        try {
+            this.balance = balance;
+            ChangeEvents.balanceChanged(this, balance);
+            TradeJournal.recordFieldSet(this, TradeJournal.FIELD_BALANCE, balance);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setCapacity(int capacity) {
+        lock.lock();
+        try {
+            this.capacity = capacity;
+            TradeJournal.recordFieldSet(this, TradeJournal.FIELD_CAPACITY, capacity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Read-only so every change goes through a method that keeps usedCapacity up to date.
+    public Map<String, Integer> getProducts() { return products.asMap(); }
+    public Map<String, Integer> getByproducts() { return byproducts.asMap(); }
+    public Map<String, Integer> getRawMaterials() { return rawMaterials.asMap(); }
 
-    public Map<String, Integer> getProducts() { return products; }
-    public Map<String, Integer> getByproducts() { return byproducts; }
-    public Map<String, Integer> getRawMaterials() { return rawMaterials; }
+    // Direct stock queries by ItemCatalog index (see InventoryItem.getCatalogIndex()).
+    public int getProductStock(int item) { return products.get(item); }
+    public int getByproductStock(int item) { return byproducts.get(item); }
+    public int getRawMaterialStock(int item) { return rawMaterials.get(item); }
     public List<ProductDesign> getDesigns() { return designs; }
 
     public void addProduct(String name, int amount) {
-        if (name == null || name.trim().isEmpty()) {
-            throw new IllegalArgumentException("Product name cannot be empty.");
+        lock.lock();
+        try {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Product name cannot be empty.");
+            }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount to add must be positive.");
+            }
+            int currentTotal = storageInUse();
+            if (currentTotal + amount > capacity) {
+                throw new TradeRejectedException(TradeResult.NO_CAPACITY, "Insufficient storage to add product. Available: " + (capacity - currentTotal));
+            }
+            int item = ItemCatalog.indexOf(name);
+            products.add(item, amount);
+            usedCapacity += amount;
+            stockArrived(Recipe.FROM_PRODUCTS, item);
+            refreshOffer(item);
+            ChangeEvents.inventoryChanged(this, item, products.get(item));
+            if (lock.isOutermost()) {
+                TradeJournal.recordFactoryStockAdded(this, TradeJournal.KIND_PRODUCT, name, amount);
+            }
+        } finally {
+            lock.unlock();
         }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount to add must be positive.");
+    }
+
+    public void addByproduct(String name, int amount) {
+        lock.lock();
+        try {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Byproduct name cannot be empty.");
+            }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount to add must be positive.");
+            }
+            int currentTotal = storageInUse();
+            if (currentTotal + amount > capacity) {
+                throw new TradeRejectedException(TradeResult.NO_CAPACITY, "Insufficient storage to add byproduct. Available: " + (capacity - currentTotal));
+            }
+            int item = ItemCatalog.indexOf(name);
+            byproducts.add(item, amount);
+            usedCapacity += amount;
+            stockArrived(Recipe.FROM_BYPRODUCTS, item);
+            ChangeEvents.inventoryChanged(this, item, byproducts.get(item));
+            if (lock.isOutermost()) {
+                TradeJournal.recordFactoryStockAdded(this, TradeJournal.KIND_BYPRODUCT, name, amount);
+            }
+        } finally {
+            lock.unlock();
         }
-        int currentTotal = getTotalInventory();
-        if (currentTotal + amount > capacity) {
-            throw new IllegalStateException("Insufficient storage to add product. Available: " + (capacity - currentTotal));
+    }
+
+    public void addRawMaterial(String name, int amount) {
+        lock.lock();
+        try {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Raw material name cannot be empty.");
+            }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount to add must be positive.");
+            }
+            int currentTotal = storageInUse();
+            if (currentTotal + amount > capacity) {
+                throw new TradeRejectedException(TradeResult.NO_CAPACITY, "Insufficient storage to add raw material. Available: " + (capacity - currentTotal));
+            }
+            int item = ItemCatalog.indexOf(name);
+            rawMaterials.add(item, amount);
+            usedCapacity += amount;
+            stockArrived(Recipe.FROM_RAW_MATERIALS, item);
+            ChangeEvents.inventoryChanged(this, item, rawMaterials.get(item));
+            if (lock.isOutermost()) {
+                TradeJournal.recordFactoryStockAdded(this, TradeJournal.KIND_RAW_MATERIAL, name, amount);
+            }
+        } finally {
+            lock.unlock();
         }
-        products.put(name, products.getOrDefault(name, 0) + amount);
     }
 
-    public void addByproduct(String name, int amount) {
-        if (name == null || name.trim().isEmpty()) {
-            throw new IllegalArgumentException("Byproduct name cannot be empty.");
+    public void addDesign(ProductDesign design) {
+        lock.lock();
+        try {
+            if (design == null) {
+                throw new IllegalArgumentException("Design cannot be null.");
+            }
+            designs.add(design);
+            design.addUser(this);
+            refreshOffer(design.getProduct().getCatalogIndex());
+            TradeJournal.recordDesignAdded(this, design);
+        } finally {
+            lock.unlock();
         }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount to add must be positive.");
+    }
+
+    /**
+     * The price per unit this factory asks for the product of a design.
+     */
+    public double getSellingPrice(ProductDesign design) {
+        return Math.max(0, design.getProductionCost() * SALE_MARKUP);
+    }
+
+    /**
+     * Publishes this factory's stock of a product to the {@link OfferBook}, at the price of the
+     * cheapest design that makes it. Products without a design are not offered.
+     * The caller holds this factory's lock.
+     */
+    private void refreshOffer(int item) {
+        ProductDesign cheapest = null;
+        for (ProductDesign design : designs) {
+            if (design.getProduct().getCatalogIndex() == item
+                    && (cheapest == null || design.getProductionCost() < cheapest.getProductionCost())) {
+                cheapest = design;
+            }
         }
-        int currentTotal = getTotalInventory();
-        if (currentTotal + amount > capacity) {
-            throw new IllegalStateException("Insufficient storage to add byproduct. Available: " + (capacity - currentTotal));
+        if (cheapest != null && offerBook != null) {
+            offerBook.update(this, cheapest.getProduct(), getSellingPrice(cheapest), products.get(item));
         }
-        byproducts.put(name, byproducts.getOrDefault(name, 0) + amount);
     }
 
-    public void addRawMaterial(String name, int amount) {
-        if (name == null || name.trim().isEmpty()) {
-            throw new IllegalArgumentException("Raw material name cannot be empty.");
+    /**
+     * Moves this factory's offers to another book, when its controller takes it into a world or
+     * drops it. Null withdraws them.
+     */
+    void setOfferBook(OfferBook offerBook) {
+        lock.lock();
+        try {
+            if (this.offerBook != null) {
+                this.offerBook.removeSeller(this);
+            }
+            this.offerBook = offerBook;
+            for (ProductDesign design : designs) {
+                refreshOffer(design.getProduct().getCatalogIndex());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a design of this factory when it changed, as its cost sets the selling price.
+     */
+    void designChanged(ProductDesign design) {
+        lock.lock();
+        try {
+            refreshOffer(design.getProduct().getCatalogIndex());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publishes the stock changes of running a recipe: its product, its byproduct and its inputs.
+     */
+    private void publishRecipeRun(Recipe recipe) {
+        if (!ChangeEvents.isActive()) {
+            return;
         }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount to add must be positive.");
+        int product = recipe.getProductItem();
+        ChangeEvents.inventoryChanged(this, product, products.get(product));
+        if (recipe.hasByproduct()) {
+            int byproduct = recipe.getByproductItem();
+            ChangeEvents.inventoryChanged(this, byproduct, byproducts.get(byproduct));
         }
-        int currentTotal = getTotalInventory();
-        if (currentTotal + amount > capacity) {
-            throw new IllegalStateException("Insufficient storage to add raw material. Available: " + (capacity - currentTotal));
+        for (int input = 0; input < recipe.getInputCount(); input++) {
+            int item = recipe.getInputItem(input);
+            ChangeEvents.inventoryChanged(this, item, stocks[recipe.getInputStock(input)].get(item));
         }
-        rawMaterials.put(name, rawMaterials.getOrDefault(name, 0) + amount);
     }
 
-    public void addDesign(ProductDesign design) {
-        if (design == null) {
-            throw new IllegalArgumentException("Design cannot be null.");
+    /**
+     * Takes units a batch produces off the batch's need for them, if the batch uses them at all.
+     */
+    private void creditBatchOutput(int key, int units) {
+        if (key < batchNeed.length && batchNeed[key] > 0) {
+            batchNeed[key] -= units;
+        }
+    }
+
+    /**
+     * Refreshes the offers of the products a recipe uses as inputs, after producing with it.
+     */
+    private void refreshConsumedOffers(Recipe recipe) {
+        if (!recipe.consumesProducts()) {
+            return;
+        }
+        for (int input = 0; input < recipe.getInputCount(); input++) {
+            if (recipe.getInputStock(input) == Recipe.FROM_PRODUCTS) {
+                refreshOffer(recipe.getInputItem(input));
+            }
+        }
+    }
+
+    private static String stockName(int stock) {
+        switch (stock) {
+            case Recipe.FROM_PRODUCTS: return "product";
+            case Recipe.FROM_BYPRODUCTS: return "byproduct";
+            default: return "raw material";
         }
-        designs.add(design);
     }
 
     public int getTotalInventory() {
-        return products.values().stream().mapToInt(Integer::intValue).sum()
-            + byproducts.values().stream().mapToInt(Integer::intValue).sum()
-            + rawMaterials.values().stream().mapToInt(Integer::intValue).sum();
+        return usedCapacity;
     }
 
-    public void buyProduct(String name, int amount, double pricePerUnit) {
-        if (name == null || name.trim().isEmpty()) {
-            throw new IllegalArgumentException("Product name cannot be empty.");
+    /**
+     * Storage left for new stock: the capacity minus the stock and the room held for the output
+     * of running production orders.
+     */
+    public int getFreeCapacity() {
+        lock.lock();
+        try {
+            return capacity - storageInUse();
+        } finally {
+            lock.unlock();
         }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount to buy must be positive.");
+    }
+
+    private int storageInUse() {
+        return usedCapacity + reservedCapacity;
+    }
+
+    public void buyProduct(String name, int amount, double pricePerUnit) {
+        buyProduct(name, amount, pricePerUnit, true);
+    }
+
+    /**
+     * Same as {@link #buyProduct(String, int, double)}, but a purchase this factory cannot pay for
+     * or store is reported as NO_FUNDS or NO_CAPACITY instead of thrown.
+     *
+     * @throws IllegalArgumentException if the name is empty or the amount not positive.
+     */
+    public TradeResult tryBuyProduct(String name, int amount, double pricePerUnit) {
+        return buyProduct(name, amount, pricePerUnit, false);
+    }
+
+    private TradeResult buyProduct(String name, int amount, double pricePerUnit, boolean throwOnReject) {
+        long start = TradeMetrics.start();
+        lock.lock();
+        try {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Product name cannot be empty.");
+            }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount to buy must be positive.");
+            }
+            double totalCost = amount * pricePerUnit;
+            if (balance < totalCost) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_FUNDS, "Insufficient funds to buy product. Required: " + totalCost + ", Available: " + balance);
+                }
+                return rejected(TradeMetrics.Operation.FACTORY_BUY, start, TradeResult.NO_FUNDS);
+            }
+            int currentTotal = storageInUse();
+            if (currentTotal + amount > capacity) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_CAPACITY, "Insufficient storage to buy product. Available: " + (capacity - currentTotal));
+                }
+                return rejected(TradeMetrics.Operation.FACTORY_BUY, start, TradeResult.NO_CAPACITY);
+            }
+            balance -= totalCost;
+            int item = ItemCatalog.indexOf(name);
+            rawMaterials.add(item, amount);
+            usedCapacity += amount;
+            stockArrived(Recipe.FROM_RAW_MATERIALS, item);
+            ChangeEvents.balanceChanged(this, balance);
+            ChangeEvents.inventoryChanged(this, item, rawMaterials.get(item));
+            if (lock.isOutermost()) {
+                TradeJournal.recordFactoryBuy(this, name, amount, pricePerUnit);
+                TradeMetrics.succeeded(TradeMetrics.Operation.FACTORY_BUY, start);
+            }
+            return TradeResult.OK;
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.FACTORY_BUY, start, ex);
+            }
+            throw ex;
+        } finally {
+            lock.unlock();
         }
-        double totalCost = amount * pricePerUnit;
-        if (balance < totalCost) {
-            throw new IllegalStateException("Insufficient funds to buy product. Required: " + totalCost + ", Available: " + balance);
+    }
+
+    /**
+     * The largest amount of the design's product that produceProduct would accept right now,
+     * limited by its inputs in stock, funds and storage. 0 if none can be made.
+     */
+    public int getMaxProducible(ProductDesign design) {
+        if (design == null) {
+            throw new IllegalArgumentException("Design cannot be null.");
         }
-        int currentTotal = getTotalInventory();
-        if (currentTotal + amount > capacity) {
-            throw new IllegalStateException("Insufficient storage to buy product. Available: " + (capacity - currentTotal));
+        lock.lock();
+        try {
+            Recipe recipe = design.compile();
+            long max = recipe.maxProducible(stocks);
+            if (recipe.getProductionCost() > 0) {
+                max = Math.min(max, (long) (balance / recipe.getProductionCost()));
+            }
+            max = Math.min(max, (long) capacity - storageInUse());
+            return (int) Math.max(0, max);
+        } finally {
+            lock.unlock();
         }
-        balance -= totalCost;
-        rawMaterials.put(name, rawMaterials.getOrDefault(name, 0) + amount);
     }
 
     public void produceProduct(ProductDesign design, int amount) {
+        produceProduct(design, amount, true);
+    }
+
+    /**
+     * Same as {@link #produceProduct(ProductDesign, int)}, but production this factory lacks the
+     * inputs, funds or storage for is reported as NO_STOCK, NO_FUNDS or NO_CAPACITY instead of thrown.
+     *
+     * @throws IllegalArgumentException if the design is null or the amount not positive.
+     */
+    public TradeResult tryProduceProduct(ProductDesign design, int amount) {
+        return produceProduct(design, amount, false);
+    }
+
+    private TradeResult produceProduct(ProductDesign design, int amount, boolean throwOnReject) {
+        long start = TradeMetrics.start();
+        lock.lock();
+        try {
+            if (design == null) {
+                throw new IllegalArgumentException("Design cannot be null.");
+            }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount to produce must be positive.");
+            }
+            Recipe recipe = design.compile();
+            int shortInput = recipe.firstShortInput(stocks, amount);
+            if (shortInput >= 0) {
+                if (throwOnReject) {
+                    int item = recipe.getInputItem(shortInput);
+                    throw new TradeRejectedException(TradeResult.NO_STOCK, "Insufficient " + stockName(recipe.getInputStock(shortInput)) + ": "
+                            + ItemCatalog.nameOf(item) + ". Required: " + recipe.getInputPerUnit(shortInput) * amount
+                            + ", Available: " + stocks[recipe.getInputStock(shortInput)].get(item));
+                }
+                return rejected(TradeMetrics.Operation.FACTORY_PRODUCE, start, TradeResult.NO_STOCK);
+            }
+            double totalCost = recipe.getProductionCost() * amount;
+            if (balance < totalCost) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_FUNDS, "Insufficient funds to produce product. Required: " + totalCost + ", Available: " + balance);
+                }
+                return rejected(TradeMetrics.Operation.FACTORY_PRODUCE, start, TradeResult.NO_FUNDS);
+            }
+            int currentTotal = storageInUse();
+            int outputAmount = amount; // Assuming 1:1 output for main product
+            if (currentTotal + outputAmount > capacity) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_CAPACITY, "Insufficient storage to produce product. Available: " + (capacity - currentTotal));
+                }
+                return rejected(TradeMetrics.Operation.FACTORY_PRODUCE, start, TradeResult.NO_CAPACITY);
+            }
+            usedCapacity -= recipe.consume(stocks, amount);
+            balance -= totalCost;
+            products.add(recipe.getProductItem(), amount);
+            usedCapacity += amount;
+            if (recipe.hasByproduct()) {
+                int byproductAmount = recipe.byproductUnits(amount);
+                byproducts.add(recipe.getByproductItem(), byproductAmount);
+                usedCapacity += byproductAmount;
+                stockArrived(Recipe.FROM_BYPRODUCTS, recipe.getByproductItem());
+            }
+            stockArrived(Recipe.FROM_PRODUCTS, recipe.getProductItem());
+            refreshOffer(recipe.getProductItem());
+            refreshConsumedOffers(recipe);
+            ChangeEvents.balanceChanged(this, balance);
+            publishRecipeRun(recipe);
+            if (lock.isOutermost()) {
+                TradeJournal.recordProduction(this, design, amount);
+                TradeMetrics.succeeded(TradeMetrics.Operation.FACTORY_PRODUCE, start);
+            }
+            return TradeResult.OK;
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.FACTORY_PRODUCE, start, ex);
+            }
+            throw ex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs many production orders as one. The inputs, funds and storage needed by all
+     * orders together are checked once, then every order is applied: either all of them are
+     * produced or, if anything is short, none are.
+     * <p>
+     * Products and byproducts made by one order can be inputs of another order in the same batch,
+     * whatever their order in the list. Storage is checked against what the factory will hold after
+     * the whole batch, so inputs the batch uses up make room for its output, and byproducts count as well.
+     *
+     * @throws IllegalArgumentException if orders is null or empty.
+     * @throws IllegalStateException if the combined needs exceed the stock, balance or capacity.
+     */
+    public void produceBatch(List<ProductionOrder> orders) {
+        produceBatch(orders, true);
+    }
+
+    /**
+     * Same as {@link #produceBatch(List)}, but a batch this factory lacks the inputs, funds or
+     * storage for is reported as NO_STOCK, NO_FUNDS or NO_CAPACITY instead of thrown.
+     *
+     * @throws IllegalArgumentException if orders is null or empty.
+     */
+    public TradeResult tryProduceBatch(List<ProductionOrder> orders) {
+        return produceBatch(orders, false);
+    }
+
+    private TradeResult produceBatch(List<ProductionOrder> orders, boolean throwOnReject) {
+        long start = TradeMetrics.start();
+        if (orders == null || orders.isEmpty()) {
+            throw new IllegalArgumentException("Orders cannot be empty.");
+        }
+        lock.lock();
+        try {
+            double totalCost = 0;
+            long consumed = 0;
+            long produced = 0;
+            int touched = 0;
+            try {
+                for (ProductionOrder order : orders) {
+                    Recipe recipe = order.getDesign().compile();
+                    int amount = order.getAmount();
+                    for (int input = 0; input < recipe.getInputCount(); input++) {
+                        int key = recipe.getInputItem(input) * stocks.length + recipe.getInputStock(input);
+                        double required = recipe.getInputPerUnit(input) * amount;
+                        if (key >= batchNeed.length) {
+                            batchNeed = Arrays.copyOf(batchNeed, Math.max(batchNeed.length * 2, key + 1));
+                        }
+                        if (batchNeed[key] == 0) {
+                            if (touched == batchTouched.length) {
+                                batchTouched = Arrays.copyOf(batchTouched, touched * 2);
+                            }
+                            batchTouched[touched++] = key;
+                        }
+                        batchNeed[key] += required;
+                        consumed += (int) required;
+                    }
+                    totalCost += recipe.getProductionCost() * amount;
+                    produced += amount + recipe.byproductUnits(amount);
+                }
+                for (ProductionOrder order : orders) {
+                    // what the batch makes itself is available to the orders that use it
+                    Recipe recipe = order.getDesign().compile();
+                    creditBatchOutput(recipe.getProductItem() * stocks.length + Recipe.FROM_PRODUCTS, order.getAmount());
+                    if (recipe.hasByproduct()) {
+                        creditBatchOutput(recipe.getByproductItem() * stocks.length + Recipe.FROM_BYPRODUCTS,
+                                recipe.byproductUnits(order.getAmount()));
+                    }
+                }
+                for (int i = 0; i < touched; i++) {
+                    int key = batchTouched[i];
+                    int item = key / stocks.length;
+                    int stock = key % stocks.length;
+                    int available = stocks[stock].get(item);
+                    if (available < batchNeed[key]) {
+                        if (throwOnReject) {
+                            throw new TradeRejectedException(TradeResult.NO_STOCK, "Insufficient " + stockName(stock) + " for the batch: " + ItemCatalog.nameOf(item)
+                                    + ". Required: " + batchNeed[key] + ", Available: " + available);
+                        }
+                        return rejected(TradeMetrics.Operation.FACTORY_PRODUCE_BATCH, start, TradeResult.NO_STOCK);
+                    }
+                }
+            } finally {
+                for (int i = 0; i < touched; i++) {
+                    batchNeed[batchTouched[i]] = 0;
+                }
+            }
+            if (balance < totalCost) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_FUNDS, "Insufficient funds for the batch. Required: " + totalCost + ", Available: " + balance);
+                }
+                return rejected(TradeMetrics.Operation.FACTORY_PRODUCE_BATCH, start, TradeResult.NO_FUNDS);
+            }
+            long usedAfter = usedCapacity - consumed + produced;
+            if (usedAfter + reservedCapacity > capacity) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_CAPACITY, "Insufficient storage for the batch. Needed: " + usedAfter + ", Capacity: " + capacity);
+                }
+                return rejected(TradeMetrics.Operation.FACTORY_PRODUCE_BATCH, start, TradeResult.NO_CAPACITY);
+            }
+
+            for (ProductionOrder order : orders) {
+                Recipe recipe = order.getDesign().compile();
+                int amount = order.getAmount();
+                recipe.consume(stocks, amount);
+                products.add(recipe.getProductItem(), amount);
+                if (recipe.hasByproduct()) {
+                    byproducts.add(recipe.getByproductItem(), recipe.byproductUnits(amount));
+                }
+            }
+            usedCapacity = (int) usedAfter;
+            balance -= totalCost;
+            for (ProductionOrder order : orders) {
+                Recipe recipe = order.getDesign().compile();
+                stockArrived(Recipe.FROM_PRODUCTS, recipe.getProductItem());
+                if (recipe.hasByproduct()) {
+                    stockArrived(Recipe.FROM_BYPRODUCTS, recipe.getByproductItem());
+                }
+            }
+            for (ProductionOrder order : orders) {
+                refreshOffer(order.getDesign().getProduct().getCatalogIndex());
+                refreshConsumedOffers(order.getDesign().compile());
+            }
+            ChangeEvents.balanceChanged(this, balance);
+            for (ProductionOrder order : orders) {
+                publishRecipeRun(order.getDesign().compile());
+            }
+            if (lock.isOutermost()) {
+                TradeJournal.recordBatchProduction(this, orders);
+                TradeMetrics.succeeded(TradeMetrics.Operation.FACTORY_PRODUCE_BATCH, start);
+            }
+            return TradeResult.OK;
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.FACTORY_PRODUCE_BATCH, start, ex);
+            }
+            throw ex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Production lines (see ProductionSchedule) ---
+    // The clock is the tick runProduction is called with. Starting an order and finishing it are
+    // journaled as two operations, so a replay takes and holds the same stock, funds and storage.
+    // The queue itself is not saved in snapshots or the journal: orders still running when the
+    // application stops are lost, along with the inputs they took.
+
+    /**
+     * Sets how many orders this factory can work on at once; a factory has 1 line until this is
+     * called. 0 stops new orders from starting. Lowering it lets running orders finish.
+     */
+    public void setProductionLines(int lines) {
+        if (lines < 0) {
+            throw new IllegalArgumentException("Number of production lines cannot be negative.");
+        }
+        lock.lock();
+        try {
+            schedule().setLines(lines);
+            dispatchProduction();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getProductionLines() {
+        lock.lock();
+        try {
+            return schedule == null ? ProductionSchedule.DEFAULT_LINES : schedule.getLines();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets how many units of the design a line makes per tick. Designs without a rate make
+     * 1 unit per tick. Orders already running keep their finishing time.
+     */
+    public void setProductionRate(ProductDesign design, double unitsPerTick) {
         if (design == null) {
             throw new IllegalArgumentException("Design cannot be null.");
         }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount to produce must be positive.");
+        if (!(unitsPerTick > 0)) {
+            throw new IllegalArgumentException("Production rate must be positive.");
+        }
+        lock.lock();
+        try {
+            schedule().setRate(design, unitsPerTick);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues an order for the production lines. Orders with a higher priority start first; orders
+     * with the same priority start in the order they were queued. The order starts right away if a
+     * line is free and the inputs are in stock, and otherwise with the first {@link #runProduction}
+     * at which both are the case.
+     */
+    public void scheduleProduction(ProductionOrder order, int priority) {
+        if (order == null) {
+            throw new IllegalArgumentException("Order cannot be null.");
         }
-        for (InventoryItem item : design.getinputRequirements().keySet()) {
-            double required = design.getinputRequirements().get(item) * amount;
-            int available = rawMaterials.getOrDefault(item.getName(), 0);
-            if (available < required) {
-                throw new IllegalStateException("Insufficient raw material: " + item.getName() + ". Required: " + required + ", Available: " + available);
+        lock.lock();
+        try {
+            schedule().add(order, priority);
+            dispatchProduction();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advances the production lines to the given tick: every order that finishes by then, in
+     * order of finishing time, delivers its product and byproduct, and its line takes the next
+     * order from that moment on. Starting an order takes its inputs and pays its cost, and holds
+     * storage for its output; an order this factory cannot pay for or store at that point is dropped.
+     *
+     * @return the number of orders finished.
+     * @throws IllegalStateException if called inside another operation on this factory, where
+     * starting and finishing orders could not be journaled.
+     */
+    public int runProduction(long tick) {
+        lock.lock();
+        try {
+            if (!lock.isOutermost()) {
+                throw new IllegalStateException("Production lines cannot run inside another operation on the factory.");
             }
+            if (schedule == null) {
+                return 0;
+            }
+            int finished = 0;
+            ProductionSchedule.Job job;
+            while ((job = schedule.pollFinished(tick)) != null) {
+                finishProduction(job.order.getDesign().compile(), job.order.getAmount());
+                TradeJournal.recordProductionFinished(this, job.order.getDesign(), job.order.getAmount());
+                finished++;
+                schedule.dispatch(stocks); // the freed line starts its next order at the finishing time
+            }
+            schedule.advanceTo(tick);
+            schedule.dispatch(stocks);
+            return finished;
+        } finally {
+            lock.unlock();
         }
-        double totalCost = design.getProductionCost() * amount;
-        if (balance < totalCost) {
-            throw new IllegalStateException("Insufficient funds to produce product. Required: " + totalCost + ", Available: " + balance);
+    }
+
+    /**
+     * Orders queued and not yet started, whether they wait for a line or for inputs.
+     */
+    public int getQueuedProductionOrders() {
+        lock.lock();
+        try {
+            return schedule == null ? 0 : schedule.getWaitingCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunningProductionOrders() {
+        lock.lock();
+        try {
+            return schedule == null ? 0 : schedule.getRunningCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Orders dropped because this factory could not pay for or store their output when they started.
+     */
+    public long getFailedProductionOrders() {
+        lock.lock();
+        try {
+            return schedule == null ? 0 : schedule.getFailedCount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays the start of a production order from the journal.
+     *
+     * @throws IllegalStateException if the factory lacks the inputs, funds or storage.
+     */
+    void startProduction(ProductDesign design, int amount) {
+        lock.lock();
+        try {
+            startProduction(design.compile(), amount, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays the end of a production order from the journal.
+     */
+    void finishProduction(ProductDesign design, int amount) {
+        lock.lock();
+        try {
+            finishProduction(design.compile(), amount);
+        } finally {
+            lock.unlock();
         }
-        int currentTotal = getTotalInventory();
-        int outputAmount = amount; // Assuming 1:1 output for main product
-        if (currentTotal + outputAmount > capacity) {
-            throw new IllegalStateException("Insufficient storage to produce product. Available: " + (capacity - currentTotal));
+    }
+
+    /**
+     * Takes the inputs of an order, pays its cost and holds storage for its product and byproduct.
+     * Needs the lock.
+     */
+    private TradeResult startProduction(Recipe recipe, int amount, boolean throwOnReject) {
+        int shortInput = recipe.firstShortInput(stocks, amount);
+        if (shortInput >= 0) {
+            if (throwOnReject) {
+                int item = recipe.getInputItem(shortInput);
+                throw new TradeRejectedException(TradeResult.NO_STOCK, "Insufficient " + stockName(recipe.getInputStock(shortInput)) + " to start production: "
+                        + ItemCatalog.nameOf(item) + ". Required: " + recipe.getInputPerUnit(shortInput) * amount
+                        + ", Available: " + stocks[recipe.getInputStock(shortInput)].get(item));
+            }
+            return TradeResult.NO_STOCK;
         }
-        for (InventoryItem item : design.getinputRequirements().keySet()) {
-            double required = design.getinputRequirements().get(item) * amount;
-            rawMaterials.put(item.getName(), rawMaterials.get(item.getName()) - (int)required);
+        double totalCost = recipe.getProductionCost() * amount;
+        if (balance < totalCost) {
+            if (throwOnReject) {
+                throw new TradeRejectedException(TradeResult.NO_FUNDS, "Insufficient funds to start production. Required: " + totalCost + ", Available: " + balance);
+            }
+            return TradeResult.NO_FUNDS;
         }
+        int output = outputUnits(recipe, amount);
+        if (storageInUse() + output > capacity) {
+            if (throwOnReject) {
+                throw new TradeRejectedException(TradeResult.NO_CAPACITY, "Insufficient storage to start production. Available: " + (capacity - storageInUse()));
+            }
+            return TradeResult.NO_CAPACITY;
+        }
+        usedCapacity -= recipe.consume(stocks, amount);
         balance -= totalCost;
-        String productName = design.getProduct().getName();
-        products.put(productName, products.getOrDefault(productName, 0) + amount);
-        if (design.getByproduct() != null && design.getByproductAmount() > 0) {
-            String byproductName = design.getByproduct().getName();
-            int byproductAmount = (int)(design.getByproductAmount() * amount);
-            byproducts.put(byproductName, byproducts.getOrDefault(byproductName, 0) + byproductAmount);
+        reservedCapacity += output;
+        refreshConsumedOffers(recipe);
+        ChangeEvents.balanceChanged(this, balance);
+        publishRecipeRun(recipe);
+        return TradeResult.OK;
+    }
+
+    /**
+     * Delivers the product and byproduct of an order into the storage held for them. Needs the lock.
+     */
+    private void finishProduction(Recipe recipe, int amount) {
+        // After loading a snapshot the journal can finish an order started before it, with nothing held.
+        reservedCapacity = Math.max(0, reservedCapacity - outputUnits(recipe, amount));
+        products.add(recipe.getProductItem(), amount);
+        usedCapacity += amount;
+        if (recipe.hasByproduct()) {
+            int byproductAmount = recipe.byproductUnits(amount);
+            byproducts.add(recipe.getByproductItem(), byproductAmount);
+            usedCapacity += byproductAmount;
+            stockArrived(Recipe.FROM_BYPRODUCTS, recipe.getByproductItem());
+        }
+        stockArrived(Recipe.FROM_PRODUCTS, recipe.getProductItem());
+        refreshOffer(recipe.getProductItem());
+        publishRecipeRun(recipe);
+    }
+
+    private static int outputUnits(Recipe recipe, int amount) {
+        return recipe.hasByproduct() ? amount + recipe.byproductUnits(amount) : amount;
+    }
+
+    private ProductionSchedule schedule() {
+        if (schedule == null) {
+            schedule = new ProductionSchedule(order -> {
+                TradeResult result = startProduction(order.getDesign().compile(), order.getAmount(), false);
+                if (result.isOk()) {
+                    TradeJournal.recordProductionStarted(this, order.getDesign(), order.getAmount());
+                }
+                return result;
+            });
+        }
+        return schedule;
+    }
+
+    /**
+     * Starts what the free lines can, if this is the outermost operation on the factory; otherwise
+     * the starts could not be journaled in the right place and wait for the next runProduction.
+     */
+    private void dispatchProduction() {
+        if (lock.isOutermost()) {
+            schedule.dispatch(stocks);
+        }
+    }
+
+    private void stockArrived(int stock, int item) {
+        if (schedule != null) {
+            schedule.stockArrived(stock, item, stocks);
         }
     }
 
     public void destroyByproduct(String name, int amount, double costPerUnit) {
+        long start = TradeMetrics.start();
+        lock.lock();
+        try {
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Byproduct name cannot be empty.");
+            }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount to destroy must be positive.");
+            }
+            int item = ItemCatalog.indexOf(name);
+            int available = byproducts.get(item);
+            if (available < amount) {
+                throw new TradeRejectedException(TradeResult.NO_STOCK, "Insufficient byproduct to destroy. Available: " + available + ", Requested: " + amount);
+            }
+            double totalCost = costPerUnit * amount;
+            if (balance < totalCost) {
+                throw new TradeRejectedException(TradeResult.NO_FUNDS, "Insufficient funds to destroy byproduct. Required: " + totalCost + ", Available: " + balance);
+            }
+            byproducts.add(item, -amount);
+            usedCapacity -= amount;
+            balance -= totalCost;
+            ChangeEvents.balanceChanged(this, balance);
+            ChangeEvents.inventoryChanged(this, item, byproducts.get(item));
+            TradeJournal.recordByproductDestroyed(this, name, amount, costPerUnit);
+            TradeMetrics.succeeded(TradeMetrics.Operation.FACTORY_DESTROY_BYPRODUCT, start);
+        } catch (RuntimeException ex) {
+            TradeMetrics.failed(TradeMetrics.Operation.FACTORY_DESTROY_BYPRODUCT, start, ex);
+            throw ex;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called when a market buys finished products from this factory.
+     * Removes the stock and adds the revenue to the balance.
+     *
+     * @throws IllegalStateException if the factory does not have enough of the product.
+     */
+    public void sellProduct(String name, int amount, double pricePerUnit) {
         if (name == null || name.trim().isEmpty()) {
-            throw new IllegalArgumentException("Byproduct name cannot be empty.");
+            throw new IllegalArgumentException("Product name cannot be empty.");
         }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount to destroy must be positive.");
+        sellProduct(ItemCatalog.indexOf(name), amount, pricePerUnit);
+    }
+
+    /**
+     * Same as {@link #sellProduct(String, int, double)} for a product given by its ItemCatalog index.
+     */
+    public void sellProduct(int item, int amount, double pricePerUnit) {
+        long start = TradeMetrics.start();
+        lock.lock();
+        try {
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount to sell must be positive.");
+            }
+            int available = products.get(item);
+            if (available < amount) {
+                throw new TradeRejectedException(TradeResult.NO_STOCK, "Factory " + this.name + " does not have enough stock of " + ItemCatalog.nameOf(item));
+            }
+            products.add(item, -amount);
+            usedCapacity -= amount;
+            balance += amount * pricePerUnit;
+            refreshOffer(item);
+            ChangeEvents.balanceChanged(this, balance);
+            ChangeEvents.inventoryChanged(this, item, products.get(item));
+            if (lock.isOutermost()) {
+                TradeJournal.recordFactorySale(this, item, amount, pricePerUnit);
+                TradeMetrics.succeeded(TradeMetrics.Operation.FACTORY_SELL, start);
+            }
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.FACTORY_SELL, start, ex);
+            }
+            throw ex;
+        } finally {
+            lock.unlock();
         }
-        int available = byproducts.getOrDefault(name, 0);
-        if (available < amount) {
-            throw new IllegalStateException("Insufficient byproduct to destroy. Available: " + available + ", Requested: " + amount);
+    }
+
+    /**
+     * Buys raw material from a producer in one step: the producer's stock and balance and this
+     * factory's stock and balance change together, or not at all.
+     *
+     * @throws IllegalStateException if the producer does not have enough stock, or this factory
+     * does not have enough funds or storage.
+     */
+    public void buyRawMaterial(RawMaterialProducer producer, int amount) {
+        buyRawMaterial(producer, amount, true);
+    }
+
+    /**
+     * Same as {@link #buyRawMaterial(RawMaterialProducer, int)}, but a purchase the producer cannot
+     * supply, or this factory cannot pay for or store, is reported as NO_STOCK, NO_FUNDS or
+     * NO_CAPACITY instead of thrown.
+     */
+    public TradeResult tryBuyRawMaterial(RawMaterialProducer producer, int amount) {
+        return buyRawMaterial(producer, amount, false);
+    }
+
+    private TradeResult buyRawMaterial(RawMaterialProducer producer, int amount, boolean throwOnReject) {
+        long start = TradeMetrics.start();
+        if (producer == null) {
+            throw new IllegalArgumentException("Producer cannot be null.");
         }
-        double totalCost = costPerUnit * amount;
-        if (balance < totalCost) {
-            throw new IllegalStateException("Insufficient funds to destroy byproduct. Required: " + totalCost + ", Available: " + balance);
+        EntityLock.lockBoth(this, producer);
+        try {
+            if (producer.getStock() < amount) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_STOCK, "Producer does not have enough stock.");
+                }
+                return rejected(TradeMetrics.Operation.FACTORY_BUY_RAW_MATERIAL, start, TradeResult.NO_STOCK);
+            }
+            TradeResult bought = buyProduct(producer.getMaterialProduced().getName(), amount, producer.getSellingPrice(), throwOnReject);
+            if (!bought.isOk()) {
+                return rejected(TradeMetrics.Operation.FACTORY_BUY_RAW_MATERIAL, start, bought);
+            }
+            producer.sell(amount);
+            if (lock.isOutermost()) {
+                TradeJournal.recordRawMaterialPurchase(this, producer, amount);
+                TradeMetrics.succeeded(TradeMetrics.Operation.FACTORY_BUY_RAW_MATERIAL, start);
+            }
+            return TradeResult.OK;
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.FACTORY_BUY_RAW_MATERIAL, start, ex);
+            }
+            throw ex;
+        } finally {
+            EntityLock.unlockBoth(this, producer);
         }
-        byproducts.put(name, available - amount);
-        balance -= totalCost;
+    }
+
+    private TradeResult rejected(TradeMetrics.Operation operation, long start, TradeResult result) {
+        return lock.isOutermost() ? TradeMetrics.rejected(operation, start, result) : result;
     }
 
     @Override
     public String getCustomerID() {
-        return factoryID;
+        return getFactoryID();
+    }
+
+    @Override
+    public EntityLock getLock() {
+        return lock;
     }
 } 
\ No newline at end of file
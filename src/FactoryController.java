@@ -1,11 +1,22 @@
-import java.util.ArrayList;
 import java.util.List;
 
 public class FactoryController {
-    private List<Factory> factories;
+    private EntityRegistry<Factory> factories;
+    private OfferBook offerBook; // of the world this controller is part of; null if none
 
     public FactoryController() {
-        factories = new ArrayList<>();
+        factories = new EntityRegistry<>();
+    }
+
+    /**
+     * Called by the {@link World} this controller is part of. Factories added to it offer their
+     * products in the book.
+     */
+    void setOfferBook(OfferBook offerBook) {
+        this.offerBook = offerBook;
+        for (Factory factory : factories) {
+            factory.setOfferBook(offerBook);
+        }
     }
 
     public List<Factory> getFactories() {
@@ -17,16 +28,9 @@ public class FactoryController {
             throw new IllegalArgumentException("Factory cannot be null.");
         }
         factories.add(factory);
-    }
-
-    public void editFactory(int index, Factory updatedFactory) {
-        if (index < 0 || index >= factories.size()) {
-            throw new IndexOutOfBoundsException("Invalid factory index.");
-        }
-        if (updatedFactory == null) {
-            throw new IllegalArgumentException("Updated factory cannot be null.");
-        }
-        factories.set(index, updatedFactory);
+        factory.setOfferBook(offerBook);
+        TradeJournal.recordFactoryCreated(factory);
+        ChangeEvents.entityAdded(factory);
     }
 
     public Factory getFactory(int index) {
@@ -35,4 +39,8 @@ public class FactoryController {
         }
         return factories.get(index);
     }
+
+    public Factory findFactoryByID(long factoryID) {
+        return factories.findByID(factoryID);
+    }
 } 
\ No newline at end of file
@@ -2,11 +2,10 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.List;
 
 public class FactoryGUI extends MyWindow {
-    DefaultListModel<String> factoryListModel;
-    JList<String> factoryList;
+    EntityTableModel<Factory> factoryTableModel;
+    EntityTable<Factory> factoryTable;
     FactoryController controller;
 
     public FactoryGUI(FactoryController controller) {
@@ -14,24 +13,42 @@ public class FactoryGUI extends MyWindow {
         setLayout(new BorderLayout());
         this.controller = controller;
 
-        // Top panel with title and Back button
+        // Top panel with title, filter and Back button
         JPanel topPanel = new JPanel(new BorderLayout());
         topPanel.setBorder(new EmptyBorder(5, 5, 5, 5));
         JLabel titleLabel = new JLabel("Factory List");
         titleLabel.setFont(new Font("Arial", Font.BOLD, 13));
         topPanel.add(titleLabel, BorderLayout.WEST);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 0));
+        filterPanel.add(new JLabel("Filter:"));
+        JTextField filterField = new JTextField(10);
+        filterPanel.add(filterField);
+        topPanel.add(filterPanel, BorderLayout.CENTER);
         JButton backButton = new JButton("Back");
         backButton.addActionListener(e -> dispose());
         topPanel.add(backButton, BorderLayout.EAST);
         add(topPanel, BorderLayout.NORTH);
 
-        // List of factories
-        factoryListModel = new DefaultListModel<>();
-        factoryList = new JList<>(factoryListModel);
-        JScrollPane scrollPane = new JScrollPane(factoryList);
-        scrollPane.setPreferredSize(new Dimension(350, 200));
+        // Table of factories
+        factoryTableModel = new EntityTableModel<>(controller.getFactories())
+                .addColumn("Name", String.class, Factory::getName)
+                .addColumn("ID", Long.class, Factory::getID)
+                .addColumn("Balance", Double.class, Factory::getBalance)
+                .addColumn("Stock", Integer.class, Factory::getTotalInventory)
+                .addColumn("Capacity", Integer.class, Factory::getCapacity);
+        factoryTable = new EntityTable<>(factoryTableModel, filterField);
+        JScrollPane scrollPane = new JScrollPane(factoryTable);
+        scrollPane.setPreferredSize(new Dimension(450, 200));
         add(scrollPane, BorderLayout.CENTER);
 
+        SwingTasks.addTable(factoryTableModel);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                SwingTasks.removeTable(factoryTableModel);
+            }
+        });
+
         // Bottom panel with Add/Edit buttons
         JPanel bottomPanel = new JPanel();
         bottomPanel.setLayout(new FlowLayout(FlowLayout.CENTER, 10, 10));
@@ -41,15 +58,15 @@ public class FactoryGUI extends MyWindow {
         bottomPanel.add(editButton);
         add(bottomPanel, BorderLayout.SOUTH);
 
-        refreshFactoryList();
-
         // Double-click to open detail page
-        factoryList.addMouseListener(new MouseAdapter() {
+        factoryTable.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent evt) {
                 if (evt.getClickCount() == 2) {
-                    int index = factoryList.locationToIndex(evt.getPoint());
-                    if (index >= 0 && index < controller.getFactories().size()) {
-                        new FactoryDetailPage(controller.getFactory(index));
+                    int row = factoryTable.modelRowAt(factoryTable.rowAtPoint(evt.getPoint()));
+                    Factory factory = factoryTableModel.getEntity(row);
+                    if (factory != null) {
+                        new FactoryDetailPage(factory);
+                        factoryTableModel.entityChanged(row);
                     }
                 }
             }
@@ -57,39 +74,23 @@ public class FactoryGUI extends MyWindow {
 
         addButton.addActionListener(e -> {
             new AddFactoryDialog(FactoryGUI.this);
-            refreshFactoryList();
+            factoryTableModel.entitiesAppended();
         });
 
         editButton.addActionListener(e -> {
-            int selectedIndex = factoryList.getSelectedIndex();
-            if (selectedIndex == -1) {
+            int selectedRow = factoryTable.getSelectedModelRow();
+            if (selectedRow == -1) {
                 JOptionPane.showMessageDialog(this, "Please select a factory to edit.", "No Selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            new EditFactoryDialog(FactoryGUI.this, controller.getFactory(selectedIndex));
-            refreshFactoryList();
+            new EditFactoryDialog(FactoryGUI.this, factoryTableModel.getEntity(selectedRow));
+            factoryTableModel.entityChanged(selectedRow);
         });
 
         pack();
         setLocationRelativeTo(null);
         setVisible(true);
     }
-
-    void refreshFactoryList() {
-        factoryListModel.clear();
-        List<Factory> factories = controller.getFactories();
-        java.util.Map<String, Integer> nameCount = new java.util.HashMap<>();
-        for (Factory f : factories) {
-            nameCount.put(f.getName(), nameCount.getOrDefault(f.getName(), 0) + 1);
-        }
-        for (Factory f : factories) {
-            String display = f.getName();
-            if (nameCount.get(f.getName()) > 1) {
-                display += " (" + f.getFactoryID() + ")";
-            }
-            factoryListModel.addElement(display);
-        }
-    }
 }
 
 class FactoryDetailPage extends JDialog {
@@ -236,26 +237,10 @@ class FactoryDetailPage extends JDialog {
                     JOptionPane.showMessageDialog(this, "No producer found for selected raw material.", "Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
-                String material = selectedProducer.getMaterialProduced().getName();
-                double price = selectedProducer.getSellingPrice();
-                if (selectedProducer.getStock() < amount) {
-                    JOptionPane.showMessageDialog(this, "Producer does not have enough stock.", "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                try {
-                    factory.buyProduct(material, amount, price);
-                } catch (IllegalStateException ex) {
-                    JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                try {
-                    selectedProducer.sell(amount);
-                } catch (IllegalStateException ex) {
-                    JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                balanceValueLabel.setText(String.valueOf(factory.getBalance()));
-                JOptionPane.showMessageDialog(this, "Purchase successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                SwingTasks.run(buyButton, "Error", () -> factory.buyRawMaterial(selectedProducer, amount), () -> {
+                    balanceValueLabel.setText(String.valueOf(factory.getBalance()));
+                    JOptionPane.showMessageDialog(this, "Purchase successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                });
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this, "Unexpected error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -303,7 +288,6 @@ class AddFactoryDialog extends JDialog {
                 if (balance < 0) throw new IllegalArgumentException("Initial balance cannot be negative.");
                 if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive.");
                 parent.controller.addFactory(new Factory(name, balance, capacity));
-                parent.refreshFactoryList();
                 dispose();
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter valid numbers for balance and capacity.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -350,7 +334,6 @@ class EditFactoryDialog extends JDialog {
                 if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive.");
                 factory.setBalance(balance);
                 factory.setCapacity(capacity);
-                parent.refreshFactoryList();
                 dispose();
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter valid numbers for balance and capacity.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -376,21 +359,31 @@ class CreateDesignDialog extends JDialog {
         JTextField byproductNameField = new JTextField();
         JTextField byproductAmountField = new JTextField();
         JTextField byproductCostField = new JTextField();
-        java.util.Set<String> rawMaterialNames = new java.util.HashSet<>();
+        // Inputs can be raw materials, or products and byproducts of this factory's other designs.
+        java.util.Map<String, Integer> inputStocks = new java.util.LinkedHashMap<>();
         for (RawMaterialProducer p : RawMaterialProducerGUI.getAllProducers()) {
-            rawMaterialNames.add(p.getMaterialProduced().getName());
+            inputStocks.put(p.getMaterialProduced().getName(), Recipe.FROM_RAW_MATERIALS);
         }
-        rawMaterialNames.addAll(factory.getRawMaterials().keySet());
-        JComboBox<String> inputMaterialCombo = new JComboBox<>(rawMaterialNames.toArray(new String[0]));
-        JLabel selectedStockLabel = new JLabel();
-        if (inputMaterialCombo.getItemCount() > 0) {
-            String selected = (String) inputMaterialCombo.getSelectedItem();
-            selectedStockLabel.setText(String.valueOf(factory.getRawMaterials().getOrDefault(selected, 0)));
+        for (String name : factory.getRawMaterials().keySet()) {
+            inputStocks.put(name, Recipe.FROM_RAW_MATERIALS);
+        }
+        for (ProductDesign d : factory.getDesigns()) {
+            inputStocks.put(d.getProduct().getName(), Recipe.FROM_PRODUCTS);
+            if (d.getByproduct() != null) {
+                inputStocks.put(d.getByproduct().getName(), Recipe.FROM_BYPRODUCTS);
+            }
         }
-        inputMaterialCombo.addActionListener(e -> {
+        JComboBox<String> inputMaterialCombo = new JComboBox<>(inputStocks.keySet().toArray(new String[0]));
+        JLabel selectedStockLabel = new JLabel();
+        Runnable showSelectedStock = () -> {
             String selected = (String) inputMaterialCombo.getSelectedItem();
-            selectedStockLabel.setText(String.valueOf(factory.getRawMaterials().getOrDefault(selected, 0)));
-        });
+            if (selected == null) return;
+            java.util.Map<String, Integer> stock = inputStocks.get(selected) == Recipe.FROM_PRODUCTS ? factory.getProducts()
+                    : inputStocks.get(selected) == Recipe.FROM_BYPRODUCTS ? factory.getByproducts() : factory.getRawMaterials();
+            selectedStockLabel.setText(String.valueOf(stock.getOrDefault(selected, 0)));
+        };
+        showSelectedStock.run();
+        inputMaterialCombo.addActionListener(e -> showSelectedStock.run());
         JTextField inputAmountField = new JTextField();
         JButton addInputButton = new JButton("Add Input");
         DefaultListModel<String> inputListModel = new DefaultListModel<>();
@@ -420,7 +413,7 @@ class CreateDesignDialog extends JDialog {
         formPanel.add(byproductAmountField);
         formPanel.add(new JLabel("Byproduct Cost:"));
         formPanel.add(byproductCostField);
-        formPanel.add(new JLabel("Input (RawMaterial):"));
+        formPanel.add(new JLabel("Input:"));
         formPanel.add(inputMaterialCombo);
         formPanel.add(new JLabel("Selected Stock:"));
         formPanel.add(selectedStockLabel);
@@ -488,8 +481,10 @@ class CreateDesignDialog extends JDialog {
                 design.setByproductAmount(byproductAmount);
                 design.setProductionCost(productCost);
                 for (String mat : inputRequirements.keySet()) {
-                    RawMaterial rm = new RawMaterial(mat);
-                    design.addInputRequirement(rm, inputRequirements.get(mat));
+                    int stock = inputStocks.getOrDefault(mat, Recipe.FROM_RAW_MATERIALS);
+                    InventoryItem input = stock == Recipe.FROM_PRODUCTS ? new Product(mat, 0)
+                            : stock == Recipe.FROM_BYPRODUCTS ? new ByProduct(mat, 0) : new RawMaterial(mat);
+                    design.addInputRequirement(input, inputRequirements.get(mat));
                 }
                 factory.addDesign(design);
                 if (designCombo != null) designCombo.addItem(productName);
@@ -512,7 +507,7 @@ class ProduceDialog extends JDialog {
     public ProduceDialog(Factory factory, JLabel balanceValueLabel) {
         super((JFrame) null, "Produce Product", true);
         setLayout(new BorderLayout());
-        JPanel panel = new JPanel(new GridLayout(2, 2, 10, 10));
+        JPanel panel = new JPanel(new GridLayout(3, 2, 10, 10));
         panel.setBorder(new EmptyBorder(20, 20, 20, 20));
         panel.add(new JLabel("Select Design:"));
         JComboBox<String> designCombo = new JComboBox<>();
@@ -520,6 +515,16 @@ class ProduceDialog extends JDialog {
             designCombo.addItem(d.getProduct().getName());
         }
         panel.add(designCombo);
+        panel.add(new JLabel("Max Producible:"));
+        JLabel maxLabel = new JLabel("-");
+        panel.add(maxLabel);
+        designCombo.addActionListener(e -> {
+            int selectedIndex = designCombo.getSelectedIndex();
+            maxLabel.setText(selectedIndex == -1 ? "-" : String.valueOf(factory.getMaxProducible(factory.getDesigns().get(selectedIndex))));
+        });
+        if (designCombo.getItemCount() > 0) {
+            maxLabel.setText(String.valueOf(factory.getMaxProducible(factory.getDesigns().get(0))));
+        }
         panel.add(new JLabel("Amount to Produce:"));
         JTextField amountField = new JTextField();
         panel.add(amountField);
@@ -536,10 +541,11 @@ class ProduceDialog extends JDialog {
                 if (selectedIndex == -1) throw new IllegalArgumentException("Please select a design.");
                 int amount = Integer.parseInt(amountField.getText().trim());
                 ProductDesign design = factory.getDesigns().get(selectedIndex);
-                factory.produceProduct(design, amount);
-                balanceValueLabel.setText(String.valueOf(factory.getBalance()));
-                JOptionPane.showMessageDialog(this, "Production successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                dispose();
+                SwingTasks.run(produceButton, "Error", () -> factory.produceProduct(design, amount), () -> {
+                    balanceValueLabel.setText(String.valueOf(factory.getBalance()));
+                    JOptionPane.showMessageDialog(this, "Production successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    dispose();
+                });
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter a valid number for amount.", "Error", JOptionPane.ERROR_MESSAGE);
             } catch (IllegalArgumentException | IllegalStateException ex) {
@@ -547,7 +553,7 @@ class ProduceDialog extends JDialog {
             }
         });
         cancelButton.addActionListener(e -> dispose());
-        setSize(350, 180);
+        setSize(350, 220);
         setLocationRelativeTo(null);
         setVisible(true);
     }
@@ -580,10 +586,11 @@ class DestroyDialog extends JDialog {
                 String byproduct = (String) byproductCombo.getSelectedItem();
                 int amount = Integer.parseInt(amountField.getText().trim());
                 double cost = 5;
-                factory.destroyByproduct(byproduct, amount, cost);
-                balanceValueLabel.setText(String.valueOf(factory.getBalance()));
-                JOptionPane.showMessageDialog(this, "Byproduct destroyed!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                dispose();
+                SwingTasks.run(destroyButton, "Error", () -> factory.destroyByproduct(byproduct, amount, cost), () -> {
+                    balanceValueLabel.setText(String.valueOf(factory.getBalance()));
+                    JOptionPane.showMessageDialog(this, "Byproduct destroyed!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    dispose();
+                });
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter valid numbers for amount.", "Error", JOptionPane.ERROR_MESSAGE);
             } catch (IllegalArgumentException | IllegalStateException ex) {
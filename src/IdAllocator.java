@@ -0,0 +1,56 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out unique numeric IDs without contention. Each thread takes a block of IDs from a shared
+ * counter and then numbers from its own block, so creating an entity is a thread-local increment
+ * and only one in {@link #BLOCK_SIZE} creations touches the shared counter.
+ * <p>
+ * IDs are unique but not in creation order across threads. IDs that come back from a snapshot or
+ * the journal are passed to {@link #reserve(long)}, after which no new ID is at or below them;
+ * that happens while loading, before entities are created concurrently.
+ */
+public final class IdAllocator {
+    static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Shared by factories, markets, customers and producers, so an ID identifies an entity of any kind.
+     */
+    public static final IdAllocator ENTITIES = new IdAllocator();
+
+    /**
+     * IDs of inventory item objects.
+     */
+    public static final IdAllocator ITEMS = new IdAllocator();
+
+    private final AtomicLong nextBlock = new AtomicLong();
+    private volatile long floor; // new IDs are at least this
+    private final ThreadLocal<long[]> block = ThreadLocal.withInitial(() -> new long[] {0, 0}); // {next, end}
+
+    private IdAllocator() {
+    }
+
+    public long next() {
+        long[] range = block.get();
+        long id = Math.max(range[0], floor);
+        while (id >= range[1]) { // only IDs inside this thread's own block, so skip whole blocks below the floor
+            long start = nextBlock.getAndAdd(BLOCK_SIZE);
+            range[1] = start + BLOCK_SIZE;
+            id = Math.max(start, floor);
+        }
+        range[0] = id + 1;
+        return id;
+    }
+
+    /**
+     * Makes sure the given ID, and every ID below it, is never handed out again.
+     */
+    public synchronized void reserve(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("ID cannot be negative.");
+        }
+        if (id >= floor) {
+            floor = id + 1;
+            nextBlock.accumulateAndGet(id + 1, Math::max);
+        }
+    }
+}
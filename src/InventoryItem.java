@@ -3,18 +3,19 @@ import java.util.Objects;
 public abstract class InventoryItem  {
 
     private final String name;
-    private final String itemID;
-    private static int nextID = 0;
+    private final long itemID;
+    private final int catalogIndex;
     public InventoryItem(String name){
         this.name = name;
-        this.itemID = "ITEM_"+nextID++;
+        this.itemID = IdAllocator.ITEMS.next();
+        this.catalogIndex = ItemCatalog.indexOf(name);
 
 
     }
 
     /**
      * I have created itemID to see when there is same objects of InventoryItem.
-     * They are assigned sequentially  starting from 0.
+     * They are unique numbers from {@link IdAllocator#ITEMS}.
      */
 
     public String getName() {
@@ -22,7 +23,14 @@ public abstract class InventoryItem  {
     }
 
     public String getItemID() {
-        return this.itemID;
+        return "ITEM_" + this.itemID;
+    }
+
+    /**
+     * Index of this item's name in the {@link ItemCatalog}. Items with the same name share it.
+     */
+    public int getCatalogIndex() {
+        return this.catalogIndex;
     }
 
     @Override
@@ -47,7 +55,7 @@ public abstract class InventoryItem  {
     public String toString() {
         return "InventoryItem{" +
                 "name='" + name + '\'' +
-                ", itemID=" + itemID +
+                ", itemID=" + getItemID() +
                 '}';
     }
 }
@@ -0,0 +1,62 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every item name a dense int index, starting from 0.
+ * Inventories that store their stock in arrays (see {@link ItemStock}) use this index
+ * instead of hashing the name on every change.
+ * Indexes are never reused, and the same name always gets the same index.
+ */
+public final class ItemCatalog {
+    private static final ConcurrentHashMap<String, Integer> indexByName = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static volatile int size = 0;
+
+    private ItemCatalog() {
+    }
+
+    /**
+     * Returns the index of the name, registering it if it is new.
+     */
+    public static int indexOf(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Item name cannot be null.");
+        }
+        Integer index = indexByName.get(name);
+        return index != null ? index : register(name);
+    }
+
+    /**
+     * Returns the index of the name, or -1 if no item with that name was ever registered.
+     */
+    public static int find(String name) {
+        Integer index = name == null ? null : indexByName.get(name);
+        return index != null ? index : -1;
+    }
+
+    public static String nameOf(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid item index: " + index);
+        }
+        return names[index];
+    }
+
+    public static int size() {
+        return size;
+    }
+
+    private static synchronized int register(String name) {
+        Integer existing = indexByName.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        int index = size;
+        names[index] = name;
+        size = index + 1;
+        indexByName.put(name, index);
+        return index;
+    }
+}
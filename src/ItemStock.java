@@ -0,0 +1,109 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Stock counts for one kind of item, kept in an int array indexed by {@link ItemCatalog} index.
+ * Reading or changing a count is an array access with no boxing and no hashing.
+ * The items are also remembered in the order they were first stocked, so the read-only
+ * map view only walks the items this inventory has seen, not the whole catalog.
+ */
+class ItemStock {
+    private int[] amounts = new int[16];
+    private boolean[] present = new boolean[16];
+    private int[] order = new int[8];
+    private int distinctItems;
+    private final Map<String, Integer> view = new MapView();
+
+    int get(int item) {
+        return item >= 0 && item < amounts.length ? amounts[item] : 0;
+    }
+
+    boolean contains(int item) {
+        return item >= 0 && item < present.length && present[item];
+    }
+
+    /**
+     * Adds delta (which may be negative) to the count of the item.
+     */
+    void add(int item, int delta) {
+        if (item >= amounts.length) {
+            int newLength = Math.max(amounts.length * 2, item + 1);
+            amounts = Arrays.copyOf(amounts, newLength);
+            present = Arrays.copyOf(present, newLength);
+        }
+        if (!present[item]) {
+            present[item] = true;
+            if (distinctItems == order.length) {
+                order = Arrays.copyOf(order, distinctItems * 2);
+            }
+            order[distinctItems++] = item;
+        }
+        amounts[item] += delta;
+    }
+
+    /**
+     * Read-only map from item name to count, backed by the arrays.
+     */
+    Map<String, Integer> asMap() {
+        return view;
+    }
+
+    private class MapView extends AbstractMap<String, Integer> {
+        private final Set<Map.Entry<String, Integer>> entries = new AbstractSet<Map.Entry<String, Integer>>() {
+            @Override
+            public Iterator<Map.Entry<String, Integer>> iterator() {
+                return new Iterator<Map.Entry<String, Integer>>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < distinctItems;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Integer> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int item = order[next++];
+                        return new AbstractMap.SimpleImmutableEntry<>(ItemCatalog.nameOf(item), amounts[item]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return distinctItems;
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<String, Integer>> entrySet() {
+            return entries;
+        }
+
+        @Override
+        public int size() {
+            return distinctItems;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && contains(ItemCatalog.find((String) key));
+        }
+
+        @Override
+        public Integer get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            int item = ItemCatalog.find((String) key);
+            return contains(item) ? amounts[item] : null;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Replays a {@link TradeJournal} into a world as fast as it can, without the GUI, and reports how
+ * long it took: records per second, the latency of applying single records, and a checksum of the
+ * world afterwards (see {@link WorldSnapshot#checksum(World)}). Replaying the journal of a
+ * deterministic run with two builds shows whether a change made them slower and, through the
+ * checksum, whether it changed what they do.
+ * <p>
+ * From the command line: {@code java JournalReplay <journal> [expected checksum]} prints the report
+ * and exits with status 1 if an expected checksum is given and differs, or if a record failed.
+ */
+public final class JournalReplay {
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long applied;
+    private long skipped;
+    private long elapsedNanos;
+    private long checksum;
+
+    private JournalReplay() {
+    }
+
+    /**
+     * Applies every record of the journal to the world. The world would normally be empty.
+     *
+     * @throws IllegalStateException if a journal is open, as the replayed operations would be
+     * recorded into it.
+     * @throws IOException if the file cannot be read or is not a journal.
+     */
+    public static JournalReplay run(Path journal, World world) throws IOException {
+        if (TradeJournal.getActive() != null) {
+            throw new IllegalStateException("Close the open trade journal before replaying into a world.");
+        }
+        JournalReplay report = new JournalReplay();
+        TradeJournal.Replayer replayer = new TradeJournal.Replayer(world);
+        long start = System.nanoTime();
+        TradeJournal.read(journal, 0, (sequence, type, fields) -> {
+            long recordStart = System.nanoTime();
+            replayer.visit(sequence, type, fields);
+            report.latencies.record(System.nanoTime() - recordStart);
+        });
+        report.elapsedNanos = System.nanoTime() - start;
+        report.applied = replayer.applied;
+        report.skipped = replayer.skipped;
+        report.checksum = WorldSnapshot.checksum(world);
+        return report;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    /**
+     * Records whose operation failed. A journal only holds operations that succeeded, so anything
+     * but 0 means the replay did not follow the recorded run.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Wall-clock time of the whole replay, reading and checking the file included.
+     */
+    public double getSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    public double getRecordsPerSecond() {
+        return elapsedNanos == 0 ? 0 : (applied + skipped) / getSeconds();
+    }
+
+    /**
+     * Time spent applying single records, without reading them.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d records applied, %d skipped in %.3f s (%,.0f records/s)%n"
+                        + "apply latency: p50 %d ns, p99 %d ns, p99.9 %d ns, max %d ns%n"
+                        + "checksum %016x",
+                applied, skipped, getSeconds(), getRecordsPerSecond(),
+                latencies.getPercentileNanos(0.5), latencies.getPercentileNanos(0.99),
+                latencies.getPercentileNanos(0.999), latencies.getMaxNanos(), checksum);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java JournalReplay <journal> [expected checksum]");
+            System.exit(2);
+        }
+        Path journal = Paths.get(args[0]);
+        if (!Files.exists(journal)) {
+            System.err.println("No journal at " + journal);
+            System.exit(2);
+        }
+        JournalReplay report = run(journal, new World());
+        System.out.println(report);
+        boolean failed = report.getSkipped() > 0;
+        if (args.length > 1) {
+            long expected = Long.parseUnsignedLong(args[1], 16);
+            if (expected != report.getChecksum()) {
+                System.out.printf("checksum MISMATCH: expected %016x%n", expected);
+                failed = true;
+            } else {
+                System.out.println("checksum matches");
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 public class Main {
     public static void main(String[] args) {
+        TradeMetrics.register();
         MyWindow main = new MainPage();
 
     }
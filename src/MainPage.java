@@ -1,6 +1,10 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * MainPage class implements the Main Page which is shown in the first photo in the project description.
@@ -9,6 +13,12 @@ public class MainPage extends MyWindow {
     FactoryController factoryController;
     MarketController marketController;
     CustomerController customerController;
+    TradeJournal journal;
+    World world;
+
+    private static final Path JOURNAL_FILE = Paths.get("scms.journal");
+    private static final Path SNAPSHOT_FILE = Paths.get("scms.snapshot");
+    private static final int SNAPSHOT_INTERVAL_MS = 5 * 60 * 1000;
 
     public MainPage() {
         super("Supply Chain Management System");
@@ -16,7 +26,9 @@ public class MainPage extends MyWindow {
         factoryController = new FactoryController();
         marketController = new MarketController();
         customerController = new CustomerController();
-
+        world = new World(factoryController, marketController, customerController,
+                RawMaterialProducerGUI.getProducerController());
+        openJournal();
 
         setLayout(new BorderLayout(10, 10));
 
@@ -27,6 +39,7 @@ public class MainPage extends MyWindow {
         JButton exitButton = new JButton("Exit");
         exitButton.setPreferredSize(new Dimension(70, 28));
         exitButton.addActionListener(e -> {
+            closeJournal();
             System.exit(0); // i used 0 here cause thats the exit code
         });
         topPanel.add(exitButton, BorderLayout.EAST);
@@ -54,12 +67,12 @@ public class MainPage extends MyWindow {
         });
 
         marketsButton.addActionListener(e -> {
-            MarketGUI mg = new MarketGUI(factoryController.getFactories(), marketController);
+            MarketGUI mg = new MarketGUI(factoryController.getFactories(), marketController, world.getOfferBook());
             mg.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE); // MarketGUI extends MyWindow
         });
 
         customersButton.addActionListener(e -> {
-            CustomerGUI cg = new CustomerGUI(customerController, marketController);
+            CustomerGUI cg = new CustomerGUI(customerController, marketController, world.getOfferBook());
         });
 
         mainPanel.add(rmcsButton);
@@ -74,4 +87,60 @@ public class MainPage extends MyWindow {
         setVisible(true);
     }
 
+    /**
+     * Rebuilds the world from the latest snapshot plus the trade journal records written after it,
+     * then keeps recording into the journal and takes a new snapshot every few minutes.
+     * If the journal cannot be opened the application still runs, only without recording.
+     */
+    private void openJournal() {
+        long snapshotSequence = 0;
+        if (Files.exists(SNAPSHOT_FILE)) {
+            try {
+                snapshotSequence = WorldSnapshot.load(SNAPSHOT_FILE, world);
+            } catch (IOException | RuntimeException ex) {
+                JOptionPane.showMessageDialog(null, "Could not load the snapshot, replaying the whole journal: " + ex.getMessage(),
+                        "Snapshot Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        try {
+            journal = TradeJournal.open(JOURNAL_FILE, world, snapshotSequence);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::closeJournal));
+        } catch (IOException | RuntimeException ex) {
+            JOptionPane.showMessageDialog(null, "Could not open the trade journal, changes will not be saved: " + ex.getMessage(),
+                    "Journal Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Timer snapshotTimer = new Timer(SNAPSHOT_INTERVAL_MS, e -> {
+            WorldSnapshot snapshot = WorldSnapshot.capture(world); // on the event thread, where entities are added
+            Thread saver = new Thread(() -> saveSnapshot(snapshot), "snapshot-saver");
+            saver.setDaemon(true);
+            saver.start();
+        });
+        snapshotTimer.start();
+    }
+
+    private synchronized void saveSnapshot(WorldSnapshot snapshot) {
+        try {
+            snapshot.save(SNAPSHOT_FILE);
+        } catch (IOException ex) {
+            System.err.println("Error saving the snapshot: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Saves a final snapshot, so the next start has nothing to replay, and closes the journal.
+     */
+    private synchronized void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        saveSnapshot(WorldSnapshot.capture(world));
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            System.err.println("Error closing the trade journal: " + ex.getMessage());
+        }
+        journal = null;
+    }
+
 }
\ No newline at end of file
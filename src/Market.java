@@ -1,15 +1,22 @@
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Objects;
 
 public class Market implements Customer {
     private String name;
-    private final String marketID;
-    private static int nextID = 0;
+    private final long id;
     private double balance;
     private HashMap<Product, Integer> inventory = new HashMap<>();
+    private long totalStock; // units over all products
     private HashMap<Product, Double> productPrices = new HashMap<>();
+    private final EntityLock lock = new EntityLock();
+    private final MarketDemand demand = new MarketDemand();
+    private OfferBook offerBook; // of the world this market is in; null while in none
+    private OfferBook.Offer[] offers = new OfferBook.Offer[16]; // ours in offerBook, by ItemCatalog index
+    private final Map<Product, Integer> inventoryView = Collections.unmodifiableMap(inventory);
+    private final Map<Product, Double> productPricesView = Collections.unmodifiableMap(productPrices);
 
     public Market(String name, double balance) {
         if (name == null || name.trim().isEmpty()) {
@@ -19,10 +26,21 @@ public class Market implements Customer {
             throw new IllegalArgumentException("Initial balance cannot be negative.");
         }
         this.name = name;
-        this.marketID = "Market_" + nextID++;
+        this.id = IdAllocator.ENTITIES.next();
         this.balance = balance;
     }
 
+    /**
+     * Recreates a market under an ID it had before, when loading a snapshot or replaying the journal.
+     * Markets created afterwards get higher IDs.
+     */
+    Market(long id, String name, double balance) {
+        this.name = name;
+        this.id = id;
+        this.balance = balance;
+        IdAllocator.ENTITIES.reserve(id);
+    }
+
     @Override
     public String getName() {
         return name;
@@ -33,88 +51,304 @@ public class Market implements Customer {
         return balance;
     }
 
+    @Override
+    public long getID() {
+        return id;
+    }
+
     @Override
     public String getCustomerID() { // This is marketID, as per Customer interface usage
-        return marketID;
+        return getMarketID();
     }
 
     public String getMarketID() { // Specific getter for clarity
-        return marketID;
+        return "Market_" + id;
+    }
+
+    @Override
+    public EntityLock getLock() {
+        return lock;
     }
 
     public void addProduct(Product product, int amount, double price) {
-        if (product == null) throw new IllegalArgumentException("Product cannot be null.");
-        if (amount <= 0) throw new IllegalArgumentException("Amount must be positive.");
-        if (price < 0) throw new IllegalArgumentException("Price cannot be negative.");
+        lock.lock();
+        try {
+            if (product == null) throw new IllegalArgumentException("Product cannot be null.");
+            if (amount <= 0) throw new IllegalArgumentException("Amount must be positive.");
+            if (price < 0) throw new IllegalArgumentException("Price cannot be negative.");
+
+            inventory.put(product, inventory.getOrDefault(product, 0) + amount);
+            totalStock += amount;
+            if (!productPrices.containsKey(product)) {
+                // the first delivery sets the price; after that setProductPrice and the PricingEngine do
+                productPrices.put(product, price);
+                ChangeEvents.priceChanged(this, product.getCatalogIndex(), price);
+            }
+            demand.touch(product, 0);
+            refreshOffer(product);
+            ChangeEvents.inventoryChanged(this, product.getCatalogIndex(), getStock(product));
+            if (lock.isOutermost()) {
+                TradeJournal.recordMarketAddProduct(this, product, amount, price);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        inventory.put(product, inventory.getOrDefault(product, 0) + amount);
-        if (!productPrices.containsKey(product) || productPrices.get(product) == product.getProductionCost()) {
+    public void setProductPrice(Product product, double price) {
+        lock.lock();
+        try {
+            if (!inventory.containsKey(product) && inventory.getOrDefault(product,0) == 0) {
+                throw new IllegalArgumentException("Product '" + product.getName() + "' not in stock to set price for.");
+            }
+            if (price < 0) throw new IllegalArgumentException("Price cannot be negative.");
             productPrices.put(product, price);
+            refreshOffer(product);
+            ChangeEvents.priceChanged(this, product.getCatalogIndex(), price);
+            TradeJournal.recordPriceSet(this, product, price);
+        } finally {
+            lock.unlock();
         }
     }
 
-    public void setProductPrice(Product product, double price) {
-        if (!inventory.containsKey(product) && inventory.getOrDefault(product,0) == 0) {
-            throw new IllegalArgumentException("Product '" + product.getName() + "' not in stock to set price for.");
+    /**
+     * Sets a price even if the product is not in stock, when loading a snapshot or replaying the journal.
+     */
+    void restorePrice(Product product, double price) {
+        lock.lock();
+        try {
+            productPrices.put(product, price);
+            refreshOffer(product);
+            ChangeEvents.priceChanged(this, product.getCatalogIndex(), price);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Units of the product this market sells per tick, as last worked out by the {@link PricingEngine}.
+     */
+    public double getSalesVelocity(Product product) {
+        lock.lock();
+        try {
+            return demand.getVelocity(product.getCatalogIndex());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reprices the active products: those sold or delivered since the engine's previous tick and
+     * those whose price or velocity is still moving. A product settles once its velocity is 0
+     * and its price stays put, at the cost floor or with nothing in stock.
+     * @return the number of prices that changed.
+     */
+    int reprice(PricingEngine engine, int tick) {
+        lock.lock();
+        try {
+            int changed = 0;
+            for (int i = 0; i < demand.getDirtyCount(); i++) {
+                Product product = demand.getDirtyProduct(i);
+                double velocity = demand.updateVelocity(product.getCatalogIndex(), tick, engine.getSmoothing());
+                double price = getProductPrice(product);
+                int stock = getStock(product);
+                double next = engine.nextPrice(price, product.getProductionCost(), stock, velocity);
+                if (next != price) {
+                    productPrices.put(product, next);
+                    publishOffer(product, next, stock);
+                    ChangeEvents.priceChanged(this, product.getCatalogIndex(), next);
+                    TradeJournal.recordPriceSet(this, product, next);
+                    changed++;
+                } else if (velocity == 0) {
+                    demand.settle(i);
+                }
+            }
+            demand.removeSettled();
+            return changed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publishes this market's current stock and price of the product to the {@link OfferBook}.
+     * The caller holds this market's lock.
+     */
+    private void refreshOffer(Product product) {
+        if (offerBook != null) {
+            Integer stock = inventory.get(product);
+            publishOffer(product, getProductPrice(product), stock != null ? stock : 0);
+        }
+    }
+
+    private void publishOffer(Product product, double price, int stock) {
+        if (offerBook == null) {
+            return;
+        }
+        int item = product.getCatalogIndex();
+        if (item >= offers.length) {
+            offers = Arrays.copyOf(offers, Math.max(offers.length * 2, item + 1));
+        }
+        offers[item] = offerBook.update(offers[item], this, product, price, stock);
+    }
+
+    /**
+     * Moves this market's offers to another book, when its controller takes it into a world or
+     * drops it. Null withdraws them.
+     */
+    void setOfferBook(OfferBook offerBook) {
+        lock.lock();
+        try {
+            if (this.offerBook != null) {
+                this.offerBook.removeSeller(this);
+            }
+            this.offerBook = offerBook;
+            Arrays.fill(offers, null);
+            for (Product product : inventory.keySet()) {
+                refreshOffer(product);
+            }
+        } finally {
+            lock.unlock();
         }
-        if (price < 0) throw new IllegalArgumentException("Price cannot be negative.");
-        productPrices.put(product, price);
     }
 
     public double getProductPrice(Product product) {
-        return productPrices.getOrDefault(product, product.getProductionCost());
+        Double price = productPrices.get(product);
+        return price != null ? price : product.getProductionCost();
+    }
+
+    /**
+     * Returns the amount of the product this market has in stock, 0 if none.
+     */
+    public int getStock(Product product) {
+        return inventory.getOrDefault(product, 0);
+    }
+
+    /**
+     * Returns the units in stock over all products.
+     */
+    public long getTotalStock() {
+        return totalStock;
     }
 
+    /**
+     * Read-only live view of the inventory. It reflects later changes, so copy it if a snapshot is needed.
+     */
     public Map<Product, Integer> getInventory() {
-        return new HashMap<>(inventory);
+        return inventoryView;
     }
 
+    /**
+     * Read-only live view of the prices set in this market.
+     */
     public Map<Product, Double> getProductPrices() {
-        return new HashMap<>(productPrices);
+        return productPricesView;
     }
 
     public void buyProduct(Product product, int amount, double pricePerUnit, Customer seller) {
-        double totalCost = amount * pricePerUnit;
-        if (balance < totalCost) throw new IllegalStateException("Insufficient funds to buy. Required: " + totalCost + ", Have: " + balance);
+        buyProduct(product, amount, pricePerUnit, seller, true);
+    }
+
+    /**
+     * Same as {@link #buyProduct(Product, int, double, Customer)}, but a purchase this market cannot
+     * afford or the seller cannot supply is reported as NO_FUNDS or NO_STOCK instead of thrown.
+     *
+     * @throws IllegalArgumentException if the seller is not a factory or market.
+     */
+    public TradeResult tryBuyProduct(Product product, int amount, double pricePerUnit, Customer seller) {
+        return buyProduct(product, amount, pricePerUnit, seller, false);
+    }
 
+    private TradeResult buyProduct(Product product, int amount, double pricePerUnit, Customer seller, boolean throwOnReject) {
+        long start = TradeMetrics.start();
         if (!(seller instanceof Factory) && !(seller instanceof Market)) {
             throw new IllegalArgumentException("This market can only buy from factories or other markets.");
         }
 
-        if (seller instanceof Market) {
-            Market marketSeller = (Market) seller;
-            int sellerStock = marketSeller.inventory.getOrDefault(product, 0);
-            if (sellerStock < amount) throw new IllegalStateException("Seller market " + seller.getName() + " does not have enough stock of " + product.getName());
-
-            marketSeller.inventory.put(product, sellerStock - amount);
-            if (marketSeller.inventory.get(product) == 0) marketSeller.inventory.remove(product);
-            marketSeller.balance += totalCost;
-        } else if (seller instanceof Factory) {
-            Factory factorySeller = (Factory) seller;
-            Map<String, Integer> factoryProducts = factorySeller.getProducts();
-            int sellerStock = factoryProducts.getOrDefault(product.getName(), 0);
-            if (sellerStock < amount) throw new IllegalStateException("Seller factory " + seller.getName() + " does not have enough stock of " + product.getName());
-
-            factoryProducts.put(product.getName(), sellerStock - amount);
-            factorySeller.setBalance(factorySeller.getBalance() + totalCost);
+        EntityLock.lockBoth(this, seller);
+        try {
+            double totalCost = amount * pricePerUnit;
+            if (balance < totalCost) {
+                if (throwOnReject) throw new TradeRejectedException(TradeResult.NO_FUNDS, "Insufficient funds to buy. Required: " + totalCost + ", Have: " + balance);
+                return rejected(TradeMetrics.Operation.MARKET_BUY, start, TradeResult.NO_FUNDS);
+            }
+
+            if (seller instanceof Market) {
+                Market marketSeller = (Market) seller;
+                int sellerStock = marketSeller.inventory.getOrDefault(product, 0);
+                if (sellerStock < amount) {
+                    if (throwOnReject) throw new TradeRejectedException(TradeResult.NO_STOCK, "Seller market " + seller.getName() + " does not have enough stock of " + product.getName());
+                    return rejected(TradeMetrics.Operation.MARKET_BUY, start, TradeResult.NO_STOCK);
+                }
+
+                marketSeller.inventory.put(product, sellerStock - amount);
+                if (marketSeller.inventory.get(product) == 0) marketSeller.inventory.remove(product);
+                marketSeller.totalStock -= amount;
+                marketSeller.balance += totalCost;
+                marketSeller.demand.touch(product, amount);
+                marketSeller.refreshOffer(product);
+                ChangeEvents.balanceChanged(marketSeller, marketSeller.balance);
+                ChangeEvents.inventoryChanged(marketSeller, product.getCatalogIndex(), marketSeller.getStock(product));
+            } else if (seller instanceof Factory) {
+                Factory factorySeller = (Factory) seller;
+                int sellerStock = factorySeller.getProductStock(product.getCatalogIndex());
+                if (sellerStock < amount) {
+                    if (throwOnReject) throw new TradeRejectedException(TradeResult.NO_STOCK, "Seller factory " + seller.getName() + " does not have enough stock of " + product.getName());
+                    return rejected(TradeMetrics.Operation.MARKET_BUY, start, TradeResult.NO_STOCK);
+                }
+
+                factorySeller.sellProduct(product.getCatalogIndex(), amount, pricePerUnit);
+            }
+
+            addProduct(product, amount, pricePerUnit);
+            balance -= totalCost;
+            ChangeEvents.balanceChanged(this, balance);
+            if (lock.isOutermost()) {
+                TradeJournal.recordMarketBuy(this, seller, product, amount, pricePerUnit);
+                TradeMetrics.succeeded(TradeMetrics.Operation.MARKET_BUY, start);
+            }
+            return TradeResult.OK;
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.MARKET_BUY, start, ex);
+            }
+            throw ex;
+        } finally {
+            EntityLock.unlockBoth(this, seller);
         }
-
-        addProduct(product, amount, pricePerUnit);
-        balance -= totalCost;
     }
 
     public void sellProduct(Product product, int amount, double pricePerUnit, Market buyerMarket) {
-        int stock = inventory.getOrDefault(product, 0);
-        if (stock < amount) throw new IllegalStateException("Not enough stock to sell " + product.getName());
-
-        double totalRevenue = amount * pricePerUnit; // This is what the current market (seller) receives
-
-        inventory.put(product, stock - amount);
-        if (inventory.get(product) == 0) {
-            inventory.remove(product);
+        long start = TradeMetrics.start();
+        lock.lock();
+        try {
+            int stock = inventory.getOrDefault(product, 0);
+            if (stock < amount) throw new TradeRejectedException(TradeResult.NO_STOCK, "Not enough stock to sell " + product.getName());
+
+            double totalRevenue = amount * pricePerUnit; // This is what the current market (seller) receives
+
+            inventory.put(product, stock - amount);
+            if (inventory.get(product) == 0) {
+                inventory.remove(product);
+            }
+            totalStock -= amount;
+            balance += totalRevenue;
+            demand.touch(product, amount);
+            refreshOffer(product);
+            ChangeEvents.balanceChanged(this, balance);
+            ChangeEvents.inventoryChanged(this, product.getCatalogIndex(), getStock(product));
+            if (lock.isOutermost()) {
+                TradeJournal.recordMarketSale(this, product, amount, pricePerUnit);
+                TradeMetrics.succeeded(TradeMetrics.Operation.MARKET_SELL, start);
+            }
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.MARKET_SELL, start, ex);
+            }
+            throw ex;
+        } finally {
+            lock.unlock();
         }
-        balance += totalRevenue;
-
     }
 
     /**
@@ -130,29 +364,49 @@ public class Market implements Customer {
      * @throws IllegalStateException if market doesn't have enough stock (should be pre-checked by customer).
      */
     public void sellProductToCustomer(Product product, int amount, Customers buyer) {
-        if (product == null || buyer == null) {
-            throw new IllegalArgumentException("Product or buyer cannot be null for sellProductToCustomer.");
-        }
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Amount to sell must be positive.");
-        }
-
-        int currentStock = this.inventory.getOrDefault(product, 0);
-        if (currentStock < amount) {
-            throw new IllegalStateException("Internal error or race condition: Market " + this.name +
-                    " has insufficient stock of " + product.getName() +
-                    " (Have: " + currentStock + ", Selling: " + amount + ") for customer " + buyer.getName());
+        long start = TradeMetrics.start();
+        lock.lock();
+        try {
+            if (product == null || buyer == null) {
+                throw new IllegalArgumentException("Product or buyer cannot be null for sellProductToCustomer.");
+            }
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount to sell must be positive.");
+            }
+
+            int currentStock = this.inventory.getOrDefault(product, 0);
+            if (currentStock < amount) {
+                throw new TradeRejectedException(TradeResult.NO_STOCK, "Internal error or race condition: Market " + this.name +
+                        " has insufficient stock of " + product.getName() +
+                        " (Have: " + currentStock + ", Selling: " + amount + ") for customer " + buyer.getName());
+            }
+
+            double pricePerUnit = getProductPrice(product);
+            double totalRevenue = pricePerUnit * amount;
+
+            this.inventory.put(product, currentStock - amount);
+            if (this.inventory.get(product) == 0) {
+                this.inventory.remove(product);
+            }
+            this.totalStock -= amount;
+
+            this.balance += totalRevenue;
+            demand.touch(product, amount);
+            refreshOffer(product);
+            ChangeEvents.balanceChanged(this, balance);
+            ChangeEvents.inventoryChanged(this, product.getCatalogIndex(), getStock(product));
+            if (lock.isOutermost()) {
+                TradeJournal.recordMarketSaleToCustomer(this, product, amount, buyer);
+                TradeMetrics.succeeded(TradeMetrics.Operation.MARKET_SELL_TO_CUSTOMER, start);
+            }
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.MARKET_SELL_TO_CUSTOMER, start, ex);
+            }
+            throw ex;
+        } finally {
+            lock.unlock();
         }
-
-        double pricePerUnit = getProductPrice(product);
-        double totalRevenue = pricePerUnit * amount;
-
-        this.inventory.put(product, currentStock - amount);
-        if (this.inventory.get(product) == 0) {
-            this.inventory.remove(product);
-        }
-
-        this.balance += totalRevenue;
     }
 
 
@@ -160,11 +414,28 @@ public class Market implements Customer {
         if (name == null || name.trim().isEmpty()) {
             throw new IllegalArgumentException("Market name cannot be empty.");
         }
-        this.name = name;
+        lock.lock();
+        try {
+            this.name = name;
+            TradeJournal.recordRename(this, name);
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void setBalance(double balance) {
-        this.balance = balance;
+        lock.lock();
+        try {
+            this.balance = balance;
+            ChangeEvents.balanceChanged(this, balance);
+            TradeJournal.recordFieldSet(this, TradeJournal.FIELD_BALANCE, balance);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TradeResult rejected(TradeMetrics.Operation operation, long start, TradeResult result) {
+        return lock.isOutermost() ? TradeMetrics.rejected(operation, start, result) : result;
     }
 
     @Override
@@ -172,16 +443,16 @@ public class Market implements Customer {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Market market = (Market) o;
-        return Objects.equals(marketID, market.marketID);
+        return id == market.id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(marketID);
+        return Long.hashCode(id);
     }
 
     @Override
     public String toString() {
-        return name + " (ID: " + marketID + ")";
+        return name + " (ID: " + getMarketID() + ")";
     }
 }
\ No newline at end of file
@@ -1,17 +1,29 @@
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class MarketController {
-    private List<Market> markets;
+    private EntityRegistry<Market> markets;
+    private List<Market> marketsView;
+    private OfferBook offerBook; // of the world this controller is part of; null if none
 
     public MarketController() {
-        this.markets = new ArrayList<>();
+        this.markets = new EntityRegistry<>();
+        this.marketsView = Collections.unmodifiableList(markets);
     }
 
-
+    /**
+     * Called by the {@link World} this controller is part of. Markets added to it offer their
+     * products in the book.
+     */
+    void setOfferBook(OfferBook offerBook) {
+        this.offerBook = offerBook;
+        for (Market market : markets) {
+            market.setOfferBook(offerBook);
+        }
+    }
 
     public List<Market> getMarkets() {
-        return new ArrayList<>(markets); // Return a copy
+        return marketsView; // Read-only live view
     }
 
     public void addMarket(Market market) {
@@ -19,6 +31,9 @@ public class MarketController {
             throw new IllegalArgumentException("Market cannot be null.");
         }
         this.markets.add(market);
+        market.setOfferBook(offerBook);
+        TradeJournal.recordMarketCreated(market);
+        ChangeEvents.entityAdded(market);
     }
 
     public Market getMarket(int index) {
@@ -28,13 +43,8 @@ public class MarketController {
         return markets.get(index);
     }
 
-    public Market findMarketByID(String marketID) {
-        for (Market market : markets) {
-            if (market.getMarketID().equals(marketID)) {
-                return market;
-            }
-        }
-        return null;
+    public Market findMarketByID(long marketID) {
+        return markets.findByID(marketID);
     }
 
     /**
@@ -44,7 +54,7 @@ public class MarketController {
      * @param newBalance The new balance for the market.
      * @throws IllegalArgumentException if market not found or inputs are invalid (handled by Market setters).
      */
-    public void editMarket(String marketID, String newName, double newBalance) {
+    public void editMarket(long marketID, String newName, double newBalance) {
         Market marketToEdit = findMarketByID(marketID);
         if (marketToEdit == null) {
             throw new IllegalArgumentException("Market with ID " + marketID + " not found for editing.");
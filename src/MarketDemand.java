@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/**
+ * What the {@link PricingEngine} knows about the demand for one market's products: the units sold
+ * since each product was last repriced, a smoothed sales velocity, and which products are active.
+ * A product becomes active when it is sold or delivered and stays active, repriced every tick,
+ * until it settles: its velocity has decayed to nothing and its price no longer moves. Kept in
+ * arrays indexed by {@link ItemCatalog} index, like {@link ItemStock}. The market's lock guards it.
+ */
+class MarketDemand {
+    static final double SETTLED_VELOCITY = 0.01; // units per tick below which a velocity counts as 0
+
+    private int[] soldSinceRepriced = new int[16];
+    private double[] velocity = new double[16]; // units sold per tick, smoothed
+    private int[] repricedAt = new int[16]; // engine tick the velocity was last brought up to date
+    private boolean[] dirty = new boolean[16]; // active
+    private Product[] dirtyProducts = new Product[8];
+    private int dirtyCount;
+    private int tick; // the engine tick of the latest update
+    private double smoothing = 1;
+
+    /**
+     * Notes that the product's stock changed, sold units of it among them.
+     */
+    void touch(Product product, int sold) {
+        int item = product.getCatalogIndex();
+        if (item >= dirty.length) {
+            int newLength = Math.max(dirty.length * 2, item + 1);
+            soldSinceRepriced = Arrays.copyOf(soldSinceRepriced, newLength);
+            velocity = Arrays.copyOf(velocity, newLength);
+            repricedAt = Arrays.copyOf(repricedAt, newLength);
+            dirty = Arrays.copyOf(dirty, newLength);
+        }
+        soldSinceRepriced[item] += sold;
+        if (!dirty[item]) {
+            dirty[item] = true;
+            if (dirtyCount == dirtyProducts.length) {
+                dirtyProducts = Arrays.copyOf(dirtyProducts, dirtyCount * 2);
+            }
+            dirtyProducts[dirtyCount++] = product;
+        }
+    }
+
+    int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    Product getDirtyProduct(int i) {
+        return dirtyProducts[i];
+    }
+
+    /**
+     * Folds the units sold since the last update into the item's velocity, decaying the old
+     * velocity once for every tick that passed, and returns it. The sales are counted as made in
+     * the current tick. A velocity below {@link #SETTLED_VELOCITY} becomes 0.
+     */
+    double updateVelocity(int item, int tick, double smoothing) {
+        this.tick = tick;
+        this.smoothing = smoothing;
+        double updated = decayed(item) + smoothing * soldSinceRepriced[item];
+        if (updated < SETTLED_VELOCITY) {
+            updated = 0;
+        }
+        velocity[item] = updated;
+        repricedAt[item] = tick;
+        soldSinceRepriced[item] = 0;
+        return updated;
+    }
+
+    /**
+     * The item's velocity as of the latest update of any item, decayed for the ticks since its own.
+     */
+    double getVelocity(int item) {
+        return item >= 0 && item < velocity.length ? decayed(item) : 0;
+    }
+
+    private double decayed(int item) {
+        int elapsed = tick - repricedAt[item];
+        if (elapsed <= 0 || velocity[item] == 0) {
+            return velocity[item];
+        }
+        return velocity[item] * (elapsed == 1 ? 1 - smoothing : Math.pow(1 - smoothing, elapsed));
+    }
+
+    /**
+     * Marks the product at position i of the active ones as settled; it leaves them with the
+     * next {@link #removeSettled()}, unless it is touched again before that.
+     */
+    void settle(int i) {
+        dirty[dirtyProducts[i].getCatalogIndex()] = false;
+    }
+
+    void removeSettled() {
+        int kept = 0;
+        for (int i = 0; i < dirtyCount; i++) {
+            Product product = dirtyProducts[i];
+            dirtyProducts[i] = null;
+            if (dirty[product.getCatalogIndex()]) {
+                dirtyProducts[kept++] = product;
+            }
+        }
+        dirtyCount = kept;
+    }
+}
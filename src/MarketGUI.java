@@ -5,18 +5,19 @@ import java.awt.event.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 
 public class MarketGUI extends MyWindow {
-    private DefaultListModel<String> marketListModel;
-    private JList<String> marketList;
+    private EntityTableModel<Market> marketTableModel;
+    private EntityTable<Market> marketTable;
     private MarketController marketController;
     private java.util.List<Factory> factories;
+    private OfferBook offerBook;
 
-    public MarketGUI(java.util.List<Factory> factories, MarketController marketController) {
+    public MarketGUI(java.util.List<Factory> factories, MarketController marketController, OfferBook offerBook) {
         super("Markets");
         this.factories = factories;
         this.marketController = marketController;
+        this.offerBook = offerBook;
 
         setLayout(new BorderLayout());
 
@@ -25,17 +26,34 @@ public class MarketGUI extends MyWindow {
         JLabel titleLabel = new JLabel("Market List");
         titleLabel.setFont(new Font("Arial", Font.BOLD, 13));
         topPanel.add(titleLabel, BorderLayout.WEST);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 0));
+        filterPanel.add(new JLabel("Filter:"));
+        JTextField filterField = new JTextField(10);
+        filterPanel.add(filterField);
+        topPanel.add(filterPanel, BorderLayout.CENTER);
         JButton backButton = new JButton("Back");
         backButton.addActionListener(e -> dispose());
         topPanel.add(backButton, BorderLayout.EAST);
         add(topPanel, BorderLayout.NORTH);
 
-        marketListModel = new DefaultListModel<>();
-        marketList = new JList<>(marketListModel);
-        JScrollPane scrollPane = new JScrollPane(marketList);
-        scrollPane.setPreferredSize(new Dimension(350, 200));
+        marketTableModel = new EntityTableModel<>(marketController.getMarkets())
+                .addColumn("Name", String.class, Market::getName)
+                .addColumn("ID", Long.class, Market::getID)
+                .addColumn("Balance", Double.class, Market::getBalance)
+                .addColumn("Stock", Long.class, Market::getTotalStock);
+        marketTable = new EntityTable<>(marketTableModel, filterField);
+        JScrollPane scrollPane = new JScrollPane(marketTable);
+        scrollPane.setPreferredSize(new Dimension(450, 200));
         add(scrollPane, BorderLayout.CENTER);
 
+        SwingTasks.addTable(marketTableModel);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                SwingTasks.removeTable(marketTableModel);
+            }
+        });
+
         JPanel bottomPanel = new JPanel();
         bottomPanel.setLayout(new FlowLayout(FlowLayout.CENTER, 10, 10));
         JButton addButton = new JButton("Add New Market");
@@ -44,16 +62,14 @@ public class MarketGUI extends MyWindow {
         bottomPanel.add(editButton);
         add(bottomPanel, BorderLayout.SOUTH);
 
-        refreshMarketList();
-
-        marketList.addMouseListener(new MouseAdapter() {
+        marketTable.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent evt) {
                 if (evt.getClickCount() == 2) {
-                    int index = marketList.locationToIndex(evt.getPoint());
-                    List<Market> currentMarkets = marketController.getMarkets();
-                    if (index >= 0 && index < currentMarkets.size()) {
-                        new MarketDetailPage(MarketGUI.this, currentMarkets.get(index), marketController, factories);
-                        refreshMarketList();
+                    int row = marketTable.modelRowAt(marketTable.rowAtPoint(evt.getPoint()));
+                    Market market = marketTableModel.getEntity(row);
+                    if (market != null) {
+                        new MarketDetailPage(MarketGUI.this, market, marketController, factories);
+                        marketTableModel.entityChanged(row);
                     }
                 }
             }
@@ -61,19 +77,17 @@ public class MarketGUI extends MyWindow {
 
         addButton.addActionListener(e -> {
             new AddMarketDialog(MarketGUI.this, marketController);
-            refreshMarketList();
+            marketTableModel.entitiesAppended();
         });
 
         editButton.addActionListener(e -> {
-            int selectedIndex = marketList.getSelectedIndex();
-            if (selectedIndex == -1) {
+            int selectedRow = marketTable.getSelectedModelRow();
+            if (selectedRow == -1) {
                 JOptionPane.showMessageDialog(this, "Please select a market to edit.", "No Selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            List<Market> currentMarkets = marketController.getMarkets();
-            Market selectedMarket = currentMarkets.get(selectedIndex);
-            new EditMarketDialog(MarketGUI.this, selectedMarket, marketController);
-            refreshMarketList();
+            new EditMarketDialog(MarketGUI.this, marketTableModel.getEntity(selectedRow), marketController);
+            marketTableModel.entityChanged(selectedRow);
         });
 
         pack();
@@ -82,22 +96,6 @@ public class MarketGUI extends MyWindow {
 
     }
 
-    void refreshMarketList() {
-        marketListModel.clear();
-        List<Market> currentMarkets = marketController.getMarkets();
-        Map<String, Integer> nameCount = new HashMap<>();
-        for (Market m : currentMarkets) {
-            nameCount.put(m.getName(), nameCount.getOrDefault(m.getName(), 0) + 1);
-        }
-        for (Market m : currentMarkets) {
-            String display = m.getName();
-            if (nameCount.get(m.getName()) > 1) {
-                display += " (" + m.getMarketID() + ")";
-            }
-            marketListModel.addElement(display);
-        }
-    }
-
     class AddMarketDialog extends JDialog {
         private MarketController controller;
 
@@ -191,7 +189,7 @@ public class MarketGUI extends MyWindow {
                     return;
                 }
                 try {
-                    controller.editMarket(marketToEdit.getMarketID(), name, balance);
+                    controller.editMarket(marketToEdit.getID(), name, balance);
                     dispose();
                 } catch (IllegalArgumentException ex) {
                     JOptionPane.showMessageDialog(this, ex.getMessage(), "Update Error", JOptionPane.ERROR_MESSAGE);
@@ -361,13 +359,15 @@ public class MarketGUI extends MyWindow {
                 double priceFromSeller = (double) prodInfo[1];
                 Customer seller = (Customer) prodInfo[3];
 
-                try {
+                SwingTasks.call(buyButton, "Purchase Error", () -> {
                     currentMarket.buyProduct(productToBuy, amount, priceFromSeller, seller);
+                    return collectProductsForSale();
+                }, productsForSale -> {
                     balanceValueLabel.setText(String.format("%.2f", currentMarket.getBalance()));
                     JOptionPane.showMessageDialog(this, "Purchase successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
 
                     int previousBuySelection = productToBuyCombo.getSelectedIndex();
-                    populateProductToBuyCombo(); // Refresh list of products to buy
+                    showProductsForSale(productsForSale); // Refresh list of products to buy
                     if(productToBuyCombo.getItemCount() > 0) {
                         if(previousBuySelection < productToBuyCombo.getItemCount() && previousBuySelection != -1) productToBuyCombo.setSelectedIndex(previousBuySelection);
                         else productToBuyCombo.setSelectedIndex(0);
@@ -382,10 +382,7 @@ public class MarketGUI extends MyWindow {
                         else ownStockProductCombo.setSelectedIndex(0);
                     }
                     updatePriceForOwnStockField();
-
-                } catch (IllegalStateException | IllegalArgumentException ex) {
-                    JOptionPane.showMessageDialog(this, "Error during purchase: " + ex.getMessage(), "Purchase Error", JOptionPane.ERROR_MESSAGE);
-                }
+                });
             });
 
             updatePriceButton.addActionListener(e -> {
@@ -409,13 +406,10 @@ public class MarketGUI extends MyWindow {
 
 
                 if (productToUpdate != null) {
-                    try {
-                        currentMarket.setProductPrice(productToUpdate, newPrice);
+                    SwingTasks.run(updatePriceButton, "Price Update Error", () -> currentMarket.setProductPrice(productToUpdate, newPrice), () -> {
                         JOptionPane.showMessageDialog(this, "Price updated successfully for " + productToUpdate.getName(), "Success", JOptionPane.INFORMATION_MESSAGE);
                         updatePriceForOwnStockField();
-                    } catch (IllegalArgumentException ex) {
-                        JOptionPane.showMessageDialog(this, ex.getMessage(), "Price Update Error", JOptionPane.ERROR_MESSAGE);
-                    }
+                    });
                 } else {
                     JOptionPane.showMessageDialog(this, "Selected product '" + selectedItemName + "' not found in your inventory.", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -435,39 +429,36 @@ public class MarketGUI extends MyWindow {
         }
 
         private void populateProductToBuyCombo() {
-            availableProductsForSale.clear();
-            Object currentSelection = productToBuyCombo.getSelectedItem();
-            productToBuyCombo.removeAllItems();
+            showProductsForSale(collectProductsForSale());
+        }
 
-            for (Market otherMarket : marketController.getMarkets()) {
-                if (otherMarket.equals(currentMarket)) continue;
-                for (Map.Entry<Product, Integer> entry : otherMarket.getInventory().entrySet()) {
-                    Product p = entry.getKey();
-                    int stock = entry.getValue();
-                    if (stock > 0) {
-                        double price = otherMarket.getProductPrice(p);
-                        availableProductsForSale.add(new Object[]{p, price, stock, otherMarket});
-                        productToBuyCombo.addItem(String.format("%s | %s", otherMarket.getName(), p.getName()));
-                    }
-                }
+        /**
+         * Collects what other markets and factories offer. Reads only the OfferBook, so it can run
+         * off the event thread.
+         */
+        private List<Object[]> collectProductsForSale() {
+            List<Object[]> productsForSale = new ArrayList<>();
+            // Offers come grouped by product, cheapest seller first
+            for (OfferBook.Offer offer : offerBook.allOffers()) {
+                Customer seller = offer.getSeller();
+                if (seller.equals(currentMarket) || !(seller instanceof Market || seller instanceof Factory)) continue;
+                productsForSale.add(new Object[]{offer.getProduct(), offer.getPrice(), offer.getQuantity(), seller});
             }
-            for (Factory factory : allFactories) {
-                for (ProductDesign design : factory.getDesigns()) {
-                    Product factoryProduct = design.getProduct();
-                    int factoryStock = factory.getProducts().getOrDefault(factoryProduct.getName(), 0);
-                    if (factoryStock > 0) {
-                        double factorySellPrice = design.getProductionCost() * 1.2;
-                        if (factorySellPrice < 0 && design.getProductionCost() >=0) factorySellPrice = design.getProductionCost();
-                        else if (factorySellPrice < 0) factorySellPrice = 0;
-
-                        availableProductsForSale.add(new Object[]{factoryProduct, factorySellPrice, factoryStock, factory});
-                        productToBuyCombo.addItem(String.format("%s | %s", factory.getName(), factoryProduct.getName())); // Match PDF "Factory_0 | Copper"
-                    }
-                }
+            return productsForSale;
+        }
+
+        private void showProductsForSale(List<Object[]> productsForSale) {
+            Object currentSelection = productToBuyCombo.getSelectedItem();
+            availableProductsForSale = productsForSale;
+            String[] items = new String[productsForSale.size()];
+            for (int i = 0; i < items.length; i++) {
+                Object[] prodInfo = productsForSale.get(i);
+                items[i] = String.format("%s | %s", ((Customer) prodInfo[3]).getName(), ((Product) prodInfo[0]).getName()); // Match PDF "Factory_0 | Copper"
             }
+            productToBuyCombo.setModel(new DefaultComboBoxModel<>(items)); // one event instead of one per item
             if (currentSelection != null) {
-                for (int i = 0; i < productToBuyCombo.getItemCount(); i++) {
-                    if (productToBuyCombo.getItemAt(i).equals(currentSelection.toString())) {
+                for (int i = 0; i < items.length; i++) {
+                    if (items[i].equals(currentSelection.toString())) {
                         productToBuyCombo.setSelectedIndex(i);
                         break;
                     }
@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What {@link MaterialPlanner} worked out for one demand: raw material producers that have to
+ * produce first, raw materials each factory buys and from whom, what each factory produces, and
+ * which factory delivers what to which market. Demand that could not be met is listed as shortfall.
+ * <p>
+ * The plan is only a description until {@link #execute()} is called; it does not change anything
+ * by itself.
+ */
+public final class MaterialPlan {
+    private final List<ProducerRun> producerRuns = new ArrayList<>();
+    private final List<Purchase> purchases = new ArrayList<>();
+    private final Map<Factory, List<ProductionOrder>> production = new LinkedHashMap<>();
+    private final List<Delivery> deliveries = new ArrayList<>();
+    private final Map<Market, Map<Product, Integer>> shortfalls = new LinkedHashMap<>();
+    private double totalCost;
+
+    /**
+     * A producer making more of its raw material so a purchase in the plan can be served.
+     */
+    public static final class ProducerRun {
+        private final RawMaterialProducer producer;
+        private final int amount;
+
+        ProducerRun(RawMaterialProducer producer, int amount) {
+            this.producer = producer;
+            this.amount = amount;
+        }
+
+        public RawMaterialProducer getProducer() { return producer; }
+        public int getAmount() { return amount; }
+    }
+
+    /**
+     * A factory buying raw material from a producer, at the producer's selling price.
+     */
+    public static final class Purchase {
+        private final Factory factory;
+        private final RawMaterialProducer producer;
+        private final int amount;
+
+        Purchase(Factory factory, RawMaterialProducer producer, int amount) {
+            this.factory = factory;
+            this.producer = producer;
+            this.amount = amount;
+        }
+
+        public Factory getFactory() { return factory; }
+        public RawMaterialProducer getProducer() { return producer; }
+        public int getAmount() { return amount; }
+    }
+
+    /**
+     * A market buying finished product from a factory.
+     */
+    public static final class Delivery {
+        private final Factory factory;
+        private final Market market;
+        private final Product product;
+        private final int amount;
+        private final double pricePerUnit;
+
+        Delivery(Factory factory, Market market, Product product, int amount, double pricePerUnit) {
+            this.factory = factory;
+            this.market = market;
+            this.product = product;
+            this.amount = amount;
+            this.pricePerUnit = pricePerUnit;
+        }
+
+        public Factory getFactory() { return factory; }
+        public Market getMarket() { return market; }
+        public Product getProduct() { return product; }
+        public int getAmount() { return amount; }
+        public double getPricePerUnit() { return pricePerUnit; }
+    }
+
+    MaterialPlan() {
+    }
+
+    public List<ProducerRun> getProducerRuns() {
+        return Collections.unmodifiableList(producerRuns);
+    }
+
+    public List<Purchase> getPurchases() {
+        return Collections.unmodifiableList(purchases);
+    }
+
+    /**
+     * Production orders per factory, to be run as one batch each.
+     */
+    public Map<Factory, List<ProductionOrder>> getProduction() {
+        return Collections.unmodifiableMap(production);
+    }
+
+    public List<Delivery> getDeliveries() {
+        return Collections.unmodifiableList(deliveries);
+    }
+
+    /**
+     * Demand the plan does not cover, per market and product.
+     */
+    public Map<Market, Map<Product, Integer>> getShortfalls() {
+        return Collections.unmodifiableMap(shortfalls);
+    }
+
+    /**
+     * What the factories spend on raw materials and production under this plan.
+     */
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    public boolean isComplete() {
+        return shortfalls.isEmpty();
+    }
+
+    /**
+     * Carries out the plan: producer runs, then raw material purchases, then one production batch
+     * per factory, then deliveries. Each step is an ordinary domain operation and is journaled as
+     * usual.
+     *
+     * @throws IllegalStateException if the world changed since planning and a step is no longer
+     * possible. Steps before it stay applied.
+     */
+    public void execute() {
+        for (ProducerRun run : producerRuns) {
+            run.producer.produce(run.amount);
+        }
+        for (Purchase purchase : purchases) {
+            purchase.factory.buyRawMaterial(purchase.producer, purchase.amount);
+        }
+        for (Map.Entry<Factory, List<ProductionOrder>> batch : production.entrySet()) {
+            batch.getKey().produceBatch(batch.getValue());
+        }
+        for (Delivery delivery : deliveries) {
+            delivery.market.buyProduct(delivery.product, delivery.amount, delivery.pricePerUnit, delivery.factory);
+        }
+    }
+
+    // --- Filled in by MaterialPlanner ---
+
+    void addProducerRun(RawMaterialProducer producer, int amount) {
+        producerRuns.add(new ProducerRun(producer, amount));
+    }
+
+    void addPurchase(Factory factory, RawMaterialProducer producer, int amount) {
+        purchases.add(new Purchase(factory, producer, amount));
+    }
+
+    void addProduction(Factory factory, List<ProductionOrder> orders) {
+        production.put(factory, orders);
+    }
+
+    void addDelivery(Factory factory, Market market, Product product, int amount, double pricePerUnit) {
+        deliveries.add(new Delivery(factory, market, product, amount, pricePerUnit));
+    }
+
+    void addShortfall(Market market, Product product, int amount) {
+        shortfalls.computeIfAbsent(market, m -> new LinkedHashMap<>()).merge(product, amount, Integer::sum);
+    }
+
+    void addCost(double cost) {
+        totalCost += cost;
+    }
+}
@@ -0,0 +1,540 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Demand-driven material requirements planner. Given how much of each product every market wants,
+ * it works out which designs each factory should run, which raw materials it should buy from which
+ * producer, and which factory then supplies which market, without exceeding any factory's balance
+ * or capacity, any producer's stock, balance or storage capacity, or any market's balance.
+ * <p>
+ * Planning runs in two phases. First every demanded product is broken down, for each factory that
+ * has a design for it, into a route: the tree of designs that factory runs to make it, down to the
+ * raw materials and stock it uses. Routes for different products do not depend on each other, so
+ * they are built in parallel on the common fork/join pool. Then the demand is allocated in the
+ * order given, one market and product at a time: first from finished stock, then through the
+ * cheapest route, then the next one, each taking as much as the remaining funds, storage and
+ * supplies allow. This pass is sequential because all demand draws on the same factories and
+ * producers.
+ * <p>
+ * Intermediate products are made in the same factory as the product that needs them; the domain
+ * has no way to move products between factories. Existing stock of an intermediate product is only
+ * used when the factory has no design for it. Storage is counted without the room inputs free up
+ * when they are consumed, and without the revenue of deliveries, so a plan never relies on the
+ * order in which its own steps happen to run. The planner reads the world without locking it; run
+ * it where nothing else changes the entities, such as a simulation tick, or expect
+ * {@link MaterialPlan#execute()} to fail on a step that is no longer possible.
+ */
+public final class MaterialPlanner {
+    private static final int SPLIT_THRESHOLD = 16; // products per fork/join leaf task
+
+    private final List<Factory> factories;
+    private final List<RawMaterialProducer> producers;
+
+    public MaterialPlanner(World world) {
+        this(world.getFactoryController().getFactories(), world.getRawMaterialController().getProducers());
+    }
+
+    public MaterialPlanner(List<Factory> factories, List<RawMaterialProducer> producers) {
+        if (factories == null || producers == null) {
+            throw new IllegalArgumentException("Factories and producers cannot be null.");
+        }
+        this.factories = factories;
+        this.producers = producers;
+    }
+
+    /**
+     * Plans for the given demand, in units of product per market. Earlier markets, and earlier
+     * products within a market, are served first when there is not enough for everyone, so pass
+     * ordered maps to set priorities.
+     *
+     * @throws IllegalArgumentException if the demand is null or has a negative amount.
+     */
+    public MaterialPlan plan(Map<Market, Map<Product, Integer>> demand) {
+        if (demand == null) {
+            throw new IllegalArgumentException("Demand cannot be null.");
+        }
+        return new Run(demand).plan();
+    }
+
+    /**
+     * One factory as the plan sees it: what it can make and what it has left to spend and store.
+     */
+    private static final class FactoryView {
+        final Factory factory;
+        final int index;
+        final Map<Integer, ProductDesign> designFor = new HashMap<>(); // cheapest design per product
+        double balance;
+        long free;
+        final Map<RawSupplier, Integer> bought = new LinkedHashMap<>();
+        final Map<ProductDesign, Integer> orders = new LinkedHashMap<>();
+
+        FactoryView(Factory factory, int index) {
+            this.factory = factory;
+            this.index = index;
+        }
+    }
+
+    /**
+     * One producer as a source of its raw material: its stock plus what it can still make.
+     */
+    private static final class RawSupplier {
+        final RawMaterialProducer producer;
+        final double price;
+        final int stock;
+        final int available;
+        int taken;
+
+        RawSupplier(RawMaterialProducer producer) {
+            this.producer = producer;
+            this.price = producer.getSellingPrice();
+            this.stock = (int) producer.getStock();
+            double room = producer.getStorageCapacity() - producer.getStock();
+            double cost = producer.getMaterialProduced().getProductionCost();
+            double producible = cost > 0 ? Math.min(room, producer.getBalance() / cost) : room;
+            this.available = stock + (int) Math.max(0, producible);
+        }
+    }
+
+    /**
+     * How one factory makes one product, flattened so allocating an amount is a loop over arrays.
+     * Node 0 is the product's own design; every other node is a design making an input of its
+     * parent node, and parents come before their children. Leaves are inputs that are taken from
+     * stock or bought rather than made, and leaves on the same item share a slot.
+     */
+    private static final class Route {
+        final FactoryView view;
+        final ProductDesign top;
+        double unitCost;
+
+        int nodes;
+        Recipe[] recipes = new Recipe[4];
+        ProductDesign[] designs = new ProductDesign[4];
+        int[] parent = new int[4];
+        double[] perUnit = new double[4];
+
+        int leaves;
+        int[] leafParent = new int[4];
+        double[] leafPerUnit = new double[4];
+        int[] leafSlot = new int[4];
+        int slots;
+        int[] slotStock = new int[4];
+        int[] slotItem = new int[4];
+
+        int[] path = new int[8]; // items on the way down, to catch designs that need their own product
+
+        Route(FactoryView view, ProductDesign top) {
+            this.view = view;
+            this.top = top;
+        }
+
+        int addNode(ProductDesign design, Recipe recipe, int parentNode, double amountPerParent) {
+            if (nodes == recipes.length) {
+                int size = nodes * 2;
+                recipes = Arrays.copyOf(recipes, size);
+                designs = Arrays.copyOf(designs, size);
+                parent = Arrays.copyOf(parent, size);
+                perUnit = Arrays.copyOf(perUnit, size);
+            }
+            recipes[nodes] = recipe;
+            designs[nodes] = design;
+            parent[nodes] = parentNode;
+            perUnit[nodes] = amountPerParent;
+            return nodes++;
+        }
+
+        void addLeaf(int parentNode, double amountPerParent, int stock, int item) {
+            if (leaves == leafParent.length) {
+                int size = leaves * 2;
+                leafParent = Arrays.copyOf(leafParent, size);
+                leafPerUnit = Arrays.copyOf(leafPerUnit, size);
+                leafSlot = Arrays.copyOf(leafSlot, size);
+            }
+            int slot = 0;
+            while (slot < slots && (slotStock[slot] != stock || slotItem[slot] != item)) {
+                slot++;
+            }
+            if (slot == slots) {
+                if (slots == slotStock.length) {
+                    slotStock = Arrays.copyOf(slotStock, slots * 2);
+                    slotItem = Arrays.copyOf(slotItem, slots * 2);
+                }
+                slotStock[slot] = stock;
+                slotItem[slot] = item;
+                slots++;
+            }
+            leafParent[leaves] = parentNode;
+            leafPerUnit[leaves] = amountPerParent;
+            leafSlot[leaves] = slot;
+            leaves++;
+        }
+    }
+
+    /**
+     * State of one call to plan: the world as read at the start, and what is left of it as demand
+     * is allocated.
+     */
+    private final class Run {
+        final Map<Market, Map<Product, Integer>> demand;
+        final MaterialPlan result = new MaterialPlan();
+        final List<FactoryView> views = new ArrayList<>();
+        final Map<Integer, RawSupplier[]> suppliers = new HashMap<>(); // by material, cheapest first
+        final Map<Integer, Double> rawPrice = new HashMap<>(); // cheapest price per material
+        final Map<Long, Integer> stockLeft = new HashMap<>();
+        final Map<Market, Double> marketBalance = new IdentityHashMap<>();
+
+        int[] products; // demanded products, by ItemCatalog index
+        Route[][] routes; // per demanded product, cheapest first
+        final Map<Integer, Integer> productPosition = new HashMap<>();
+
+        Run(Map<Market, Map<Product, Integer>> demand) {
+            this.demand = demand;
+        }
+
+        MaterialPlan plan() {
+            readWorld();
+            readDemand();
+            routes = new Route[products.length][];
+            ForkJoinPool.commonPool().invoke(new RouteTask(this, 0, products.length));
+            for (Map.Entry<Market, Map<Product, Integer>> market : demand.entrySet()) {
+                for (Map.Entry<Product, Integer> line : market.getValue().entrySet()) {
+                    allocate(market.getKey(), line.getKey(), line.getValue());
+                }
+            }
+            finish();
+            return result;
+        }
+
+        private void readWorld() {
+            for (Factory factory : factories) {
+                FactoryView view = new FactoryView(factory, views.size());
+                view.balance = factory.getBalance();
+                view.free = factory.getFreeCapacity();
+                for (ProductDesign design : factory.getDesigns()) {
+                    design.compile(); // compiled here so the route tasks only read cached recipes
+                    int item = design.getProduct().getCatalogIndex();
+                    ProductDesign current = view.designFor.get(item);
+                    if (current == null || design.getProductionCost() < current.getProductionCost()) {
+                        view.designFor.put(item, design);
+                    }
+                }
+                views.add(view);
+            }
+            Map<Integer, List<RawSupplier>> byMaterial = new HashMap<>();
+            for (RawMaterialProducer producer : producers) {
+                byMaterial.computeIfAbsent(producer.getMaterialProduced().getCatalogIndex(), m -> new ArrayList<>())
+                        .add(new RawSupplier(producer));
+            }
+            for (Map.Entry<Integer, List<RawSupplier>> material : byMaterial.entrySet()) {
+                RawSupplier[] sorted = material.getValue().toArray(new RawSupplier[0]);
+                Arrays.sort(sorted, (a, b) -> Double.compare(a.price, b.price));
+                suppliers.put(material.getKey(), sorted);
+                rawPrice.put(material.getKey(), sorted[0].price);
+            }
+        }
+
+        private void readDemand() {
+            List<Integer> items = new ArrayList<>();
+            for (Map<Product, Integer> lines : demand.values()) {
+                for (Map.Entry<Product, Integer> line : lines.entrySet()) {
+                    if (line.getValue() == null || line.getValue() < 0) {
+                        throw new IllegalArgumentException("Demand for " + line.getKey().getName() + " cannot be negative.");
+                    }
+                    int item = line.getKey().getCatalogIndex();
+                    if (productPosition.putIfAbsent(item, items.size()) == null) {
+                        items.add(item);
+                    }
+                }
+            }
+            products = new int[items.size()];
+            for (int i = 0; i < products.length; i++) {
+                products[i] = items.get(i);
+            }
+        }
+
+        /**
+         * Builds the routes of one product. Runs on a fork/join worker and only reads the views.
+         */
+        Route[] routesFor(int item) {
+            List<Route> found = new ArrayList<>();
+            for (FactoryView view : views) {
+                ProductDesign design = view.designFor.get(item);
+                if (design != null) {
+                    Route route = new Route(view, design);
+                    if (addDesign(route, design, -1, 1, 1, 0)) {
+                        found.add(route);
+                    }
+                }
+            }
+            found.sort((a, b) -> Double.compare(a.unitCost, b.unitCost)); // stable, so ties keep factory order
+            return found.toArray(new Route[0]);
+        }
+
+        private boolean addDesign(Route route, ProductDesign design, int parentNode, double amountPerParent,
+                                  double unitsPerTop, int depth) {
+            Recipe recipe = design.compile();
+            int item = recipe.getProductItem();
+            for (int d = 0; d < depth; d++) {
+                if (route.path[d] == item) {
+                    return false; // the design needs its own product; no finite plan makes it
+                }
+            }
+            if (depth == route.path.length) {
+                route.path = Arrays.copyOf(route.path, depth * 2);
+            }
+            route.path[depth] = item;
+            int node = route.addNode(design, recipe, parentNode, amountPerParent);
+            route.unitCost += recipe.getProductionCost() * unitsPerTop;
+            for (int input = 0; input < recipe.getInputCount(); input++) {
+                int inputItem = recipe.getInputItem(input);
+                int stock = recipe.getInputStock(input);
+                double perUnit = recipe.getInputPerUnit(input);
+                ProductDesign maker = stock == Recipe.FROM_PRODUCTS ? route.view.designFor.get(inputItem) : null;
+                if (maker != null) {
+                    if (!addDesign(route, maker, node, perUnit, unitsPerTop * perUnit, depth + 1)) {
+                        return false;
+                    }
+                } else {
+                    route.addLeaf(node, perUnit, stock, inputItem);
+                    if (stock == Recipe.FROM_RAW_MATERIALS) {
+                        route.unitCost += unitsPerTop * perUnit * rawPrice.getOrDefault(inputItem, 0.0);
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void allocate(Market market, Product product, int amount) {
+            int left = amount;
+            for (FactoryView view : views) {
+                ProductDesign design = view.designFor.get(product.getCatalogIndex());
+                if (left == 0 || design == null) {
+                    continue;
+                }
+                double price = view.factory.getSellingPrice(design);
+                long key = stockKey(view, Recipe.FROM_PRODUCTS, product.getCatalogIndex());
+                int units = Math.min(Math.min(left, stockLeft(key, view, Recipe.FROM_PRODUCTS, product.getCatalogIndex())),
+                        affordable(market, price, left));
+                if (units > 0) {
+                    stockLeft.put(key, stockLeft.get(key) - units);
+                    deliver(view, market, product, units, price);
+                    left -= units;
+                }
+            }
+            for (Route route : routes[productPosition.get(product.getCatalogIndex())]) {
+                if (left == 0) {
+                    break;
+                }
+                double price = route.view.factory.getSellingPrice(route.top);
+                int units = largestFitting(route, affordable(market, price, left));
+                if (units > 0) {
+                    take(route, units, true);
+                    deliver(route.view, market, product, units, price);
+                    left -= units;
+                }
+            }
+            if (left > 0) {
+                result.addShortfall(market, product, left);
+            }
+        }
+
+        private int affordable(Market market, double price, int wanted) {
+            double balance = marketBalance.computeIfAbsent(market, Market::getBalance);
+            return price <= 0 ? wanted : (int) Math.min(wanted, Math.floor(balance / price));
+        }
+
+        private void deliver(FactoryView view, Market market, Product product, int units, double price) {
+            marketBalance.merge(market, -units * price, Double::sum);
+            result.addDelivery(view.factory, market, product, units, price);
+        }
+
+        private int largestFitting(Route route, int max) {
+            if (max <= 0 || take(route, max, false)) {
+                return Math.max(max, 0);
+            }
+            int fits = 0;
+            int tooMany = max;
+            while (tooMany - fits > 1) {
+                int mid = (fits + tooMany) >>> 1;
+                if (take(route, mid, false)) {
+                    fits = mid;
+                } else {
+                    tooMany = mid;
+                }
+            }
+            return fits;
+        }
+
+        /**
+         * Works out what making amount units through the route needs and whether what is left
+         * covers it. If it does and apply is true, takes it.
+         * Inputs and products are rounded up, because a factory needs at least the exact amount in
+         * stock before it produces.
+         */
+        private boolean take(Route route, int amount, boolean apply) {
+            FactoryView view = route.view;
+            int[] units = new int[route.nodes];
+            units[0] = amount;
+            for (int node = 1; node < route.nodes; node++) {
+                units[node] = (int) Math.ceil(route.perUnit[node] * units[route.parent[node]]);
+            }
+            long[] need = new long[route.slots];
+            for (int leaf = 0; leaf < route.leaves; leaf++) {
+                need[route.leafSlot[leaf]] += (long) Math.ceil(route.leafPerUnit[leaf] * units[route.leafParent[leaf]]);
+            }
+            double cost = 0;
+            long storage = 0;
+            for (int node = 0; node < route.nodes; node++) {
+                cost += route.recipes[node].getProductionCost() * units[node];
+                storage += units[node] + route.recipes[node].byproductUnits(units[node]);
+            }
+            for (int slot = 0; slot < route.slots; slot++) {
+                int stock = route.slotStock[slot];
+                int item = route.slotItem[slot];
+                long have = stockLeft(stockKey(view, stock, item), view, stock, item);
+                long toBuy = need[slot] - Math.min(have, need[slot]);
+                if (toBuy > 0) {
+                    if (stock != Recipe.FROM_RAW_MATERIALS) {
+                        return false;
+                    }
+                    double price = buyingCost(item, toBuy);
+                    if (Double.isNaN(price)) {
+                        return false;
+                    }
+                    cost += price;
+                    storage += toBuy;
+                }
+            }
+            if (cost > view.balance || storage > view.free) {
+                return false;
+            }
+            if (!apply) {
+                return true;
+            }
+            for (int slot = 0; slot < route.slots; slot++) {
+                int stock = route.slotStock[slot];
+                int item = route.slotItem[slot];
+                long key = stockKey(view, stock, item);
+                int have = stockLeft(key, view, stock, item);
+                int fromStock = (int) Math.min(have, need[slot]);
+                stockLeft.put(key, have - fromStock);
+                if (need[slot] > fromStock) {
+                    buy(view, item, (int) (need[slot] - fromStock));
+                }
+            }
+            for (int node = 0; node < route.nodes; node++) {
+                if (units[node] > 0) {
+                    view.orders.merge(route.designs[node], units[node], Integer::sum);
+                }
+            }
+            view.balance -= cost;
+            view.free -= storage;
+            result.addCost(cost);
+            return true;
+        }
+
+        /**
+         * Cost of buying units of a material from the cheapest producers that still have some,
+         * or NaN if they do not have that many together.
+         */
+        private double buyingCost(int item, long units) {
+            RawSupplier[] sources = suppliers.get(item);
+            if (sources == null) {
+                return Double.NaN;
+            }
+            double cost = 0;
+            for (RawSupplier source : sources) {
+                long fromSource = Math.min(units, source.available - source.taken);
+                cost += fromSource * source.price;
+                units -= fromSource;
+                if (units == 0) {
+                    return cost;
+                }
+            }
+            return Double.NaN;
+        }
+
+        private void buy(FactoryView view, int item, int units) {
+            for (RawSupplier source : suppliers.get(item)) {
+                int fromSource = Math.min(units, source.available - source.taken);
+                if (fromSource > 0) {
+                    source.taken += fromSource;
+                    view.bought.merge(source, fromSource, Integer::sum);
+                    units -= fromSource;
+                }
+            }
+        }
+
+        private long stockKey(FactoryView view, int stock, int item) {
+            return ((long) view.index << 34) | ((long) stock << 32) | item;
+        }
+
+        private int stockLeft(long key, FactoryView view, int stock, int item) {
+            Integer left = stockLeft.get(key);
+            if (left == null) {
+                switch (stock) {
+                    case Recipe.FROM_PRODUCTS: left = view.factory.getProductStock(item); break;
+                    case Recipe.FROM_BYPRODUCTS: left = view.factory.getByproductStock(item); break;
+                    default: left = view.factory.getRawMaterialStock(item); break;
+                }
+                stockLeft.put(key, left);
+            }
+            return left;
+        }
+
+        private void finish() {
+            for (RawSupplier[] sources : suppliers.values()) {
+                for (RawSupplier source : sources) {
+                    if (source.taken > source.stock) {
+                        result.addProducerRun(source.producer, source.taken - source.stock);
+                    }
+                }
+            }
+            for (FactoryView view : views) {
+                for (Map.Entry<RawSupplier, Integer> purchase : view.bought.entrySet()) {
+                    result.addPurchase(view.factory, purchase.getKey().producer, purchase.getValue());
+                }
+                if (!view.orders.isEmpty()) {
+                    List<ProductionOrder> orders = new ArrayList<>();
+                    for (Map.Entry<ProductDesign, Integer> order : view.orders.entrySet()) {
+                        orders.add(new ProductionOrder(order.getKey(), order.getValue()));
+                    }
+                    result.addProduction(view.factory, orders);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the routes of a range of demanded products, splitting the range until it is small.
+     */
+    private static final class RouteTask extends RecursiveAction {
+        private final Run run;
+        private final int from;
+        private final int to;
+
+        RouteTask(Run run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    run.routes[i] = run.routesFor(run.products[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RouteTask(run, from, middle), new RouteTask(run, middle, to));
+        }
+    }
+}
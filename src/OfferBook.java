@@ -0,0 +1,356 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Index of everything currently for sale, per product and sorted by price, so finding the
+ * cheapest seller of a product is a lookup instead of a walk over every market and factory.
+ * <p>
+ * Each {@link World} has one. Its market and factory controllers attach the sellers they hold to
+ * it and remove their offers when they drop them; a seller in no world offers nothing. The sellers
+ * keep it up to date themselves: whenever their stock or price of a product changes they call
+ * {@link #update}, while holding their own lock. Offers are keyed by {@link ItemCatalog} index,
+ * like {@link ItemStock}.
+ * <p>
+ * A seller has one offer per product for as long as it stocks it, and changes of stock or price
+ * are written into that offer. A stock change does nothing else. A price change, a new offer or a
+ * withdrawn one is only queued; the first read of the product afterwards takes the queued offers
+ * out of the sorted order and merges them back in at their new place, in one pass over the sort
+ * keys. So a {@link PricingEngine} tick that reprices a thousand sellers of a product costs one
+ * merge when the product is next read, not a thousand re-insertions during the tick.
+ */
+public final class OfferBook {
+    private static final Comparator<Offer> BY_SORT_KEY = (a, b) -> compare(a.sortPrice, a.sellerOrder, b.sortPrice, b.sellerOrder);
+
+    private volatile ProductOffers[] byItem = new ProductOffers[64];
+
+    OfferBook() {
+    }
+
+    /**
+     * Orders by price; ties go by the seller's lock order, which is unique per seller and kept in
+     * the offer, so comparing never follows the seller to its lock.
+     */
+    private static int compare(double price, long sellerOrder, double otherPrice, long otherSellerOrder) {
+        int byPrice = Double.compare(price, otherPrice);
+        return byPrice != 0 ? byPrice : Long.compare(sellerOrder, otherSellerOrder);
+    }
+
+    /**
+     * One seller's offer of one product. Price and quantity follow the seller's; an offer that was
+     * withdrawn stays withdrawn, and stocking the product again makes a new one.
+     */
+    public static final class Offer {
+        private final Customer seller;
+        private final Product product;
+        private final long sellerOrder; // the seller's lock order, which breaks ties in price
+        private volatile double price;
+        private volatile int quantity;
+        private volatile boolean withdrawn;
+        private volatile boolean queued; // waiting in its product's moved queue
+        // Only touched while sorting its product:
+        private double sortPrice; // the price it is sorted by
+        private boolean placed; // in the sorted order
+        private long sortRound; // the last sort that handled it
+
+        Offer(Customer seller, Product product, double price, int quantity) {
+            this.seller = seller;
+            this.product = product;
+            this.price = price;
+            this.sellerOrder = seller.getLock().getOrder();
+            this.quantity = quantity;
+        }
+
+        public Customer getSeller() { return seller; }
+        public Product getProduct() { return product; }
+        public double getPrice() { return price; }
+        public int getQuantity() { return quantity; }
+    }
+
+    /**
+     * The sorted offers of a product, with their sort keys alongside so finding and merging walks
+     * arrays instead of offers. Never changed once published.
+     */
+    private static final class Sorted {
+        static final Sorted EMPTY = new Sorted(new Offer[0], new double[0], new long[0]);
+
+        final Offer[] offers;
+        final double[] prices;
+        final long[] sellerOrders;
+
+        Sorted(Offer[] offers, double[] prices, long[] sellerOrders) {
+            this.offers = offers;
+            this.prices = prices;
+            this.sellerOrders = sellerOrders;
+        }
+
+        int indexOf(Offer offer) {
+            int at = search(offer);
+            if (at < 0) {
+                throw new IllegalStateException("Offer missing from the sorted order.");
+            }
+            return at;
+        }
+
+        /**
+         * Where an offer that is not in this order goes by its sort price.
+         */
+        int insertionPoint(Offer offer) {
+            int at = search(offer);
+            return at < 0 ? -(at + 1) : at;
+        }
+
+        private int search(Offer offer) {
+            int low = 0;
+            int high = offers.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int c = compare(prices[middle], sellerOrders[middle], offer.sortPrice, offer.sellerOrder);
+                if (c < 0) {
+                    low = middle + 1;
+                } else if (c > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * Copies entries from up to end, if any, to the given arrays at to.
+         * @return the index after the last one copied.
+         */
+        int copy(int from, int end, Offer[] offers, double[] prices, long[] sellerOrders, int to) {
+            int length = end - from;
+            if (length <= 0) {
+                return to;
+            }
+            System.arraycopy(this.offers, from, offers, to, length);
+            System.arraycopy(this.prices, from, prices, to, length);
+            System.arraycopy(this.sellerOrders, from, sellerOrders, to, length);
+            return to + length;
+        }
+    }
+
+    private static final class ProductOffers {
+        final ConcurrentHashMap<Customer, Offer> bySeller = new ConcurrentHashMap<>();
+        private final ConcurrentLinkedQueue<Offer> moved = new ConcurrentLinkedQueue<>();
+        private volatile Sorted sorted = Sorted.EMPTY;
+        private long sortRound;
+
+        /**
+         * Queues an offer whose price changed, that is new or that was withdrawn. Writers change the
+         * offer first and check queued after, and sorting clears queued before it reads the offer,
+         * so a change is either seen by the sort that clears it or queues the offer again.
+         */
+        void moved(Offer offer) {
+            if (!offer.queued) {
+                offer.queued = true;
+                moved.add(offer);
+            }
+        }
+
+        Offer[] byPrice() {
+            if (!moved.isEmpty()) {
+                sort();
+            }
+            return sorted.offers;
+        }
+
+        private synchronized void sort() {
+            long round = ++sortRound;
+            List<Offer> batch = new ArrayList<>();
+            for (Offer offer; (offer = moved.poll()) != null; ) {
+                offer.queued = false;
+                if (offer.sortRound != round) {
+                    offer.sortRound = round;
+                    batch.add(offer);
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            Sorted old = sorted;
+            int[] removed = new int[batch.size()];
+            int removedCount = 0;
+            int insertCount = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Offer offer = batch.get(i);
+                if (offer.placed) {
+                    removed[removedCount++] = old.indexOf(offer);
+                }
+                offer.placed = !offer.withdrawn;
+                if (offer.placed) {
+                    offer.sortPrice = offer.price;
+                    batch.set(insertCount++, offer);
+                }
+            }
+            Arrays.sort(removed, 0, removedCount);
+            Offer[] inserts = batch.subList(0, insertCount).toArray(new Offer[0]);
+            Arrays.sort(inserts, BY_SORT_KEY);
+
+            // Copies the unchanged runs of the old order whole, stopping only where an offer leaves
+            // or one goes in.
+            int size = old.offers.length - removedCount + insertCount;
+            Offer[] offers = new Offer[size];
+            double[] prices = new double[size];
+            long[] sellerOrders = new long[size];
+            int from = 0;
+            int to = 0;
+            int r = 0;
+            for (Offer insert : inserts) {
+                int at = old.insertionPoint(insert);
+                for (; r < removedCount && removed[r] < at; r++) {
+                    to = old.copy(from, removed[r], offers, prices, sellerOrders, to);
+                    from = removed[r] + 1;
+                }
+                to = old.copy(from, at, offers, prices, sellerOrders, to);
+                from = Math.max(from, at);
+                offers[to] = insert;
+                prices[to] = insert.sortPrice;
+                sellerOrders[to] = insert.sellerOrder;
+                to++;
+            }
+            for (; r < removedCount; r++) {
+                to = old.copy(from, removed[r], offers, prices, sellerOrders, to);
+                from = removed[r] + 1;
+            }
+            old.copy(from, old.offers.length, offers, prices, sellerOrders, to);
+            sorted = new Sorted(offers, prices, sellerOrders);
+        }
+    }
+
+    /**
+     * Records what a seller currently offers of a product. A quantity of 0 or less withdraws the offer.
+     * The seller must hold its own lock, so updates for one seller and product never interleave.
+     * Sellers that update often keep the returned offer and use {@link #update(Offer, Customer, Product, double, int)}.
+     */
+    void update(Customer seller, Product product, double price, int quantity) {
+        ProductOffers offers = existingOffersFor(product.getCatalogIndex());
+        update(offers == null ? null : offers.bySeller.get(seller), seller, product, price, quantity);
+    }
+
+    /**
+     * Same as {@link #update(Customer, Product, double, int)} for a seller that keeps its offers,
+     * which saves looking the offer up.
+     *
+     * @param current what this returned for the seller and product last time; null the first time.
+     * @return the offer now standing, or null if there is none.
+     */
+    Offer update(Offer current, Customer seller, Product product, double price, int quantity) {
+        if (current != null && !current.withdrawn) {
+            if (quantity <= 0) {
+                withdraw(current);
+                return null;
+            }
+            current.quantity = quantity;
+            if (Double.compare(current.price, price) != 0) {
+                current.price = price;
+                offersFor(product.getCatalogIndex()).moved(current);
+            }
+            return current;
+        }
+        if (quantity <= 0) {
+            return null;
+        }
+        ProductOffers offers = offersFor(product.getCatalogIndex());
+        Offer next = new Offer(seller, product, price, quantity);
+        offers.bySeller.put(seller, next);
+        offers.moved(next);
+        return next;
+    }
+
+    private void withdraw(Offer offer) {
+        ProductOffers offers = offersFor(offer.product.getCatalogIndex());
+        offer.withdrawn = true;
+        offers.bySeller.remove(offer.seller, offer);
+        offers.moved(offer);
+    }
+
+    /**
+     * Withdraws every offer of a seller. Walks all products, as sellers are rarely removed.
+     * The seller must hold its own lock.
+     */
+    void removeSeller(Customer seller) {
+        for (ProductOffers offers : byItem) {
+            if (offers != null) {
+                Offer current = offers.bySeller.get(seller);
+                if (current != null) {
+                    withdraw(current);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cheapest offer of the product, or null if nobody sells it.
+     * @param excluded a seller to skip, typically the buyer itself. May be null.
+     */
+    public Offer cheapest(Product product, Customer excluded) {
+        ProductOffers offers = existingOffersFor(product.getCatalogIndex());
+        if (offers == null) {
+            return null;
+        }
+        for (Offer offer : offers.byPrice()) {
+            if (offer.seller != excluded) {
+                return offer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the offers of one product, cheapest first.
+     */
+    public List<Offer> offersOf(Product product) {
+        ProductOffers offers = existingOffersFor(product.getCatalogIndex());
+        return offers == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(offers.byPrice()));
+    }
+
+    /**
+     * Returns every offer, grouped by product in catalog order and cheapest first within a product.
+     */
+    public List<Offer> allOffers() {
+        List<Offer> all = new ArrayList<>();
+        ProductOffers[] items = byItem;
+        for (ProductOffers offers : items) {
+            if (offers != null) {
+                all.addAll(Arrays.asList(offers.byPrice()));
+            }
+        }
+        return all;
+    }
+
+    private ProductOffers existingOffersFor(int item) {
+        ProductOffers[] items = byItem;
+        return item < items.length ? items[item] : null;
+    }
+
+    private ProductOffers offersFor(int item) {
+        ProductOffers offers = existingOffersFor(item);
+        return offers != null ? offers : create(item);
+    }
+
+    /**
+     * Entries are only ever added and are published through the volatile array, so a reader that
+     * races with this sees either null (and comes here to re-check under the lock) or a fully
+     * built entry.
+     */
+    private synchronized ProductOffers create(int item) {
+        ProductOffers[] items = byItem;
+        if (item < items.length && items[item] != null) {
+            return items[item];
+        }
+        if (item >= items.length) {
+            items = Arrays.copyOf(items, Math.max(items.length * 2, item + 1));
+        }
+        ProductOffers offers = new ProductOffers();
+        items[item] = offers;
+        byItem = items;
+        return offers;
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histogram of one {@link TradeMetrics.Operation}. Every call is in the
+ * histogram, so successes are counted as the calls that did not fail.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+    private final TradeMetrics.Operation operation;
+    private final LongAdder[] failed = new LongAdder[TradeMetrics.Failure.values().length];
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final TradeMetrics.Rate calls = new TradeMetrics.Rate(this::getCalls);
+
+    OperationMetrics(TradeMetrics.Operation operation) {
+        this.operation = operation;
+        for (int i = 0; i < failed.length; i++) {
+            failed[i] = new LongAdder();
+        }
+    }
+
+    public TradeMetrics.Operation getOperation() {
+        return operation;
+    }
+
+    void recordSuccess(long nanos) {
+        latency.record(nanos);
+    }
+
+    void recordFailure(TradeMetrics.Failure reason, long nanos) {
+        failed[reason.ordinal()].increment();
+        latency.record(nanos);
+    }
+
+    public long getFailed(TradeMetrics.Failure reason) {
+        return failed[reason.ordinal()].sum();
+    }
+
+    long getCalls() {
+        return latency.getCount();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getSucceeded() {
+        return Math.max(0, getCalls() - getFailed());
+    }
+
+    @Override
+    public long getFailed() {
+        long total = 0;
+        for (LongAdder count : failed) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getFailedForFunds() {
+        return getFailed(TradeMetrics.Failure.FUNDS);
+    }
+
+    @Override
+    public long getFailedForStock() {
+        return getFailed(TradeMetrics.Failure.STOCK);
+    }
+
+    @Override
+    public long getFailedForCapacity() {
+        return getFailed(TradeMetrics.Failure.CAPACITY);
+    }
+
+    @Override
+    public long getFailedInvalid() {
+        return getFailed(TradeMetrics.Failure.INVALID);
+    }
+
+    @Override
+    public long getFailedOther() {
+        return getFailed(TradeMetrics.Failure.OTHER);
+    }
+
+    @Override
+    public double getCallsPerSecond() {
+        return calls.perSecond();
+    }
+
+    @Override
+    public double getMeanNanos() {
+        return latency.getMeanNanos();
+    }
+
+    @Override
+    public long getP50Nanos() {
+        return latency.getPercentileNanos(0.5);
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return latency.getPercentileNanos(0.99);
+    }
+
+    @Override
+    public long getP999Nanos() {
+        return latency.getPercentileNanos(0.999);
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return latency.getMaxNanos();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder count : failed) {
+            count.reset();
+        }
+        latency.reset();
+    }
+}
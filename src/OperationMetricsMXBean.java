@@ -0,0 +1,27 @@
+/**
+ * JMX view of the metrics of one trading or production operation, see {@link TradeMetrics}.
+ * Latencies are in nanoseconds and include the time spent waiting for entity locks.
+ */
+public interface OperationMetricsMXBean {
+    long getSucceeded();
+    long getFailed();
+    long getFailedForFunds();
+    long getFailedForStock();
+    long getFailedForCapacity();
+    long getFailedInvalid();
+    long getFailedOther();
+
+    /**
+     * Calls per second, succeeded or not, averaged since the previous sample. Samples are taken
+     * when this is read, at most once a second.
+     */
+    double getCallsPerSecond();
+
+    double getMeanNanos();
+    long getP50Nanos();
+    long getP99Nanos();
+    long getP999Nanos();
+    long getMaxNanos();
+
+    void reset();
+}
@@ -0,0 +1,135 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reprices the products of every market once per tick from supply and demand. For each product the
+ * engine keeps a sales velocity, the units sold per tick smoothed over recent ticks, and compares
+ * the stock with it: stock that would last fewer ticks than the target cover raises the price,
+ * stock that would last longer lowers it, by at most maxStep per tick. Prices never fall below the
+ * product's production cost.
+ * <p>
+ * Only active products are repriced: a sale or delivery makes a product active, and it stays so,
+ * with its velocity decaying while nothing sells, until the velocity is 0 and its price has
+ * stopped moving. So a tick costs in proportion to the recent trading, not to the number of
+ * markets times products, and an overstocked product keeps getting cheaper down to its cost.
+ * Markets are repriced in parallel on the common fork/join pool, each under
+ * its own lock, so trades can go on while a tick runs.
+ */
+public final class PricingEngine {
+    private static final int SPLIT_THRESHOLD = 256; // markets per fork/join leaf task
+
+    private final List<Market> markets;
+    private final double smoothing;
+    private final double targetCoverTicks;
+    private final double maxStep;
+    private int tick;
+
+    public PricingEngine(World world) {
+        this(world.getMarketController().getMarkets());
+    }
+
+    /**
+     * An engine with smoothing 0.3, a target cover of 10 ticks and steps of at most 5%.
+     */
+    public PricingEngine(List<Market> markets) {
+        this(markets, 0.3, 10, 0.05);
+    }
+
+    /**
+     * @param markets the markets to reprice, read at every tick; add and remove markets from the
+     * thread that calls {@link #tick()}.
+     * @param smoothing weight of the latest tick's sales in the velocity, between 0 (exclusive) and 1.
+     * @param targetCoverTicks how many ticks of sales a market aims to keep in stock.
+     * @param maxStep the largest change of a price in one tick, as a fraction of it.
+     * @throws IllegalArgumentException if a parameter is out of range.
+     */
+    public PricingEngine(List<Market> markets, double smoothing, double targetCoverTicks, double maxStep) {
+        if (markets == null) {
+            throw new IllegalArgumentException("Markets cannot be null.");
+        }
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("Smoothing must be above 0 and at most 1.");
+        }
+        if (targetCoverTicks <= 0) {
+            throw new IllegalArgumentException("Target cover must be positive.");
+        }
+        if (maxStep < 0 || maxStep >= 1) {
+            throw new IllegalArgumentException("Max step must be at least 0 and below 1.");
+        }
+        this.markets = markets;
+        this.smoothing = smoothing;
+        this.targetCoverTicks = targetCoverTicks;
+        this.maxStep = maxStep;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    double getSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * Advances one tick and reprices the active products.
+     * Not to be called from two threads at once.
+     * @return the number of prices that changed.
+     */
+    public int tick() {
+        tick++;
+        // a copy, so the tasks neither see markets added meanwhile nor make the registry compact itself
+        Market[] snapshot = markets.toArray(new Market[0]);
+        if (snapshot.length <= SPLIT_THRESHOLD) {
+            return reprice(snapshot, 0, snapshot.length);
+        }
+        return ForkJoinPool.commonPool().invoke(new TickTask(snapshot, 0, snapshot.length));
+    }
+
+    private int reprice(Market[] snapshot, int from, int to) {
+        int changed = 0;
+        for (int i = from; i < to; i++) {
+            changed += snapshot[i].reprice(this, tick);
+        }
+        return changed;
+    }
+
+    /**
+     * The next price of a product from its current price, production cost, stock and velocity.
+     */
+    double nextPrice(double price, double productionCost, int stock, double velocity) {
+        double step;
+        if (velocity <= 0) {
+            step = stock > 0 ? -maxStep : 0; // nothing sells: cheapen what is on the shelf
+        } else {
+            double cover = stock / velocity;
+            double shortfall = (targetCoverTicks - cover) / targetCoverTicks; // 1 when sold out, negative when overstocked
+            step = maxStep * Math.max(-1, Math.min(1, shortfall));
+        }
+        return Math.max(productionCost, price * (1 + step));
+    }
+
+    private final class TickTask extends RecursiveTask<Integer> {
+        private final Market[] snapshot;
+        private final int from;
+        private final int to;
+
+        TickTask(Market[] snapshot, int from, int to) {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                return reprice(snapshot, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            TickTask left = new TickTask(snapshot, from, middle);
+            left.fork();
+            int right = new TickTask(snapshot, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+}
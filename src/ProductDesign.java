@@ -1,4 +1,9 @@
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ProductDesign {
 
@@ -11,15 +16,22 @@ public class ProductDesign {
     private RawMaterial rawmaterial2;
     
     private HashMap<InventoryItem,Double> inputRequirements;
+    private Map<InventoryItem,Double> inputRequirementsView;
     private HashMap<InventoryItem,Double> outputProducts;
 
     private double productionCost;
 
+    private Recipe recipe; // compiled on first use, dropped whenever the design changes
+    private final List<Factory> users = new CopyOnWriteArrayList<>(); // factories that added it, told of changes
+
+    private static final AtomicLong revision = new AtomicLong(); // bumped on every change to any design
+
     public ProductDesign(Product product,ByProduct byproduct,RawMaterial rawmaterial){
         this.product = product;
         this.byproduct = byproduct;
         this.rawmaterial = rawmaterial;
-        this.inputRequirements = new HashMap<>();        
+        this.inputRequirements = new HashMap<>();
+        this.inputRequirementsView = Collections.unmodifiableMap(inputRequirements);
         this.outputProducts = new HashMap<>();
     }
     public ProductDesign(Product product1,ByProduct byproduct,RawMaterial rawmaterial,RawMaterial rawmaterial2){
@@ -37,6 +49,7 @@ public class ProductDesign {
 
     public void setByproductAmount(double byproductAmount) {
         this.byproductAmount = byproductAmount;
+        changed();
     }
 
     public double getRawmaterialAmount() {
@@ -53,6 +66,7 @@ public class ProductDesign {
 
     public void setProduct(Product product) {
         this.product = product;
+        changed();
     }
 
     public ByProduct getByproduct() {
@@ -61,6 +75,7 @@ public class ProductDesign {
 
     public void setByproduct(ByProduct byproduct) {
         this.byproduct = byproduct;
+        changed();
     }
 
     public RawMaterial getRawmaterial() {
@@ -71,12 +86,24 @@ public class ProductDesign {
         this.rawmaterial = rawmaterial;
     }
 
-    public HashMap<InventoryItem,Double> getinputRequirements() {
-        return inputRequirements;
+    /**
+     * Read-only view of the inputs needed per unit. Use addInputRequirement to change them.
+     */
+    public Map<InventoryItem,Double> getinputRequirements() {
+        return inputRequirementsView;
     }
 
+    /**
+     * Replaces the inputs needed per unit with a copy of the given ones, so changing the map
+     * afterwards does not change the design behind its compiled recipe.
+     */
     public void setinputRequirements(HashMap<InventoryItem,Double> inputRequirements) {
-        this.inputRequirements = inputRequirements;
+        if (inputRequirements == null) {
+            throw new IllegalArgumentException("Input requirements cannot be null.");
+        }
+        this.inputRequirements = new HashMap<>(inputRequirements);
+        this.inputRequirementsView = Collections.unmodifiableMap(this.inputRequirements);
+        changed();
     }
     public double getProductionCost() {
         return this.productionCost;
@@ -84,6 +111,45 @@ public class ProductDesign {
 
     public void setProductionCost(double productionCost) {
         this.productionCost = productionCost;
+        changed();
+    }
+
+    private void changed() {
+        recipe = null;
+        revision.incrementAndGet();
+        for (Factory factory : users) {
+            factory.designChanged(this);
+        }
+    }
+
+    /**
+     * Called by a factory that added this design, so its offers follow changes to the cost.
+     */
+    void addUser(Factory factory) {
+        if (!users.contains(factory)) {
+            users.add(factory);
+        }
+    }
+
+    /**
+     * Counts changes made to any design. Caches built from designs, such as {@link BillOfMaterials},
+     * compare it with the value they last saw to tell cheaply whether anything may have changed.
+     */
+    static long revision() {
+        return revision.get();
+    }
+
+    /**
+     * Returns the compiled recipe for this design as it is now. The result is cached until the
+     * design is changed.
+     */
+    public Recipe compile() {
+        Recipe compiled = recipe;
+        if (compiled == null) {
+            compiled = new Recipe(this);
+            recipe = compiled;
+        }
+        return compiled;
     }
 
     
@@ -116,6 +182,7 @@ public class ProductDesign {
 
     public void addInputRequirement(InventoryItem item, double amount) {
         inputRequirements.put(item, amount);
+        changed();
     }
 
     public void addOutputProduct(InventoryItem item, double amount) {
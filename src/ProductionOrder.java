@@ -0,0 +1,32 @@
+/**
+ * One line of a batch production run: make amount units of a design's product.
+ * See {@link Factory#produceBatch(java.util.List)}.
+ */
+public class ProductionOrder {
+    private final ProductDesign design;
+    private final int amount;
+
+    public ProductionOrder(ProductDesign design, int amount) {
+        if (design == null) {
+            throw new IllegalArgumentException("Design cannot be null.");
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount to produce must be positive.");
+        }
+        this.design = design;
+        this.amount = amount;
+    }
+
+    public ProductDesign getDesign() {
+        return design;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return amount + " x " + design.getProduct().getName();
+    }
+}
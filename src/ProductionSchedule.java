@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The production lines of one {@link Factory} and the orders queued for them. Each line works on
+ * one order at a time; an order of amount units of a design keeps its line busy for amount / rate
+ * ticks, rounded up, where the rate is set per design. Waiting orders start by priority, then in
+ * the order they were scheduled, as soon as a line is free and the factory has their inputs.
+ * Starting an order takes its inputs, cost and storage right away (see {@link Starter}), so two
+ * lines never start against the same stock; finishing it only delivers the output.
+ * <p>
+ * Every step costs O(log n) in the number of orders: waiting orders are in a heap, running ones in
+ * a heap by finishing time, and an order whose inputs are short waits in a heap for the input it
+ * lacks. When that input arrives only the orders it is enough for go back to the waiting heap,
+ * so a factory with thousands of blocked orders does no work for stock nobody needs.
+ * <p>
+ * The factory's lock guards it.
+ */
+class ProductionSchedule {
+    static final double DEFAULT_RATE = 1; // units per tick
+    static final int DEFAULT_LINES = 1;
+
+    /**
+     * Takes what an order needs from the factory when it gets a line.
+     */
+    interface Starter {
+        /**
+         * @return OK if the order's inputs, cost and storage were taken, otherwise why not.
+         */
+        TradeResult start(ProductionOrder order);
+    }
+
+    private final Starter starter;
+    private final Map<ProductDesign, Double> rates = new IdentityHashMap<>();
+    private final PriorityQueue<Job> waiting = new PriorityQueue<>(ProductionSchedule::byPriority);
+    private final PriorityQueue<Job> running = new PriorityQueue<>(ProductionSchedule::byFinish);
+    private final List<PriorityQueue<Job>> blocked = new ArrayList<>(); // by ItemCatalog index * 3 + Recipe.FROM_*
+    private int blockedCount;
+    private int lines = DEFAULT_LINES;
+    private long now;
+    private long nextSequence;
+    private long failed;
+
+    /**
+     * An order in the schedule.
+     */
+    static final class Job {
+        final ProductionOrder order;
+        final int priority;
+        final long sequence;
+        long finishAt;
+        double need; // units of the input it is blocked on
+
+        Job(ProductionOrder order, int priority, long sequence) {
+            this.order = order;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    ProductionSchedule(Starter starter) {
+        this.starter = starter;
+    }
+
+    private static int byPriority(Job a, Job b) {
+        int c = Integer.compare(b.priority, a.priority); // higher priority first
+        return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+    }
+
+    private static int byFinish(Job a, Job b) {
+        int c = Long.compare(a.finishAt, b.finishAt);
+        return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+    }
+
+    int getLines() {
+        return lines;
+    }
+
+    void setLines(int lines) {
+        this.lines = lines;
+    }
+
+    void setRate(ProductDesign design, double unitsPerTick) {
+        rates.put(design, unitsPerTick);
+    }
+
+    double getRate(ProductDesign design) {
+        return rates.getOrDefault(design, DEFAULT_RATE);
+    }
+
+    long getNow() {
+        return now;
+    }
+
+    int getWaitingCount() {
+        return waiting.size() + blockedCount;
+    }
+
+    int getRunningCount() {
+        return running.size();
+    }
+
+    long getFailedCount() {
+        return failed;
+    }
+
+    void add(ProductionOrder order, int priority) {
+        waiting.add(new Job(order, priority, nextSequence++));
+    }
+
+    /**
+     * Starts waiting orders while lines are free. An order the stocks lack an input for moves to
+     * the heap of that input instead; one the factory cannot pay for or store is dropped.
+     */
+    void dispatch(ItemStock[] stocks) {
+        while (running.size() < lines && !waiting.isEmpty()) {
+            Job job = waiting.poll();
+            Recipe recipe = job.order.getDesign().compile();
+            int shortInput = recipe.firstShortInput(stocks, job.order.getAmount());
+            if (shortInput >= 0) {
+                block(job, recipe, shortInput);
+            } else if (starter.start(job.order).isOk()) {
+                double ticks = Math.ceil(job.order.getAmount() / getRate(job.order.getDesign()));
+                job.finishAt = now + Math.max(1, (long) ticks);
+                running.add(job);
+            } else {
+                failed++;
+            }
+        }
+    }
+
+    private void block(Job job, Recipe recipe, int input) {
+        int key = recipe.getInputItem(input) * 3 + recipe.getInputStock(input);
+        while (blocked.size() <= key) {
+            blocked.add(null);
+        }
+        PriorityQueue<Job> queue = blocked.get(key);
+        if (queue == null) {
+            queue = new PriorityQueue<>(ProductionSchedule::byPriority);
+            blocked.set(key, queue);
+        }
+        job.need = recipe.getInputPerUnit(input) * job.order.getAmount();
+        queue.add(job);
+        blockedCount++;
+    }
+
+    /**
+     * Called when the stock of an item went up. Moves the orders blocked on it back to waiting,
+     * best first, for as long as the stock covers what they need of it. They start with the next
+     * dispatch: the stock usually arrives in the middle of another operation, and starting an order
+     * there would be journaled ahead of the operation that made it possible.
+     */
+    void stockArrived(int stock, int item, ItemStock[] stocks) {
+        int key = item * 3 + stock;
+        if (key >= blocked.size()) {
+            return;
+        }
+        PriorityQueue<Job> queue = blocked.get(key);
+        if (queue == null || queue.isEmpty()) {
+            return;
+        }
+        int available = stocks[stock].get(item);
+        double claimed = 0;
+        while (!queue.isEmpty() && claimed + queue.peek().need <= available) {
+            Job job = queue.poll();
+            blockedCount--;
+            claimed += job.need;
+            waiting.add(job);
+        }
+    }
+
+    /**
+     * Removes the running order that finishes first if it finishes by the given tick, and moves
+     * the clock to its finishing time.
+     *
+     * @return the order, or null if none finishes by then.
+     */
+    Job pollFinished(long tick) {
+        Job job = running.peek();
+        if (job == null || job.finishAt > tick) {
+            return null;
+        }
+        running.poll();
+        now = Math.max(now, job.finishAt);
+        return job;
+    }
+
+    void advanceTo(long tick) {
+        now = Math.max(now, tick);
+    }
+}
@@ -1,2 +1,33 @@
+import java.util.List;
+
 public class RawMaterialController {
+    private EntityRegistry<RawMaterialProducer> producers;
+
+    public RawMaterialController() {
+        this.producers = new EntityRegistry<>();
+    }
+
+    public List<RawMaterialProducer> getProducers() {
+        return producers;
+    }
+
+    public void addProducer(RawMaterialProducer producer) {
+        if (producer == null) {
+            throw new IllegalArgumentException("Producer cannot be null.");
+        }
+        producers.add(producer);
+        TradeJournal.recordProducerCreated(producer);
+        ChangeEvents.entityAdded(producer);
+    }
+
+    public RawMaterialProducer getProducer(int index) {
+        if (index < 0 || index >= producers.size()) {
+            throw new IndexOutOfBoundsException("Invalid producer index: " + index);
+        }
+        return producers.get(index);
+    }
+
+    public RawMaterialProducer findProducerByID(long producerID) {
+        return producers.findByID(producerID);
+    }
 }
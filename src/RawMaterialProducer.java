@@ -2,8 +2,7 @@ import java.util.HashMap;
 
 public class RawMaterialProducer implements Customer {
     private String producerName;
-    private final String producerID;
-    private static int nextID = 0;
+    private final long id;
     private double balance;
     private double storageCapacity;
 
@@ -11,6 +10,8 @@ public class RawMaterialProducer implements Customer {
     private double currentStockOfMaterial;
     private double sellingPrice;
 
+    private final EntityLock lock = new EntityLock();
+
     /**
      * Constructs a RawMaterialProducer.
      *
@@ -37,7 +38,7 @@ public class RawMaterialProducer implements Customer {
         }
 
         this.producerName = producerName;
-        this.producerID = "RMP_" + nextID++;
+        this.id = IdAllocator.ENTITIES.next();
         this.balance = initialBalance;
         this.storageCapacity = storageCapacity;
         this.materialProduced = materialProduced;
@@ -45,6 +46,22 @@ public class RawMaterialProducer implements Customer {
         this.currentStockOfMaterial = 0.0; // Producers typically start with 0 stock
     }
 
+    /**
+     * Recreates a producer under an ID it had before, with its stock, when loading a snapshot or
+     * replaying the journal. Producers created afterwards get higher IDs.
+     */
+    RawMaterialProducer(long id, String producerName, double balance, double storageCapacity,
+                        RawMaterial materialProduced, double sellingPrice, double stock) {
+        this.producerName = producerName;
+        this.id = id;
+        this.balance = balance;
+        this.storageCapacity = storageCapacity;
+        this.materialProduced = materialProduced;
+        this.sellingPrice = sellingPrice;
+        this.currentStockOfMaterial = stock;
+        IdAllocator.ENTITIES.reserve(id);
+    }
+
     @Override
     public String getName() {
         return this.producerName;
@@ -79,21 +96,46 @@ public class RawMaterialProducer implements Customer {
 
     @Override
     public String getCustomerID() {
-        return this.producerID;
+        return getProducerID();
+    }
+
+    @Override
+    public EntityLock getLock() {
+        return this.lock;
     }
 
     // --- RawMaterialProducer specific methods ---
 
+    public long getID() {
+        return id;
+    }
+
+    /**
+     * The ID as shown to users.
+     */
     public String getProducerID() {
-        return producerID;
+        return "RMP_" + id;
     }
 
     public void setProducerName(String producerName) {
-        this.producerName = producerName;
+        lock.lock();
+        try {
+            this.producerName = producerName;
+            TradeJournal.recordRename(this, producerName);
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void setBalance(double balance) { // e.g., for admin adjustments
-        this.balance = balance;
+        lock.lock();
+        try {
+            this.balance = balance;
+            ChangeEvents.balanceChanged(this, balance);
+            TradeJournal.recordFieldSet(this, TradeJournal.FIELD_BALANCE, balance);
+        } finally {
+            lock.unlock();
+        }
     }
 
     public double getStorageCapacity() {
@@ -109,7 +151,13 @@ public class RawMaterialProducer implements Customer {
                     ") is less than current stock (" + this.currentStockOfMaterial +
                     "). Stock remains, but no new production possible until space clears or capacity increases.");
         }
-        this.storageCapacity = storageCapacity;
+        lock.lock();
+        try {
+            this.storageCapacity = storageCapacity;
+            TradeJournal.recordFieldSet(this, TradeJournal.FIELD_CAPACITY, storageCapacity);
+        } finally {
+            lock.unlock();
+        }
     }
 
     public RawMaterial getMaterialProduced() {
@@ -124,7 +172,30 @@ public class RawMaterialProducer implements Customer {
         if (sellingPrice < 0) {
             throw new IllegalArgumentException("Selling price cannot be negative.");
         }
-        this.sellingPrice = sellingPrice;
+        lock.lock();
+        try {
+            this.sellingPrice = sellingPrice;
+            TradeJournal.recordFieldSet(this, TradeJournal.FIELD_SELLING_PRICE, sellingPrice);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the production cost of the material this producer makes.
+     * Use this instead of changing the RawMaterial directly so the change is journaled.
+     */
+    public void setMaterialCost(double cost) {
+        if (cost < 0) {
+            throw new IllegalArgumentException("Production cost cannot be negative.");
+        }
+        lock.lock();
+        try {
+            this.materialProduced.setProductionCost(cost);
+            TradeJournal.recordFieldSet(this, TradeJournal.FIELD_MATERIAL_COST, cost);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -136,29 +207,67 @@ public class RawMaterialProducer implements Customer {
      * @throws IllegalStateException if there are insufficient funds for production,
      */
     public void produce(double amountToProduce) {
-        if (amountToProduce <= 0) {
-            throw new IllegalArgumentException("Amount to produce must be positive. Attempted: " + amountToProduce);
-        }
+        produce(amountToProduce, true);
+    }
 
-        double costPerUnit = this.materialProduced.getProductionCost();
-        double totalProductionCost = amountToProduce * costPerUnit;
+    /**
+     * Same as {@link #produce(double)}, but production this producer cannot pay for or store is
+     * reported as NO_FUNDS or NO_CAPACITY instead of thrown.
+     *
+     * @throws IllegalArgumentException if amountToProduce is not positive.
+     */
+    public TradeResult tryProduce(double amountToProduce) {
+        return produce(amountToProduce, false);
+    }
 
-        if (this.balance < totalProductionCost) {
-            throw new IllegalStateException("Insufficient funds for " + producerName + " to produce " + amountToProduce +
-                    " of " + this.materialProduced.getName() +
-                    ". Required: " + totalProductionCost + ", Available: " + this.balance);
-        }
+    private TradeResult produce(double amountToProduce, boolean throwOnReject) {
+        long start = TradeMetrics.start();
+        lock.lock();
+        try {
+            if (amountToProduce <= 0) {
+                throw new IllegalArgumentException("Amount to produce must be positive. Attempted: " + amountToProduce);
+            }
 
-        if ((this.currentStockOfMaterial + amountToProduce) > this.storageCapacity) {
-            double availableSpace = this.storageCapacity - this.currentStockOfMaterial;
-            throw new IllegalStateException("Insufficient storage capacity for " + producerName + " to produce " + amountToProduce +
-                    " of " + this.materialProduced.getName() +
-                    ". Available space: " + availableSpace + ", Needed for this batch: " + amountToProduce);
-        }
+            double costPerUnit = this.materialProduced.getProductionCost();
+            double totalProductionCost = amountToProduce * costPerUnit;
+
+            if (this.balance < totalProductionCost) {
+                if (throwOnReject) {
+                    throw new TradeRejectedException(TradeResult.NO_FUNDS, "Insufficient funds for " + producerName + " to produce " + amountToProduce +
+                            " of " + this.materialProduced.getName() +
+                            ". Required: " + totalProductionCost + ", Available: " + this.balance);
+                }
+                return rejected(TradeMetrics.Operation.PRODUCER_PRODUCE, start, TradeResult.NO_FUNDS);
+            }
 
-        this.balance -= totalProductionCost;
-        this.currentStockOfMaterial += amountToProduce;
-        // System.out.println(this.producerName + " produced " + amountToProduce + " of " + this.materialProduced.getName());
+            if ((this.currentStockOfMaterial + amountToProduce) > this.storageCapacity) {
+                if (throwOnReject) {
+                    double availableSpace = this.storageCapacity - this.currentStockOfMaterial;
+                    throw new TradeRejectedException(TradeResult.NO_CAPACITY, "Insufficient storage capacity for " + producerName + " to produce " + amountToProduce +
+                            " of " + this.materialProduced.getName() +
+                            ". Available space: " + availableSpace + ", Needed for this batch: " + amountToProduce);
+                }
+                return rejected(TradeMetrics.Operation.PRODUCER_PRODUCE, start, TradeResult.NO_CAPACITY);
+            }
+
+            this.balance -= totalProductionCost;
+            this.currentStockOfMaterial += amountToProduce;
+            ChangeEvents.balanceChanged(this, balance);
+            ChangeEvents.inventoryChanged(this, materialProduced.getCatalogIndex(), currentStockOfMaterial);
+            if (lock.isOutermost()) {
+                TradeJournal.recordProducerProduce(this, amountToProduce);
+                TradeMetrics.succeeded(TradeMetrics.Operation.PRODUCER_PRODUCE, start);
+            }
+            // System.out.println(this.producerName + " produced " + amountToProduce + " of " + this.materialProduced.getName());
+            return TradeResult.OK;
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.PRODUCER_PRODUCE, start, ex);
+            }
+            throw ex;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -172,26 +281,47 @@ public class RawMaterialProducer implements Customer {
      * @throws IllegalStateException if there is insufficient stock to meet the sale.
      */
     public double sell(double amountToSell) {
-        if (amountToSell <= 0) {
-            throw new IllegalArgumentException("Amount to sell must be positive. Attempted: " + amountToSell);
-        }
-        if (this.currentStockOfMaterial < amountToSell) {
-            throw new IllegalStateException("Insufficient stock for " + producerName + " to sell " + amountToSell +
-                    " of " + this.materialProduced.getName() +
-                    ". Available: " + this.currentStockOfMaterial + ", Requested: " + amountToSell);
+        long start = TradeMetrics.start();
+        lock.lock();
+        try {
+            if (amountToSell <= 0) {
+                throw new IllegalArgumentException("Amount to sell must be positive. Attempted: " + amountToSell);
+            }
+            if (this.currentStockOfMaterial < amountToSell) {
+                throw new TradeRejectedException(TradeResult.NO_STOCK, "Insufficient stock for " + producerName + " to sell " + amountToSell +
+                        " of " + this.materialProduced.getName() +
+                        ". Available: " + this.currentStockOfMaterial + ", Requested: " + amountToSell);
+            }
+
+            this.currentStockOfMaterial -= amountToSell;
+            double revenue = amountToSell * this.sellingPrice;
+            this.balance += revenue;
+            ChangeEvents.balanceChanged(this, balance);
+            ChangeEvents.inventoryChanged(this, materialProduced.getCatalogIndex(), currentStockOfMaterial);
+            if (lock.isOutermost()) {
+                TradeJournal.recordProducerSale(this, amountToSell);
+                TradeMetrics.succeeded(TradeMetrics.Operation.PRODUCER_SELL, start);
+            }
+            // System.out.println(this.producerName + " sold " + amountToSell + " of " + this.materialProduced.getName() + " for " + revenue);
+            return revenue;
+        } catch (RuntimeException ex) {
+            if (lock.isOutermost()) {
+                TradeMetrics.failed(TradeMetrics.Operation.PRODUCER_SELL, start, ex);
+            }
+            throw ex;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        this.currentStockOfMaterial -= amountToSell;
-        double revenue = amountToSell * this.sellingPrice;
-        this.balance += revenue;
-        // System.out.println(this.producerName + " sold " + amountToSell + " of " + this.materialProduced.getName() + " for " + revenue);
-        return revenue;
+    private TradeResult rejected(TradeMetrics.Operation operation, long start, TradeResult result) {
+        return lock.isOutermost() ? TradeMetrics.rejected(operation, start, result) : result;
     }
 
     @Override
     public String toString() {
         return "RawMaterialProducer {" +
-                "ID='" + producerID + '\'' +
+                "ID='" + getProducerID() + '\'' +
                 ", Name='" + producerName + '\'' +
                 ", Balance=" + String.format("%.2f", balance) +
                 ", Produces='" + materialProduced.getName() + '\'' +
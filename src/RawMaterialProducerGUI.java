@@ -4,16 +4,19 @@ import java.awt.*;
 import java.awt.event.*;
 
 public class RawMaterialProducerGUI extends MyWindow {
-    DefaultListModel<String> producerListModel;
-    JList<String> producerList;
-    java.util.List<RawMaterialProducer> producers;
+    EntityTableModel<RawMaterialProducer> producerTableModel;
+    EntityTable<RawMaterialProducer> producerTable;
 
-    private static java.util.List<RawMaterialProducer> allProducers = new java.util.ArrayList<>();
+    private static RawMaterialController producerController = new RawMaterialController();
     private static boolean initialized = false;
 
     public static java.util.List<RawMaterialProducer> getAllProducers() {
 
-        return allProducers;
+        return producerController.getProducers();
+    }
+
+    public static RawMaterialController getProducerController() {
+        return producerController;
     }
 
     public RawMaterialProducerGUI() {
@@ -25,18 +28,36 @@ public class RawMaterialProducerGUI extends MyWindow {
         JLabel titleLabel = new JLabel("Raw Material Producers");
         titleLabel.setFont(new Font("Arial", Font.BOLD, 13));
         topPanel.add(titleLabel, BorderLayout.WEST);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 0));
+        filterPanel.add(new JLabel("Filter:"));
+        JTextField filterField = new JTextField(10);
+        filterPanel.add(filterField);
+        topPanel.add(filterPanel, BorderLayout.CENTER);
         JButton backButton = new JButton("Back");
         backButton.addActionListener(e -> dispose());
         topPanel.add(backButton, BorderLayout.EAST);
         add(topPanel, BorderLayout.NORTH);
 
-        // List of producers
-        producerListModel = new DefaultListModel<>();
-        producerList = new JList<>(producerListModel);
-        JScrollPane scrollPane = new JScrollPane(producerList);
-        scrollPane.setPreferredSize(new Dimension(350, 200));
+        // Table of producers
+        producerTableModel = new EntityTableModel<>(getAllProducers())
+                .addColumn("Name", String.class, RawMaterialProducer::getName)
+                .addColumn("ID", Long.class, RawMaterialProducer::getID)
+                .addColumn("Balance", Double.class, RawMaterialProducer::getBalance)
+                .addColumn("Stock", Double.class, RawMaterialProducer::getStock)
+                .addColumn("Capacity", Double.class, RawMaterialProducer::getStorageCapacity);
+        producerTable = new EntityTable<>(producerTableModel, filterField);
+        JScrollPane scrollPane = new JScrollPane(producerTable);
+        scrollPane.setPreferredSize(new Dimension(450, 200));
         add(scrollPane, BorderLayout.CENTER);
 
+        SwingTasks.addTable(producerTableModel);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                SwingTasks.removeTable(producerTableModel);
+            }
+        });
+
         JPanel bottomPanel = new JPanel();
         bottomPanel.setLayout(new FlowLayout(FlowLayout.CENTER, 10, 10));
         JButton addButton = new JButton("Add New Producer");
@@ -45,16 +66,15 @@ public class RawMaterialProducerGUI extends MyWindow {
         bottomPanel.add(editButton);
         add(bottomPanel, BorderLayout.SOUTH);
 
-        producers = getAllProducers();
-        refreshProducerList();
-
         // Double-click to open detail page
-        producerList.addMouseListener(new MouseAdapter() {
+        producerTable.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent evt) {
                 if (evt.getClickCount() == 2) {
-                    int index = producerList.locationToIndex(evt.getPoint());
-                    if (index >= 0 && index < producers.size()) {
-                        new ProducerDetailPage(producers.get(index));
+                    int row = producerTable.modelRowAt(producerTable.rowAtPoint(evt.getPoint()));
+                    RawMaterialProducer producer = producerTableModel.getEntity(row);
+                    if (producer != null) {
+                        new ProducerDetailPage(producer);
+                        producerTableModel.entityChanged(row);
                     }
                 }
             }
@@ -62,39 +82,23 @@ public class RawMaterialProducerGUI extends MyWindow {
 
         addButton.addActionListener(e -> {
             new AddProducerDialog(RawMaterialProducerGUI.this);
-            refreshProducerList();
+            producerTableModel.entitiesAppended();
         });
 
         editButton.addActionListener(e -> {
-            int selectedIndex = producerList.getSelectedIndex();
-            if (selectedIndex == -1) {
+            int selectedRow = producerTable.getSelectedModelRow();
+            if (selectedRow == -1) {
                 JOptionPane.showMessageDialog(this, "Please select a producer to edit.", "No Selection", JOptionPane.WARNING_MESSAGE);
                 return;
             }
-            new EditProducerDialog(RawMaterialProducerGUI.this, producers.get(selectedIndex));
-            refreshProducerList();
+            new EditProducerDialog(RawMaterialProducerGUI.this, producerTableModel.getEntity(selectedRow));
+            producerTableModel.entityChanged(selectedRow);
         });
 
         pack();
         setLocationRelativeTo(null);
         setVisible(true);
     }
-
-    // Helper method to update the producer list display
-    void refreshProducerList() {
-        producerListModel.clear();
-        java.util.Map<String, Integer> nameCount = new java.util.HashMap<>();
-        for (RawMaterialProducer p : producers) {
-            nameCount.put(p.getName(), nameCount.getOrDefault(p.getName(), 0) + 1);
-        }
-        for (RawMaterialProducer p : producers) {
-            String display = p.getName();
-            if (nameCount.get(p.getName()) > 1) {
-                display += " (" + p.getProducerID() + ")";
-            }
-            producerListModel.addElement(display);
-        }
-    }
 }
 
 // Inner class for the individual producer detail page
@@ -138,14 +142,13 @@ class ProducerDetailPage extends JDialog {
         produceButton.addActionListener(e -> {
             try {
                 double amount = Double.parseDouble(amountField.getText());
-                producer.produce(amount);
-                fundValueLabel.setText(String.valueOf(producer.getBalance()));
-                stockValueLabel.setText(String.valueOf(producer.getStock()));
-                JOptionPane.showMessageDialog(this, "Produced successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                SwingTasks.run(produceButton, "Error", () -> producer.produce(amount), () -> {
+                    fundValueLabel.setText(String.valueOf(producer.getBalance()));
+                    stockValueLabel.setText(String.valueOf(producer.getStock()));
+                    JOptionPane.showMessageDialog(this, "Produced successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                });
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter a valid number.", "Error", JOptionPane.ERROR_MESSAGE);
-            } catch (IllegalStateException | IllegalArgumentException ex) {
-                JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         });
 
@@ -195,8 +198,7 @@ class AddProducerDialog extends JDialog {
                 RawMaterial mat = new RawMaterial(name);
                 mat.setProductionCost(cost);
                 RawMaterialProducer newProducer = new RawMaterialProducer(name, fund, capacity, mat, price);
-                parent.producers.add(newProducer);
-                parent.refreshProducerList();
+                RawMaterialProducerGUI.getProducerController().addProducer(newProducer);
                 dispose();
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter valid numbers for cost, price, capacity, and fund.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -250,11 +252,10 @@ class EditProducerDialog extends JDialog {
                 if (name.isEmpty()) throw new IllegalArgumentException("Name cannot be empty.");
                 if (fund < 0) throw new IllegalArgumentException("Initial fund cannot be negative.");
                 producer.setProducerName(name);
-                producer.getMaterialProduced().setProductionCost(cost);
+                producer.setMaterialCost(cost);
                 producer.setSellingPrice(price);
                 producer.setStorageCapacity(capacity);
                 producer.setBalance(fund);
-                parent.refreshProducerList();
                 dispose();
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Please enter valid numbers for cost, price, capacity, and fund.", "Error", JOptionPane.ERROR_MESSAGE);
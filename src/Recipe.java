@@ -0,0 +1,149 @@
+import java.util.Map;
+
+/**
+ * Immutable, compiled form of a {@link ProductDesign}, used by {@link Factory} when producing.
+ * The inputs are kept as parallel arrays of {@link ItemCatalog} indexes and per-unit amounts,
+ * so checking and consuming them is a plain loop over arrays with no map lookups or boxing.
+ * Get one with {@link ProductDesign#compile()}; changing the design afterwards compiles a new recipe.
+ * <p>
+ * An input can be a raw material, a product or a byproduct, so one design's product can feed
+ * another. Each input remembers which of the factory's stocks it is taken from; the stock methods
+ * take the factory's stocks as an array indexed by {@link #FROM_RAW_MATERIALS}, {@link #FROM_PRODUCTS}
+ * and {@link #FROM_BYPRODUCTS}.
+ */
+public final class Recipe {
+    public static final int FROM_RAW_MATERIALS = 0;
+    public static final int FROM_PRODUCTS = 1;
+    public static final int FROM_BYPRODUCTS = 2;
+
+    private final Product product;
+    private final int productItem;
+    private final int byproductItem;
+    private final double byproductPerUnit;
+    private final double productionCost;
+    private final int[] inputItems;
+    private final double[] inputPerUnit;
+    private final byte[] inputStock;
+    private final boolean consumesProducts;
+
+    Recipe(ProductDesign design) {
+        if (design.getProduct() == null) {
+            throw new IllegalArgumentException("Design has no product.");
+        }
+        this.product = design.getProduct();
+        this.productItem = product.getCatalogIndex();
+        boolean hasByproduct = design.getByproduct() != null && design.getByproductAmount() > 0;
+        this.byproductItem = hasByproduct ? design.getByproduct().getCatalogIndex() : -1;
+        this.byproductPerUnit = hasByproduct ? design.getByproductAmount() : 0;
+        this.productionCost = design.getProductionCost();
+        Map<InventoryItem, Double> inputs = design.getinputRequirements();
+        this.inputItems = new int[inputs.size()];
+        this.inputPerUnit = new double[inputs.size()];
+        this.inputStock = new byte[inputs.size()];
+        boolean anyProduct = false;
+        int i = 0;
+        for (Map.Entry<InventoryItem, Double> input : inputs.entrySet()) {
+            inputItems[i] = input.getKey().getCatalogIndex();
+            inputPerUnit[i] = input.getValue();
+            inputStock[i] = (byte) stockOf(input.getKey());
+            anyProduct |= inputStock[i] == FROM_PRODUCTS;
+            i++;
+        }
+        this.consumesProducts = anyProduct;
+    }
+
+    private static int stockOf(InventoryItem item) {
+        if (item instanceof Product) {
+            return FROM_PRODUCTS;
+        }
+        if (item instanceof ByProduct) {
+            return FROM_BYPRODUCTS;
+        }
+        return FROM_RAW_MATERIALS;
+    }
+
+    public Product getProduct() { return product; }
+    public int getProductItem() { return productItem; }
+    public double getProductionCost() { return productionCost; }
+    public int getInputCount() { return inputItems.length; }
+    public int getInputItem(int input) { return inputItems[input]; }
+    public double getInputPerUnit(int input) { return inputPerUnit[input]; }
+    public int getInputStock(int input) { return inputStock[input]; }
+
+    /**
+     * True if some input is another product, which the factory then has less of after producing.
+     */
+    public boolean consumesProducts() {
+        return consumesProducts;
+    }
+
+    public boolean hasByproduct() {
+        return byproductItem >= 0;
+    }
+
+    public int getByproductItem() {
+        return byproductItem;
+    }
+
+    /**
+     * Units of byproduct made along with amount units of product.
+     */
+    public int byproductUnits(int amount) {
+        return byproductItem >= 0 ? (int) (byproductPerUnit * amount) : 0;
+    }
+
+    /**
+     * Returns the position of the first input the stocks do not have enough of for amount units,
+     * or -1 if they have enough of all of them.
+     */
+    int firstShortInput(ItemStock[] stocks, int amount) {
+        for (int i = 0; i < inputItems.length; i++) {
+            if (stocks[inputStock[i]].get(inputItems[i]) < inputPerUnit[i] * amount) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    boolean canProduce(ItemStock[] stocks, int amount) {
+        return firstShortInput(stocks, amount) < 0;
+    }
+
+    /**
+     * The largest amount the stocks have enough inputs for. Integer.MAX_VALUE if the recipe needs nothing.
+     */
+    int maxProducible(ItemStock[] stocks) {
+        double max = Integer.MAX_VALUE;
+        for (int i = 0; i < inputItems.length; i++) {
+            if (inputPerUnit[i] > 0) {
+                max = Math.min(max, stocks[inputStock[i]].get(inputItems[i]) / inputPerUnit[i]);
+            }
+        }
+        return (int) max;
+    }
+
+    /**
+     * Removes the inputs for amount units from the stocks.
+     * @return the number of units removed.
+     */
+    int consume(ItemStock[] stocks, int amount) {
+        int removed = 0;
+        for (int i = 0; i < inputItems.length; i++) {
+            int units = (int) (inputPerUnit[i] * amount);
+            stocks[inputStock[i]].add(inputItems[i], -units);
+            removed += units;
+        }
+        return removed;
+    }
+
+    /**
+     * Number of input units consumed by amount units, without changing anything.
+     */
+    int consumedUnits(int amount) {
+        int units = 0;
+        for (int i = 0; i < inputItems.length; i++) {
+            units += (int) (inputPerUnit[i] * amount);
+        }
+        return units;
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.PriorityQueue;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless, tick-driven simulation of the whole supply chain.
+ * Events are kept in a priority queue ordered by tick; events scheduled for the same tick
+ * run in the order they were scheduled, so a run is repeatable.
+ * Every event calls the same domain operations the GUIs call, without any Swing code.
+ * A rejected operation (not enough funds, stock or storage) is counted instead of
+ * stopping the run, because in a load test most attempted trades can fail. The domain operations
+ * below use the try... methods, which report a rejection as a {@link TradeResult} without
+ * building an exception; an IllegalStateException thrown by any other action counts as well.
+ */
+public class Simulation {
+    /**
+     * A scheduled operation that reports whether it went through.
+     */
+    public interface Attempt {
+        TradeResult attempt();
+    }
+
+    private final PriorityQueue<SimulationEvent> events = new PriorityQueue<>();
+    private long currentTick;
+    private long nextSequence;
+    private long executedEvents;
+    private long rejectedEvents;
+
+    public long getCurrentTick() { return currentTick; }
+    public int getPendingEvents() { return events.size(); }
+    public long getExecutedEvents() { return executedEvents; }
+    public long getRejectedEvents() { return rejectedEvents; }
+
+    /**
+     * Schedules an action to run a number of ticks after the current tick.
+     * @param delay Ticks from now. 0 means later in the current tick.
+     * @param action The action to run.
+     * @throws IllegalArgumentException if delay is negative or action is null.
+     */
+    public void schedule(long delay, Runnable action) {
+        if (action == null) {
+            throw new IllegalArgumentException("Action cannot be null.");
+        }
+        scheduleAttempt(delay, () -> {
+            action.run();
+            return TradeResult.OK;
+        });
+    }
+
+    /**
+     * Schedules an operation whose result decides whether it counts as executed or rejected.
+     */
+    public void scheduleAttempt(long delay, Attempt attempt) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay cannot be negative.");
+        }
+        if (attempt == null) {
+            throw new IllegalArgumentException("Attempt cannot be null.");
+        }
+        events.add(new SimulationEvent(currentTick + delay, nextSequence++, attempt));
+    }
+
+    /**
+     * Schedules an action to run every period ticks, starting period ticks from now.
+     */
+    public void scheduleEvery(long period, Runnable action) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive.");
+        }
+        schedule(period, new Runnable() {
+            @Override
+            public void run() {
+                schedule(period, this);
+                action.run();
+            }
+        });
+    }
+
+    // --- Domain operations ---
+
+    public void scheduleProduce(long delay, RawMaterialProducer producer, double amount) {
+        scheduleAttempt(delay, () -> producer.tryProduce(amount));
+    }
+
+    /**
+     * Schedules a factory buying raw material from a producer, the same steps the Buy button in FactoryGUI does.
+     */
+    public void scheduleRawMaterialPurchase(long delay, Factory factory, RawMaterialProducer producer, int amount) {
+        scheduleAttempt(delay, () -> factory.tryBuyRawMaterial(producer, amount));
+    }
+
+    public void scheduleProduction(long delay, Factory factory, ProductDesign design, int amount) {
+        scheduleAttempt(delay, () -> factory.tryProduceProduct(design, amount));
+    }
+
+    public void scheduleProductionBatch(long delay, Factory factory, List<ProductionOrder> orders) {
+        scheduleAttempt(delay, () -> factory.tryProduceBatch(orders));
+    }
+
+    /**
+     * Advances the factory's production lines (see {@link Factory#runProduction(long)}) at every tick
+     * from the next one on.
+     */
+    public void scheduleProductionLines(Factory factory) {
+        scheduleEvery(1, () -> factory.runProduction(currentTick));
+    }
+
+    /**
+     * Schedules planning for a demand and carrying the plan out in the same event, so nothing
+     * changes the world between the two.
+     */
+    public void scheduleMaterialPlan(long delay, MaterialPlanner planner, Map<Market, Map<Product, Integer>> demand) {
+        schedule(delay, () -> planner.plan(demand).execute());
+    }
+
+    public void scheduleMarketPurchase(long delay, Market buyer, Product product, int amount, double pricePerUnit, Customer seller) {
+        scheduleAttempt(delay, () -> buyer.tryBuyProduct(product, amount, pricePerUnit, seller));
+    }
+
+    public void scheduleCustomerPurchase(long delay, Customers customer, Product product, int quantity, Market seller) {
+        scheduleAttempt(delay, () -> customer.tryBuyProductFromMarket(product, quantity, seller));
+    }
+
+    // --- Running ---
+
+    /**
+     * Runs every event of the next tick that has events.
+     * @return false if there were no events left to run.
+     */
+    public boolean step() {
+        SimulationEvent next = events.peek();
+        if (next == null) {
+            return false;
+        }
+        currentTick = next.tick;
+        while (next != null && next.tick == currentTick) {
+            events.poll();
+            execute(next);
+            next = events.peek();
+        }
+        return true;
+    }
+
+    /**
+     * Runs all events up to and including the given tick, then moves the clock to that tick.
+     */
+    public void runUntil(long tick) {
+        while (!events.isEmpty() && events.peek().tick <= tick) {
+            step();
+        }
+        if (tick > currentTick) {
+            currentTick = tick;
+        }
+    }
+
+    /**
+     * Runs until the event queue is empty. Never returns if a repeating event was scheduled.
+     */
+    public void run() {
+        while (step()) {
+            // keep stepping
+        }
+    }
+
+    private void execute(SimulationEvent event) {
+        try {
+            if (event.attempt.attempt().isOk()) {
+                executedEvents++;
+            } else {
+                rejectedEvents++;
+            }
+        } catch (IllegalStateException ex) {
+            rejectedEvents++;
+        }
+    }
+
+    private static final class SimulationEvent implements Comparable<SimulationEvent> {
+        final long tick;
+        final long sequence;
+        final Attempt attempt;
+
+        SimulationEvent(long tick, long sequence, Attempt attempt) {
+            this.tick = tick;
+            this.sequence = sequence;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public int compareTo(SimulationEvent other) {
+            if (tick != other.tick) {
+                return Long.compare(tick, other.tick);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import javax.swing.JComponent;
+import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs the GUIs' domain operations off the Swing event thread and batches the screen refreshes
+ * they cause.
+ * <p>
+ * {@link #call} and {@link #run} do the work on a background thread and come back on the event
+ * thread with the result, or show the error. The domain classes lock their own state, so the work
+ * needs no extra synchronization. The button that started an operation is disabled until it
+ * finishes, so a double click cannot trade twice.
+ * <p>
+ * Open list windows register their table models, which are told about the changes the domain
+ * reports through {@link ChangeEvents}, entity by entity, at the end of the frame the changes
+ * arrived in. Several changes to one entity within a frame reach the tables as one, and each table
+ * then updates only the rows of the entities that changed.
+ */
+public final class SwingTasks {
+    static final int FRAME_MILLIS = 16;
+
+    private static final List<EntityTableModel<?>> tables = new CopyOnWriteArrayList<>();
+    private static final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    private static final ChangeEvents.Listener queueOnChange = SwingTasks::queueChange;
+    private static final Timer frameTimer = new Timer(FRAME_MILLIS, e -> deliverChanges());
+
+    // The changes of the current frame, guarded by the lock on pending:
+    private static final List<Change> pending = new ArrayList<>();
+    private static final Set<Customer> pendingUpdates = Collections.newSetFromMap(new IdentityHashMap<>()); // entities with a value change in pending
+
+    /**
+     * A change of one entity, or a RESYNC with no entity.
+     */
+    private static final class Change {
+        final Customer entity;
+        final byte type;
+
+        Change(Customer entity, byte type) {
+            this.entity = entity;
+            this.type = type;
+        }
+    }
+
+    static {
+        frameTimer.setRepeats(false);
+    }
+
+    private SwingTasks() {
+    }
+
+    /**
+     * Runs work in the background, then hands its result to done on the event thread.
+     * IllegalArgumentException and IllegalStateException are shown with their message under errorTitle.
+     */
+    public static <T> void call(JComponent trigger, String errorTitle, Callable<T> work, Consumer<? super T> done) {
+        trigger.setEnabled(false);
+        new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                return work.call();
+            }
+
+            @Override
+            protected void done() {
+                trigger.setEnabled(true);
+                T result;
+                try {
+                    result = get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    String message = cause instanceof IllegalArgumentException || cause instanceof IllegalStateException
+                            ? cause.getMessage() : "Unexpected error: " + cause;
+                    JOptionPane.showMessageDialog(trigger, message, errorTitle, JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                done.accept(result);
+            }
+        }.execute();
+    }
+
+    /**
+     * Runs work in the background, then runs done on the event thread, as {@link #call} does.
+     */
+    public static void run(JComponent trigger, String errorTitle, Runnable work, Runnable done) {
+        call(trigger, errorTitle, () -> {
+            work.run();
+            return null;
+        }, result -> done.run());
+    }
+
+    /**
+     * Registers a table model to be told, on the event thread, about the changes to the domain;
+     * see {@link EntityTableModel#apply}.
+     */
+    public static synchronized void addTable(EntityTableModel<?> table) {
+        if (tables.isEmpty()) {
+            ChangeEvents.addListener(queueOnChange);
+        }
+        tables.add(table);
+    }
+
+    public static synchronized void removeTable(EntityTableModel<?> table) {
+        if (tables.remove(table) && tables.isEmpty()) {
+            ChangeEvents.removeListener(queueOnChange);
+        }
+    }
+
+    /**
+     * Runs on the delivery thread. Keeps the entity and type, as the event is reused, and asks for
+     * the frame's changes to be delivered at its end.
+     */
+    private static void queueChange(ChangeEvents.Event event) {
+        byte type = event.getType();
+        Customer entity = event.getEntity();
+        synchronized (pending) {
+            boolean valueChange = type == ChangeEvents.BALANCE_CHANGED || type == ChangeEvents.INVENTORY_CHANGED
+                    || type == ChangeEvents.PRICE_CHANGED;
+            if (!valueChange || pendingUpdates.add(entity)) {
+                pending.add(new Change(entity, type));
+            }
+        }
+        if (refreshScheduled.compareAndSet(false, true)) {
+            frameTimer.start();
+        }
+    }
+
+    private static void deliverChanges() {
+        refreshScheduled.set(false);
+        Change[] changes;
+        synchronized (pending) {
+            changes = pending.toArray(new Change[0]);
+            pending.clear();
+            pendingUpdates.clear();
+        }
+        for (EntityTableModel<?> table : tables) {
+            for (Change change : changes) {
+                table.apply(change.entity, change.type);
+            }
+            table.flushChanges();
+        }
+    }
+}
@@ -0,0 +1,966 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead journal of every change made to the world.
+ * <p>
+ * The domain classes call the static record methods after a change succeeds, while they still
+ * hold the entity locks, so the journal order matches the order the changes were applied in.
+ * Only the outermost operation is recorded (see {@link EntityLock#isOutermost()}): a customer
+ * purchase is one record, not one for the customer and one for the market.
+ * When no journal is open the record methods return after a single volatile read.
+ * <p>
+ * Records are encoded into an in-memory buffer. A background thread writes the buffer through
+ * a {@link FileChannel} and forces it to disk, and all records that arrived during that write
+ * go out together in the next batch (group commit), so there is no fsync per trade.
+ * <p>
+ * The file starts with {@code [int magic][int version]}, followed by the records:
+ * {@code [int length][int crc32c][long sequence][byte type][fields...]}, where length and crc
+ * cover everything after the crc. Entities are referred to by {@link Customer#getID()}. Strings
+ * are an int byte count followed by UTF-8 bytes. At startup {@link #open} replays the file to rebuild the world; a torn record
+ * at the end (from a crash in the middle of a write) is cut off.
+ */
+public class TradeJournal implements Closeable {
+    // Record types
+    static final byte CREATE_FACTORY = 1;
+    static final byte CREATE_MARKET = 2;
+    static final byte CREATE_CUSTOMER = 3;
+    static final byte CREATE_PRODUCER = 4;
+    static final byte DELETE_CUSTOMER = 5;
+    static final byte RENAME = 6;
+    static final byte SET_FIELD = 7;
+    static final byte ADD_DESIGN = 8;
+    static final byte FACTORY_ADD_STOCK = 9;
+    static final byte FACTORY_BUY = 10;
+    static final byte FACTORY_BUY_RAW_MATERIAL = 11;
+    static final byte FACTORY_PRODUCE = 12;
+    static final byte FACTORY_DESTROY_BYPRODUCT = 13;
+    static final byte FACTORY_SELL = 14;
+    static final byte PRODUCER_PRODUCE = 15;
+    static final byte PRODUCER_SELL = 16;
+    static final byte MARKET_ADD_PRODUCT = 17;
+    static final byte MARKET_SET_PRICE = 18;
+    static final byte MARKET_BUY = 19;
+    static final byte MARKET_SELL = 20;
+    static final byte MARKET_SELL_TO_CUSTOMER = 21;
+    static final byte CUSTOMER_ADD_TO_INVENTORY = 22;
+    static final byte CUSTOMER_BUY = 23;
+    static final byte FACTORY_PRODUCE_BATCH = 24;
+    static final byte FACTORY_START_PRODUCTION = 25;
+    static final byte FACTORY_FINISH_PRODUCTION = 26;
+
+    // Fields for SET_FIELD
+    static final byte FIELD_BALANCE = 1;
+    static final byte FIELD_CAPACITY = 2;
+    static final byte FIELD_SELLING_PRICE = 3;
+    static final byte FIELD_MATERIAL_COST = 4;
+
+    // Stock kinds for FACTORY_ADD_STOCK and design inputs
+    static final byte KIND_PRODUCT = 0;
+    static final byte KIND_BYPRODUCT = 1;
+    static final byte KIND_RAW_MATERIAL = 2;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int FILE_MAGIC = 0x534A524E; // "SJRN"
+    private static final int FILE_VERSION = 2; // 2: entity references are numeric IDs
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int INITIAL_BUFFER_BYTES = 1 << 16;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static volatile TradeJournal active;
+
+    private final FileChannel channel;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition dataReady = appendLock.newCondition();
+    private final Condition flushed = appendLock.newCondition();
+    private final Thread flusher;
+    private final CRC32C crc = new CRC32C();
+
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private int recordStart;
+    private long lastSequence;
+    private long durableSequence;
+    private boolean closed;
+    private IOException failure;
+
+    private TradeJournal(FileChannel channel, long lastSequence) {
+        this.channel = channel;
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        this.flusher = new Thread(this::flushLoop, "trade-journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Replays the journal at path into the world (if the file exists), then opens it for appending
+     * and makes it the active journal that the domain records into.
+     *
+     * @return the open journal. Close it on shutdown so the last batch reaches the disk.
+     * @throws IllegalStateException if another journal is already active.
+     */
+    public static synchronized TradeJournal open(Path path, World world) throws IOException {
+        return open(path, world, 0);
+    }
+
+    /**
+     * Same as {@link #open(Path, World)}, but only replays records after the given sequence number,
+     * for example when the world was already loaded from a snapshot taken at that point.
+     */
+    public static synchronized TradeJournal open(Path path, World world, long afterSequence) throws IOException {
+        if (active != null) {
+            throw new IllegalStateException("A trade journal is already open.");
+        }
+        long lastSequence = afterSequence;
+        long validLength = 0;
+        if (Files.exists(path)) {
+            Replayer replayer = new Replayer(world);
+            validLength = read(path, afterSequence, replayer);
+            lastSequence = Math.max(afterSequence, replayer.lastSequence);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        if (validLength == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(FILE_MAGIC).putInt(FILE_VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            validLength = FILE_HEADER_BYTES;
+        }
+        channel.position(validLength);
+        TradeJournal journal = new TradeJournal(channel, lastSequence);
+        journal.flusher.start();
+        active = journal;
+        return journal;
+    }
+
+    public static TradeJournal getActive() {
+        return active;
+    }
+
+    public long getLastSequence() {
+        appendLock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every record appended so far has been forced to disk.
+     */
+    public void sync() throws IOException {
+        appendLock.lock();
+        try {
+            long target = lastSequence;
+            dataReady.signal();
+            while (durableSequence < target && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the remaining records, stops the flusher thread and closes the file.
+     * After this the domain no longer records anything.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (TradeJournal.class) {
+            if (active == this) {
+                active = null;
+            }
+        }
+        appendLock.lock();
+        try {
+            closed = true;
+            dataReady.signal();
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // --- Group commit ---
+
+    private void flushLoop() {
+        while (true) {
+            long batchSequence;
+            appendLock.lock();
+            try {
+                while (pending.position() == 0 && !closed) {
+                    dataReady.awaitNanos(FLUSH_INTERVAL_NANOS);
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                batchSequence = lastSequence;
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                appendLock.unlock();
+            }
+
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+            } catch (IOException ex) {
+                appendLock.lock();
+                try {
+                    failure = ex;
+                    flushed.signalAll();
+                } finally {
+                    appendLock.unlock();
+                }
+                System.err.println("Trade journal write failed, journaling stopped: " + ex.getMessage());
+                synchronized (TradeJournal.class) {
+                    if (active == this) {
+                        active = null;
+                    }
+                }
+                return;
+            } finally {
+                writing.clear();
+            }
+
+            appendLock.lock();
+            try {
+                durableSequence = batchSequence;
+                flushed.signalAll();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    // --- Encoding (caller holds appendLock) ---
+
+    private void begin(byte type) {
+        appendLock.lock();
+        ensure(HEADER_BYTES + 9);
+        recordStart = pending.position();
+        pending.position(recordStart + HEADER_BYTES);
+        pending.putLong(++lastSequence);
+        pending.put(type);
+    }
+
+    private void end() {
+        try {
+            int payloadStart = recordStart + HEADER_BYTES;
+            int length = pending.position() - payloadStart;
+            crc.reset();
+            crc.update(pending.array(), payloadStart, length);
+            pending.putInt(recordStart, length);
+            pending.putInt(recordStart + 4, (int) crc.getValue());
+            if (pending.position() >= INITIAL_BUFFER_BYTES / 2) {
+                dataReady.signal();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+    }
+
+    private void putByte(byte value) { ensure(1); pending.put(value); }
+    private void putInt(int value) { ensure(4); pending.putInt(value); }
+    private void putLong(long value) { ensure(8); pending.putLong(value); }
+    private void putDouble(double value) { ensure(8); pending.putDouble(value); }
+
+    private void putString(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        pending.putInt(bytes.length);
+        pending.put(bytes);
+    }
+
+    private void putProduct(Product product) {
+        putString(product.getName());
+        putDouble(product.getProductionCost());
+    }
+
+    private void putDesign(ProductDesign design) {
+        putProduct(design.getProduct());
+        ByProduct byproduct = design.getByproduct();
+        putByte((byte) (byproduct == null ? 0 : 1));
+        if (byproduct != null) {
+            putString(byproduct.getName());
+            putDouble(byproduct.getDisposalCost());
+        }
+        putDouble(design.getByproductAmount());
+        putDouble(design.getProductionCost());
+        putString(design.getRawmaterial() == null ? null : design.getRawmaterial().getName());
+        Map<InventoryItem, Double> inputs = design.getinputRequirements();
+        putInt(inputs.size());
+        for (Map.Entry<InventoryItem, Double> input : inputs.entrySet()) {
+            putByte(kindOf(input.getKey()));
+            putString(input.getKey().getName());
+            putDouble(input.getValue());
+        }
+    }
+
+    // --- Record methods, called by the domain classes ---
+
+    static void recordFactoryCreated(Factory factory) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(CREATE_FACTORY);
+        j.putLong(factory.getID());
+        j.putString(factory.getName());
+        j.putDouble(factory.getBalance());
+        j.putInt(factory.getCapacity());
+        j.end();
+    }
+
+    static void recordMarketCreated(Market market) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(CREATE_MARKET);
+        j.putLong(market.getID());
+        j.putString(market.getName());
+        j.putDouble(market.getBalance());
+        j.end();
+    }
+
+    static void recordCustomerCreated(Customers customer) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(CREATE_CUSTOMER);
+        j.putLong(customer.getID());
+        j.putString(customer.getName());
+        j.putDouble(customer.getBalance());
+        j.end();
+    }
+
+    static void recordProducerCreated(RawMaterialProducer producer) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(CREATE_PRODUCER);
+        j.putLong(producer.getID());
+        j.putString(producer.getName());
+        j.putDouble(producer.getBalance());
+        j.putDouble(producer.getStorageCapacity());
+        j.putString(producer.getMaterialProduced().getName());
+        j.putDouble(producer.getMaterialProduced().getProductionCost());
+        j.putDouble(producer.getSellingPrice());
+        j.end();
+    }
+
+    static void recordCustomerDeleted(long customerID) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(DELETE_CUSTOMER);
+        j.putLong(customerID);
+        j.end();
+    }
+
+    static void recordRename(Customer entity, String newName) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(RENAME);
+        j.putLong(entity.getID());
+        j.putString(newName);
+        j.end();
+    }
+
+    static void recordFieldSet(Customer entity, byte field, double value) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(SET_FIELD);
+        j.putLong(entity.getID());
+        j.putByte(field);
+        j.putDouble(value);
+        j.end();
+    }
+
+    static void recordDesignAdded(Factory factory, ProductDesign design) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(ADD_DESIGN);
+        j.putLong(factory.getID());
+        j.putDesign(design);
+        j.end();
+    }
+
+    static void recordFactoryStockAdded(Factory factory, byte kind, String name, int amount) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(FACTORY_ADD_STOCK);
+        j.putLong(factory.getID());
+        j.putByte(kind);
+        j.putString(name);
+        j.putInt(amount);
+        j.end();
+    }
+
+    static void recordFactoryBuy(Factory factory, String name, int amount, double pricePerUnit) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(FACTORY_BUY);
+        j.putLong(factory.getID());
+        j.putString(name);
+        j.putInt(amount);
+        j.putDouble(pricePerUnit);
+        j.end();
+    }
+
+    static void recordRawMaterialPurchase(Factory factory, RawMaterialProducer producer, int amount) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(FACTORY_BUY_RAW_MATERIAL);
+        j.putLong(factory.getID());
+        j.putLong(producer.getID());
+        j.putInt(amount);
+        j.end();
+    }
+
+    /**
+     * Designs that were added to the factory are written as their position in its design list;
+     * any other design is written out in full.
+     */
+    static void recordProduction(Factory factory, ProductDesign design, int amount) {
+        recordDesignRun(FACTORY_PRODUCE, factory, design, amount);
+    }
+
+    /**
+     * A production line took the inputs, cost and storage of an order.
+     */
+    static void recordProductionStarted(Factory factory, ProductDesign design, int amount) {
+        recordDesignRun(FACTORY_START_PRODUCTION, factory, design, amount);
+    }
+
+    /**
+     * A production line delivered the output of an order.
+     */
+    static void recordProductionFinished(Factory factory, ProductDesign design, int amount) {
+        recordDesignRun(FACTORY_FINISH_PRODUCTION, factory, design, amount);
+    }
+
+    private static void recordDesignRun(byte type, Factory factory, ProductDesign design, int amount) {
+        TradeJournal j = active;
+        if (j == null) return;
+        int designIndex = factory.getDesigns().indexOf(design);
+        j.begin(type);
+        j.putLong(factory.getID());
+        j.putInt(amount);
+        j.putInt(designIndex);
+        if (designIndex < 0) {
+            j.putDesign(design);
+        }
+        j.end();
+    }
+
+    static void recordBatchProduction(Factory factory, List<ProductionOrder> orders) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(FACTORY_PRODUCE_BATCH);
+        j.putLong(factory.getID());
+        j.putInt(orders.size());
+        for (ProductionOrder order : orders) {
+            int designIndex = factory.getDesigns().indexOf(order.getDesign());
+            j.putInt(order.getAmount());
+            j.putInt(designIndex);
+            if (designIndex < 0) {
+                j.putDesign(order.getDesign());
+            }
+        }
+        j.end();
+    }
+
+    static void recordByproductDestroyed(Factory factory, String name, int amount, double costPerUnit) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(FACTORY_DESTROY_BYPRODUCT);
+        j.putLong(factory.getID());
+        j.putString(name);
+        j.putInt(amount);
+        j.putDouble(costPerUnit);
+        j.end();
+    }
+
+    static void recordFactorySale(Factory factory, int item, int amount, double pricePerUnit) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(FACTORY_SELL);
+        j.putLong(factory.getID());
+        j.putString(ItemCatalog.nameOf(item));
+        j.putInt(amount);
+        j.putDouble(pricePerUnit);
+        j.end();
+    }
+
+    static void recordProducerProduce(RawMaterialProducer producer, double amount) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(PRODUCER_PRODUCE);
+        j.putLong(producer.getID());
+        j.putDouble(amount);
+        j.end();
+    }
+
+    static void recordProducerSale(RawMaterialProducer producer, double amount) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(PRODUCER_SELL);
+        j.putLong(producer.getID());
+        j.putDouble(amount);
+        j.end();
+    }
+
+    static void recordMarketAddProduct(Market market, Product product, int amount, double price) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(MARKET_ADD_PRODUCT);
+        j.putLong(market.getID());
+        j.putProduct(product);
+        j.putInt(amount);
+        j.putDouble(price);
+        j.end();
+    }
+
+    static void recordPriceSet(Market market, Product product, double price) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(MARKET_SET_PRICE);
+        j.putLong(market.getID());
+        j.putProduct(product);
+        j.putDouble(price);
+        j.end();
+    }
+
+    static void recordMarketBuy(Market buyer, Customer seller, Product product, int amount, double pricePerUnit) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(MARKET_BUY);
+        j.putLong(buyer.getID());
+        j.putLong(seller.getID());
+        j.putProduct(product);
+        j.putInt(amount);
+        j.putDouble(pricePerUnit);
+        j.end();
+    }
+
+    static void recordMarketSale(Market market, Product product, int amount, double pricePerUnit) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(MARKET_SELL);
+        j.putLong(market.getID());
+        j.putProduct(product);
+        j.putInt(amount);
+        j.putDouble(pricePerUnit);
+        j.end();
+    }
+
+    static void recordMarketSaleToCustomer(Market market, Product product, int amount, Customers buyer) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(MARKET_SELL_TO_CUSTOMER);
+        j.putLong(market.getID());
+        j.putProduct(product);
+        j.putInt(amount);
+        j.putLong(buyer.getID());
+        j.end();
+    }
+
+    static void recordCustomerAddToInventory(Customers customer, Product product, int quantity) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(CUSTOMER_ADD_TO_INVENTORY);
+        j.putLong(customer.getID());
+        j.putProduct(product);
+        j.putInt(quantity);
+        j.end();
+    }
+
+    static void recordCustomerBuy(Customers customer, Market seller, Product product, int quantity) {
+        TradeJournal j = active;
+        if (j == null) return;
+        j.begin(CUSTOMER_BUY);
+        j.putLong(customer.getID());
+        j.putLong(seller.getID());
+        j.putProduct(product);
+        j.putInt(quantity);
+        j.end();
+    }
+
+    static byte kindOf(InventoryItem item) {
+        if (item instanceof Product) return KIND_PRODUCT;
+        if (item instanceof ByProduct) return KIND_BYPRODUCT;
+        return KIND_RAW_MATERIAL;
+    }
+
+    // --- Reading ---
+
+    /**
+     * Receives the records of a journal file in order.
+     */
+    interface RecordVisitor {
+        /**
+         * @param sequence the record's sequence number.
+         * @param type one of the record type constants.
+         * @param fields the record's fields, positioned after the type byte.
+         */
+        void visit(long sequence, byte type, ByteBuffer fields);
+    }
+
+    /**
+     * Reads the records of a journal file, passing those after afterSequence to the visitor.
+     * Reading stops at the end of the file or at the first torn or corrupt record.
+     *
+     * @return the length of the valid part of the file, 0 if not even the file header is complete.
+     * @throws IOException if the file is not a journal of the current version.
+     */
+    static long read(Path path, long afterSequence, RecordVisitor visitor) throws IOException {
+        long validLength = 0;
+        byte[] payload = new byte[256];
+        CRC32C check = new CRC32C();
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            try {
+                int magic = in.readInt();
+                int version = in.readInt();
+                if (magic != FILE_MAGIC || version != FILE_VERSION) {
+                    throw new IOException(path + " is not a version " + FILE_VERSION + " trade journal.");
+                }
+            } catch (EOFException ex) {
+                return 0;
+            }
+            validLength = FILE_HEADER_BYTES;
+            while (true) {
+                int length;
+                int expectedCrc;
+                try {
+                    length = in.readInt();
+                    expectedCrc = in.readInt();
+                    if (length < 9 || length > (1 << 24)) {
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException ex) {
+                    break;
+                }
+                check.reset();
+                check.update(payload, 0, length);
+                if ((int) check.getValue() != expectedCrc) {
+                    break;
+                }
+                validLength += HEADER_BYTES + length;
+                ByteBuffer fields = ByteBuffer.wrap(payload, 0, length);
+                long sequence = fields.getLong();
+                byte type = fields.get();
+                if (sequence > afterSequence) {
+                    visitor.visit(sequence, type, fields);
+                }
+            }
+        }
+        return validLength;
+    }
+
+    static String getString(ByteBuffer fields) {
+        int length = fields.getInt();
+        String value = new String(fields.array(), fields.arrayOffset() + fields.position(), length, StandardCharsets.UTF_8);
+        fields.position(fields.position() + length);
+        return value;
+    }
+
+    /**
+     * Applies journal records to a world by calling the same domain operations that produced them.
+     * Entities are recreated under the IDs they were journaled with, so IDs stay the same across
+     * restarts and later records (and snapshots) keep referring to the right entity.
+     */
+    static class Replayer implements RecordVisitor {
+        private final World world;
+        private final Map<Long, Customer> entities = new HashMap<>();
+        private final Map<String, Product> products = new HashMap<>();
+        long lastSequence;
+        long applied;
+        long skipped;
+
+        Replayer(World world) {
+            this.world = world;
+            for (Factory f : world.getFactoryController().getFactories()) entities.put(f.getID(), f);
+            for (Market m : world.getMarketController().getMarkets()) entities.put(m.getID(), m);
+            for (Customers c : world.getCustomerController().getCustomers()) entities.put(c.getID(), c);
+            for (RawMaterialProducer p : world.getRawMaterialController().getProducers()) entities.put(p.getID(), p);
+        }
+
+        @Override
+        public void visit(long sequence, byte type, ByteBuffer f) {
+            lastSequence = sequence;
+            try {
+                apply(type, f);
+                applied++;
+            } catch (RuntimeException ex) {
+                skipped++;
+                System.err.println("Skipping journal record " + sequence + " (type " + type + "): " + ex.getMessage());
+            }
+        }
+
+        private void apply(byte type, ByteBuffer f) {
+            switch (type) {
+                case CREATE_FACTORY: {
+                    long id = f.getLong();
+                    Factory factory = new Factory(id, getString(f), f.getDouble(), f.getInt());
+                    world.getFactoryController().addFactory(factory);
+                    entities.put(id, factory);
+                    break;
+                }
+                case CREATE_MARKET: {
+                    long id = f.getLong();
+                    Market market = new Market(id, getString(f), f.getDouble());
+                    world.getMarketController().addMarket(market);
+                    entities.put(id, market);
+                    break;
+                }
+                case CREATE_CUSTOMER: {
+                    long id = f.getLong();
+                    Customers customer = new Customers(id, getString(f), f.getDouble());
+                    world.getCustomerController().addCustomer(customer);
+                    entities.put(id, customer);
+                    break;
+                }
+                case CREATE_PRODUCER: {
+                    long id = f.getLong();
+                    String name = getString(f);
+                    double balance = f.getDouble();
+                    double storageCapacity = f.getDouble();
+                    RawMaterial material = new RawMaterial(getString(f));
+                    material.setProductionCost(f.getDouble());
+                    RawMaterialProducer producer = new RawMaterialProducer(id, name, balance, storageCapacity, material, f.getDouble(), 0);
+                    world.getRawMaterialController().addProducer(producer);
+                    entities.put(id, producer);
+                    break;
+                }
+                case DELETE_CUSTOMER: {
+                    Customers customer = (Customers) entity(f.getLong());
+                    world.getCustomerController().deleteCustomer(customer.getID());
+                    break;
+                }
+                case RENAME: {
+                    Customer entity = entity(f.getLong());
+                    String name = getString(f);
+                    if (entity instanceof Market) ((Market) entity).setName(name);
+                    else if (entity instanceof Customers) ((Customers) entity).setName(name);
+                    else if (entity instanceof RawMaterialProducer) ((RawMaterialProducer) entity).setProducerName(name);
+                    break;
+                }
+                case SET_FIELD:
+                    applyField(entity(f.getLong()), f.get(), f.getDouble());
+                    break;
+                case ADD_DESIGN:
+                    factory(f).addDesign(readDesign(f));
+                    break;
+                case FACTORY_ADD_STOCK: {
+                    Factory factory = factory(f);
+                    byte kind = f.get();
+                    String name = getString(f);
+                    int amount = f.getInt();
+                    if (kind == KIND_PRODUCT) factory.addProduct(name, amount);
+                    else if (kind == KIND_BYPRODUCT) factory.addByproduct(name, amount);
+                    else factory.addRawMaterial(name, amount);
+                    break;
+                }
+                case FACTORY_BUY:
+                    factory(f).buyProduct(getString(f), f.getInt(), f.getDouble());
+                    break;
+                case FACTORY_BUY_RAW_MATERIAL:
+                    factory(f).buyRawMaterial((RawMaterialProducer) entity(f.getLong()), f.getInt());
+                    break;
+                case FACTORY_PRODUCE: {
+                    Factory factory = factory(f);
+                    int amount = f.getInt();
+                    int designIndex = f.getInt();
+                    ProductDesign design = designIndex < 0 ? readDesign(f) : factory.getDesigns().get(designIndex);
+                    factory.produceProduct(design, amount);
+                    break;
+                }
+                case FACTORY_START_PRODUCTION:
+                case FACTORY_FINISH_PRODUCTION: {
+                    Factory factory = factory(f);
+                    int amount = f.getInt();
+                    int designIndex = f.getInt();
+                    ProductDesign design = designIndex < 0 ? readDesign(f) : factory.getDesigns().get(designIndex);
+                    if (type == FACTORY_START_PRODUCTION) factory.startProduction(design, amount);
+                    else factory.finishProduction(design, amount);
+                    break;
+                }
+                case FACTORY_PRODUCE_BATCH: {
+                    Factory factory = factory(f);
+                    int count = f.getInt();
+                    List<ProductionOrder> orders = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        int amount = f.getInt();
+                        int designIndex = f.getInt();
+                        ProductDesign design = designIndex < 0 ? readDesign(f) : factory.getDesigns().get(designIndex);
+                        orders.add(new ProductionOrder(design, amount));
+                    }
+                    factory.produceBatch(orders);
+                    break;
+                }
+                case FACTORY_DESTROY_BYPRODUCT:
+                    factory(f).destroyByproduct(getString(f), f.getInt(), f.getDouble());
+                    break;
+                case FACTORY_SELL:
+                    factory(f).sellProduct(getString(f), f.getInt(), f.getDouble());
+                    break;
+                case PRODUCER_PRODUCE:
+                    ((RawMaterialProducer) entity(f.getLong())).produce(f.getDouble());
+                    break;
+                case PRODUCER_SELL:
+                    ((RawMaterialProducer) entity(f.getLong())).sell(f.getDouble());
+                    break;
+                case MARKET_ADD_PRODUCT:
+                    market(f).addProduct(product(f), f.getInt(), f.getDouble());
+                    break;
+                case MARKET_SET_PRICE: // also written by the PricingEngine, which may price a product that is sold out
+                    market(f).restorePrice(product(f), f.getDouble());
+                    break;
+                case MARKET_BUY: {
+                    Market buyer = market(f);
+                    Customer seller = entity(f.getLong());
+                    buyer.buyProduct(product(f), f.getInt(), f.getDouble(), seller);
+                    break;
+                }
+                case MARKET_SELL:
+                    market(f).sellProduct(product(f), f.getInt(), f.getDouble(), null);
+                    break;
+                case MARKET_SELL_TO_CUSTOMER: {
+                    Market market = market(f);
+                    Product product = product(f);
+                    int amount = f.getInt();
+                    market.sellProductToCustomer(product, amount, (Customers) entity(f.getLong()));
+                    break;
+                }
+                case CUSTOMER_ADD_TO_INVENTORY: {
+                    Customers customer = (Customers) entity(f.getLong());
+                    customer.addToInventory(product(f), f.getInt());
+                    break;
+                }
+                case CUSTOMER_BUY: {
+                    Customers customer = (Customers) entity(f.getLong());
+                    Market seller = market(f);
+                    customer.buyProductFromMarket(product(f), f.getInt(), seller);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown record type " + type);
+            }
+        }
+
+        private void applyField(Customer entity, byte field, double value) {
+            if (field == FIELD_BALANCE) {
+                if (entity instanceof Factory) ((Factory) entity).setBalance(value);
+                else if (entity instanceof Market) ((Market) entity).setBalance(value);
+                else if (entity instanceof Customers) ((Customers) entity).setBalance(value);
+                else if (entity instanceof RawMaterialProducer) ((RawMaterialProducer) entity).setBalance(value);
+            } else if (field == FIELD_CAPACITY) {
+                if (entity instanceof Factory) ((Factory) entity).setCapacity((int) value);
+                else if (entity instanceof RawMaterialProducer) ((RawMaterialProducer) entity).setStorageCapacity(value);
+            } else if (field == FIELD_SELLING_PRICE) {
+                ((RawMaterialProducer) entity).setSellingPrice(value);
+            } else if (field == FIELD_MATERIAL_COST) {
+                ((RawMaterialProducer) entity).setMaterialCost(value);
+            } else {
+                throw new IllegalStateException("Unknown field " + field);
+            }
+        }
+
+        private ProductDesign readDesign(ByteBuffer f) {
+            Product product = product(f);
+            ByProduct byproduct = null;
+            if (f.get() == 1) {
+                byproduct = new ByProduct(getString(f), f.getDouble());
+            }
+            double byproductAmount = f.getDouble();
+            double productionCost = f.getDouble();
+            String mainRaw = getString(f);
+            ProductDesign design = new ProductDesign(product, byproduct, mainRaw.isEmpty() ? null : new RawMaterial(mainRaw));
+            design.setByproductAmount(byproductAmount);
+            design.setProductionCost(productionCost);
+            int inputs = f.getInt();
+            for (int i = 0; i < inputs; i++) {
+                byte kind = f.get();
+                String name = getString(f);
+                double amount = f.getDouble();
+                InventoryItem item;
+                if (kind == KIND_PRODUCT) item = products.computeIfAbsent(name, n -> new Product(n, 0));
+                else if (kind == KIND_BYPRODUCT) item = new ByProduct(name, 0);
+                else item = new RawMaterial(name);
+                design.addInputRequirement(item, amount);
+            }
+            return design;
+        }
+
+        private Customer entity(long id) {
+            Customer entity = entities.get(id);
+            if (entity == null) {
+                throw new IllegalStateException("Unknown entity " + id);
+            }
+            return entity;
+        }
+
+        private Factory factory(ByteBuffer f) {
+            return (Factory) entity(f.getLong());
+        }
+
+        private Market market(ByteBuffer f) {
+            return (Market) entity(f.getLong());
+        }
+
+        private Product product(ByteBuffer f) {
+            String name = getString(f);
+            double cost = f.getDouble();
+            return products.computeIfAbsent(name, n -> new Product(n, cost));
+        }
+    }
+}
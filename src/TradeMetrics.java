@@ -0,0 +1,248 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts the trading and production operations of the domain classes, their failures by reason
+ * and their latencies, and exposes them as JMX MBeans under the "trading" domain.
+ * <p>
+ * Like the {@link TradeJournal}, only outermost operations are recorded: the seller's half of a
+ * purchase is part of the purchase, not a sale of its own. Recording is a few striped counter
+ * increments and two clock reads. While disabled it is one volatile read, and operations that
+ * start while disabled are not recorded. Metrics start disabled; {@link #register()} enables them,
+ * and so does starting the JVM with -Dtrading.metrics=true.
+ */
+public final class TradeMetrics {
+    public enum Operation {
+        MARKET_BUY(true),
+        MARKET_SELL(true),
+        MARKET_SELL_TO_CUSTOMER(true),
+        CUSTOMER_BUY(true),
+        FACTORY_BUY(true),
+        FACTORY_SELL(true),
+        FACTORY_BUY_RAW_MATERIAL(true),
+        FACTORY_PRODUCE(false),
+        FACTORY_PRODUCE_BATCH(false),
+        FACTORY_DESTROY_BYPRODUCT(false),
+        PRODUCER_PRODUCE(false),
+        PRODUCER_SELL(true);
+
+        private final boolean trade;
+
+        Operation(boolean trade) {
+            this.trade = trade;
+        }
+
+        /**
+         * True for purchases and sales, false for production.
+         */
+        public boolean isTrade() {
+            return trade;
+        }
+    }
+
+    public enum Failure {
+        /** Not enough money. */
+        FUNDS,
+        /** Not enough of an item in stock. */
+        STOCK,
+        /** Not enough storage. */
+        CAPACITY,
+        /** Invalid arguments. */
+        INVALID,
+        OTHER
+    }
+
+    private static final OperationMetrics[] byOrdinal = new OperationMetrics[Operation.values().length];
+    private static final Control control = new Control();
+    private static volatile boolean enabled = Boolean.getBoolean("trading.metrics");
+    private static boolean registered;
+
+    static {
+        for (Operation operation : Operation.values()) {
+            byOrdinal[operation.ordinal()] = new OperationMetrics(operation);
+        }
+    }
+
+    private TradeMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        TradeMetrics.enabled = enabled;
+    }
+
+    public static OperationMetrics get(Operation operation) {
+        return byOrdinal[operation.ordinal()];
+    }
+
+    /**
+     * Registers the MBeans with the platform MBean server and enables the metrics.
+     * Registering more than once does nothing.
+     *
+     * @throws IllegalStateException if the MBeans cannot be registered.
+     */
+    public static synchronized void register() {
+        enabled = true;
+        if (registered) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(control, new ObjectName("trading:type=TradeMetrics"));
+            for (OperationMetrics operationMetrics : byOrdinal) {
+                server.registerMBean(operationMetrics, new ObjectName("trading:type=Operation,name=" + operationMetrics.getOperation()));
+            }
+        } catch (JMException ex) {
+            throw new IllegalStateException("Could not register the trade metrics MBeans: " + ex.getMessage(), ex);
+        }
+        registered = true;
+    }
+
+    public static void reset() {
+        for (OperationMetrics operationMetrics : byOrdinal) {
+            operationMetrics.reset();
+        }
+    }
+
+    // --- Recorded by the domain classes ---
+
+    /**
+     * Returns the start time to pass to {@link #succeeded} or {@link #failed}, or 0 if disabled.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void succeeded(Operation operation, long start) {
+        if (start != 0) {
+            byOrdinal[operation.ordinal()].recordSuccess(System.nanoTime() - start);
+        }
+    }
+
+    static void failed(Operation operation, long start, RuntimeException cause) {
+        if (start != 0) {
+            byOrdinal[operation.ordinal()].recordFailure(reasonOf(cause), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records an operation rejected through a {@link TradeResult}.
+     * @return result, so it can be returned in one statement.
+     */
+    static TradeResult rejected(Operation operation, long start, TradeResult result) {
+        if (start != 0) {
+            byOrdinal[operation.ordinal()].recordFailure(reasonOf(result), System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    static Failure reasonOf(TradeResult result) {
+        switch (result) {
+            case NO_FUNDS: return Failure.FUNDS;
+            case NO_STOCK: return Failure.STOCK;
+            case NO_CAPACITY: return Failure.CAPACITY;
+            default: return Failure.OTHER;
+        }
+    }
+
+    /**
+     * Rejections are classified by the {@link TradeResult} their {@link TradeRejectedException}
+     * carries, like the ones the try... methods return; invalid arguments are INVALID and anything
+     * else is OTHER.
+     */
+    static Failure reasonOf(RuntimeException cause) {
+        if (cause instanceof TradeRejectedException) {
+            return reasonOf(((TradeRejectedException) cause).getResult());
+        }
+        return cause instanceof IllegalArgumentException ? Failure.INVALID : Failure.OTHER;
+    }
+
+    /**
+     * Per-second rate of a growing count, averaged since the previous sample.
+     */
+    static class Rate {
+        private static final long MIN_SAMPLE_NANOS = 1_000_000_000L;
+
+        private final LongSupplier count;
+        private long sampledAt = System.nanoTime();
+        private long sampledCount;
+        private double perSecond;
+
+        Rate(LongSupplier count) {
+            this.count = count;
+        }
+
+        synchronized double perSecond() {
+            long now = System.nanoTime();
+            long elapsed = now - sampledAt;
+            if (elapsed >= MIN_SAMPLE_NANOS) {
+                long current = count.getAsLong();
+                perSecond = current < sampledCount ? 0 : (current - sampledCount) * 1e9 / elapsed;
+                sampledAt = now;
+                sampledCount = current;
+            }
+            return perSecond;
+        }
+    }
+
+    private static class Control implements TradeMetricsMXBean {
+        private final Rate trades = new Rate(this::getTrades);
+
+        @Override
+        public boolean isEnabled() {
+            return TradeMetrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            TradeMetrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getTrades() {
+            long total = 0;
+            for (OperationMetrics operationMetrics : byOrdinal) {
+                if (operationMetrics.getOperation().isTrade()) {
+                    total += operationMetrics.getSucceeded();
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public long getProductions() {
+            long total = 0;
+            for (OperationMetrics operationMetrics : byOrdinal) {
+                if (!operationMetrics.getOperation().isTrade()) {
+                    total += operationMetrics.getSucceeded();
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public long getFailures() {
+            long total = 0;
+            for (OperationMetrics operationMetrics : byOrdinal) {
+                total += operationMetrics.getFailed();
+            }
+            return total;
+        }
+
+        @Override
+        public double getTradesPerSecond() {
+            return trades.perSecond();
+        }
+
+        @Override
+        public void reset() {
+            TradeMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * JMX control and totals of {@link TradeMetrics}.
+ */
+public interface TradeMetricsMXBean {
+    boolean isEnabled();
+    void setEnabled(boolean enabled);
+
+    /**
+     * Successful trades: purchases and sales between entities.
+     */
+    long getTrades();
+
+    /**
+     * Successful production runs of factories and raw material producers.
+     */
+    long getProductions();
+
+    /**
+     * Failed trades and production runs.
+     */
+    long getFailures();
+
+    /**
+     * Successful trades per second, averaged since the previous sample, as
+     * {@link OperationMetricsMXBean#getCallsPerSecond()}.
+     */
+    double getTradesPerSecond();
+
+    /**
+     * Clears the metrics of every operation.
+     */
+    void reset();
+}
@@ -0,0 +1,20 @@
+/**
+ * Thrown by the trading and production methods for the rejections the try... methods return as a
+ * {@link TradeResult}, and carries that result, so callers and the {@link TradeMetrics} can tell
+ * why without reading the message.
+ */
+public class TradeRejectedException extends IllegalStateException {
+    private final TradeResult result;
+
+    public TradeRejectedException(TradeResult result, String message) {
+        super(message);
+        if (result == null || result.isOk()) {
+            throw new IllegalArgumentException("A rejection needs a result other than OK.");
+        }
+        this.result = result;
+    }
+
+    public TradeResult getResult() {
+        return result;
+    }
+}
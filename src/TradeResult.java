@@ -0,0 +1,18 @@
+/**
+ * Outcome of the try... trading and production methods, which report a rejection by returning it
+ * instead of throwing an IllegalStateException. Nothing is allocated for a rejection, so callers
+ * that expect many of them, such as the {@link Simulation}, can afford them.
+ */
+public enum TradeResult {
+    OK,
+    /** The buyer or producer does not have enough money. */
+    NO_FUNDS,
+    /** The seller does not have enough of the item, or production lacks an input. */
+    NO_STOCK,
+    /** The buyer or producer does not have enough storage. */
+    NO_CAPACITY;
+
+    public boolean isOk() {
+        return this == OK;
+    }
+}
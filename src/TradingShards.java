@@ -0,0 +1,246 @@
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs trades on shards: every market, customer, factory or producer belongs to one shard, and
+ * each shard is an actor on its own virtual thread that takes messages from a bounded mailbox and
+ * runs them one at a time. Put a market and its usual customers on the same shard, and most trades
+ * then only touch entities no other thread is working on, so the shards run in parallel without
+ * contending and throughput grows with the number of cores.
+ * <p>
+ * A trade between entities on two shards is a request/response pair: the request runs on the shard
+ * of the supplying side (the seller market or factory), and the response that completes the
+ * returned future is a message to the buying side's shard, so code chained on the future with the
+ * non-async then... methods runs where the buyer lives. The trade itself is still the single
+ * atomic operation it is everywhere else; the entity locks keep it correct while both shards touch
+ * the two entities, they are simply rarely contended.
+ * <p>
+ * Sending from outside the shards blocks while the target mailbox is full, which slows a producer
+ * down to what the shards can take. Messages sent from inside a shard, responses among them, skip
+ * the bound: two shards that each wait for room in the other's full mailbox would never wake up.
+ */
+public final class TradingShards implements AutoCloseable {
+    private static final ThreadLocal<TradingShards> CURRENT = new ThreadLocal<>(); // set on shard threads
+
+    private final Shard[] shards;
+    private final Map<Customer, Integer> assignments = new ConcurrentHashMap<>();
+    private final LongAdder crossShardRequests = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * One shard per available processor, with mailboxes of 1024 messages.
+     */
+    public TradingShards() {
+        this(Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    /**
+     * Starts the shards' threads.
+     *
+     * @throws IllegalArgumentException if shardCount or mailboxCapacity is not positive.
+     */
+    public TradingShards(int shardCount, int mailboxCapacity) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("There must be at least one shard.");
+        }
+        if (mailboxCapacity <= 0) {
+            throw new IllegalArgumentException("Mailbox capacity must be positive.");
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(mailboxCapacity);
+            shards[i].thread = Thread.ofVirtual().name("trading-shard-" + i).start(shards[i]);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * The number of requests so far that ran on another shard than their buyer's.
+     */
+    public long getCrossShardRequests() {
+        return crossShardRequests.sum();
+    }
+
+    /**
+     * Puts an entity on a shard. Entities that were never assigned are spread over the shards by ID.
+     * Move entities while no trades for them are in flight.
+     */
+    public void assign(Customer entity, int shard) {
+        if (shard < 0 || shard >= shards.length) {
+            throw new IllegalArgumentException("No shard " + shard + ", there are " + shards.length + ".");
+        }
+        assignments.put(entity, shard);
+    }
+
+    public int shardOf(Customer entity) {
+        Integer assigned = assignments.get(entity);
+        return assigned != null ? assigned : (int) Math.floorMod(entity.getID(), (long) shards.length);
+    }
+
+    /**
+     * Runs an operation on the entity's shard.
+     *
+     * @return a future completed with the operation's result, or with the exception it threw.
+     * @throws IllegalStateException if the shards are closed.
+     */
+    public CompletableFuture<TradeResult> submit(Customer entity, Simulation.Attempt attempt) {
+        CompletableFuture<TradeResult> result = new CompletableFuture<>();
+        shards[shardOf(entity)].send(() -> complete(result, attempt));
+        return result;
+    }
+
+    /**
+     * Runs an operation between a buyer and a supplier on the supplier's shard, and completes the
+     * future on the buyer's shard.
+     *
+     * @throws IllegalStateException if the shards are closed.
+     */
+    public CompletableFuture<TradeResult> submit(Customer buyer, Customer supplier, Simulation.Attempt attempt) {
+        int buyerShard = shardOf(buyer);
+        int supplierShard = shardOf(supplier);
+        if (buyerShard == supplierShard) {
+            return submit(buyer, attempt);
+        }
+        crossShardRequests.increment();
+        CompletableFuture<TradeResult> result = new CompletableFuture<>();
+        Shard replyTo = shards[buyerShard];
+        shards[supplierShard].send(() -> {
+            try {
+                TradeResult value = attempt.attempt();
+                replyTo.send(() -> result.complete(value));
+            } catch (RuntimeException ex) {
+                replyTo.send(() -> result.completeExceptionally(ex));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * {@link Market#tryBuyProduct} on the shards.
+     */
+    public CompletableFuture<TradeResult> buyProduct(Market buyer, Product product, int amount, double pricePerUnit, Customer seller) {
+        return submit(buyer, seller, () -> buyer.tryBuyProduct(product, amount, pricePerUnit, seller));
+    }
+
+    /**
+     * {@link Customers#tryBuyProductFromMarket} on the shards.
+     */
+    public CompletableFuture<TradeResult> buyProductFromMarket(Customers customer, Product product, int quantity, Market market) {
+        return submit(customer, market, () -> customer.tryBuyProductFromMarket(product, quantity, market));
+    }
+
+    /**
+     * Stops taking messages from outside, lets the shards finish the ones already sent and whatever
+     * those send on, and waits for their threads to end. Do not send while closing.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        wakeAll();
+        try {
+            for (Shard shard : shards) {
+                shard.thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void complete(CompletableFuture<TradeResult> future, Simulation.Attempt attempt) {
+        try {
+            future.complete(attempt.attempt());
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * True once every message sent to any shard has been run. Reads all the counts of run messages
+     * before all the counts of sent ones: a count only grows and no shard can have run more than
+     * was sent to it, so if the sums agree then at some moment between the two passes nothing was
+     * queued or running, and nothing could send again.
+     */
+    private boolean quiescent() {
+        long done = 0;
+        for (Shard shard : shards) {
+            done += shard.done;
+        }
+        long sent = 0;
+        for (Shard shard : shards) {
+            sent += shard.sent.sum();
+        }
+        return done == sent;
+    }
+
+    private final class Shard implements Runnable {
+        private final BlockingQueue<Runnable> mailbox;
+        private final ConcurrentLinkedQueue<Runnable> internal = new ConcurrentLinkedQueue<>(); // from shards, unbounded
+        private final LongAdder sent = new LongAdder();
+        private volatile long done; // written by this shard's thread only
+        private Thread thread;
+
+        Shard(int capacity) {
+            mailbox = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void send(Runnable message) {
+            if (CURRENT.get() == TradingShards.this) {
+                sent.increment();
+                internal.add(message);
+            } else {
+                if (closed) {
+                    throw new IllegalStateException("The trading shards are closed.");
+                }
+                sent.increment();
+                try {
+                    mailbox.put(message);
+                } catch (InterruptedException ex) {
+                    sent.decrement();
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for room in a shard's mailbox.", ex);
+                }
+            }
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            CURRENT.set(TradingShards.this);
+            while (true) {
+                Runnable message = internal.poll();
+                if (message == null) {
+                    message = mailbox.poll();
+                }
+                if (message != null) {
+                    try {
+                        message.run();
+                    } finally {
+                        done++;
+                    }
+                    if (closed) {
+                        wakeAll(); // shards waiting for this one to finish may now stop
+                    }
+                } else if (closed && quiescent()) {
+                    return;
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+
+    private void wakeAll() {
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+    }
+}
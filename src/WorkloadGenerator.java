@@ -0,0 +1,274 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic load for the trading paths: customers with a spread of balances buying from markets,
+ * and markets restocking from suppliers, arriving as a Poisson process.
+ * <p>
+ * Which market and which product an order goes to follow Zipf distributions over the lists given to
+ * the constructor, in their order: the first market and the first product are the most popular.
+ * With an exponent of about 1 most orders go to a handful of them, which reproduces hot spots; an
+ * exponent of 0 spreads the load evenly. Customers are picked uniformly. Everything is drawn from
+ * one random generator, so the same seed and settings produce the same orders.
+ * <p>
+ * Orders can be scheduled into a {@link Simulation}, tick by tick, or sent straight into the
+ * trading path at a rate per second. Either way they go through the try... methods, so a rejected
+ * order costs no exception. A generator is not thread-safe; to load several threads, give each its
+ * own generator with its own seed.
+ */
+public class WorkloadGenerator {
+    private final SplittableRandom random;
+    private final List<Market> markets;
+    private final List<Product> products;
+    private final List<Customers> customers = new ArrayList<>();
+    private ZipfDistribution marketPopularity;
+    private ZipfDistribution productPopularity;
+    private int maxQuantity = 3;
+    private List<? extends Customer> suppliers = new ArrayList<>();
+    private double restockShare;
+    private int restockAmount;
+    private long attempted;
+    private long rejected;
+
+    /**
+     * A generator with market and product popularity skewed with exponent 1.
+     *
+     * @param markets the markets, most popular first.
+     * @param products the products, most popular first.
+     * @throws IllegalArgumentException if there are no markets or no products.
+     */
+    public WorkloadGenerator(long seed, List<Market> markets, List<Product> products) {
+        if (markets == null || markets.isEmpty() || products == null || products.isEmpty()) {
+            throw new IllegalArgumentException("A workload needs at least one market and one product.");
+        }
+        this.random = new SplittableRandom(seed);
+        this.markets = new ArrayList<>(markets);
+        this.products = new ArrayList<>(products);
+        this.marketPopularity = new ZipfDistribution(markets.size(), 1);
+        this.productPopularity = new ZipfDistribution(products.size(), 1);
+    }
+
+    /**
+     * Sets the Zipf exponent of market popularity: 0 is uniform, higher concentrates the orders
+     * on the first markets.
+     */
+    public WorkloadGenerator setMarketSkew(double exponent) {
+        marketPopularity = new ZipfDistribution(markets.size(), exponent);
+        return this;
+    }
+
+    /**
+     * Sets the Zipf exponent of product popularity, as {@link #setMarketSkew(double)}.
+     */
+    public WorkloadGenerator setProductSkew(double exponent) {
+        productPopularity = new ZipfDistribution(products.size(), exponent);
+        return this;
+    }
+
+    /**
+     * Customers buy between 1 and maxQuantity units per order, uniformly.
+     */
+    public WorkloadGenerator setMaxQuantity(int maxQuantity) {
+        if (maxQuantity <= 0) {
+            throw new IllegalArgumentException("Max quantity must be positive.");
+        }
+        this.maxQuantity = maxQuantity;
+        return this;
+    }
+
+    /**
+     * Makes a share of the orders market restocks: the market buys amount units of the product
+     * from a supplier picked uniformly, at the product's production cost.
+     *
+     * @param suppliers factories or markets.
+     * @param share between 0 and 1.
+     */
+    public WorkloadGenerator setRestocking(List<? extends Customer> suppliers, double share, int amount) {
+        if (suppliers == null || (share > 0 && suppliers.isEmpty())) {
+            throw new IllegalArgumentException("Restocking needs at least one supplier.");
+        }
+        if (share < 0 || share > 1) {
+            throw new IllegalArgumentException("Restock share must be between 0 and 1.");
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Restock amount must be positive.");
+        }
+        for (Customer supplier : suppliers) {
+            if (!(supplier instanceof Factory) && !(supplier instanceof Market)) {
+                throw new IllegalArgumentException("Suppliers must be factories or markets.");
+            }
+        }
+        this.suppliers = new ArrayList<>(suppliers);
+        this.restockShare = share;
+        this.restockAmount = amount;
+        return this;
+    }
+
+    /**
+     * Creates customers whose balances are log-normally distributed: half have less than the
+     * median, and a spread of 1 makes roughly one in six richer than 2.7 times the median.
+     * The customers place the generated orders. If controller is not null they are added to it.
+     *
+     * @return the new customers.
+     */
+    public List<Customers> createCustomers(int count, double medianBalance, double spread, CustomerController controller) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count cannot be negative.");
+        }
+        if (medianBalance < 0 || spread < 0) {
+            throw new IllegalArgumentException("Median balance and spread cannot be negative.");
+        }
+        List<Customers> created = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double balance = medianBalance * Math.exp(spread * nextGaussian());
+            Customers customer = new Customers("Load_Customer_" + (customers.size() + 1), balance);
+            if (controller != null) {
+                controller.addCustomer(customer);
+            }
+            customers.add(customer);
+            created.add(customer);
+        }
+        return created;
+    }
+
+    /**
+     * Lets existing customers place orders as well.
+     */
+    public void addCustomers(List<Customers> existing) {
+        customers.addAll(existing);
+    }
+
+    public long getAttempted() {
+        return attempted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Schedules the orders of a Poisson process with the given mean number of orders per tick over
+     * the next ticks of the simulation. The orders are drawn now; the simulation counts the
+     * rejected ones, and so does this generator.
+     *
+     * @return the number of orders scheduled.
+     */
+    public long scheduleInto(Simulation simulation, double ordersPerTick, long ticks) {
+        if (ordersPerTick <= 0) {
+            throw new IllegalArgumentException("Order rate must be positive.");
+        }
+        checkCustomers();
+        long scheduled = 0;
+        double time = nextGap(ordersPerTick);
+        while (time < ticks) {
+            Order order = nextOrder();
+            simulation.scheduleAttempt((long) time, () -> place(order));
+            scheduled++;
+            time += nextGap(ordersPerTick);
+        }
+        return scheduled;
+    }
+
+    /**
+     * Places orders on the calling thread as a Poisson process with the given mean rate, for the
+     * given time. The arrival times are fixed in advance of the orders, so if the trading path
+     * falls behind, the late orders are placed at once rather than dropped or spread out, as real
+     * customers would keep arriving.
+     *
+     * @return the number of orders placed.
+     */
+    public long run(double ordersPerSecond, long durationMillis) {
+        if (ordersPerSecond <= 0) {
+            throw new IllegalArgumentException("Order rate must be positive.");
+        }
+        checkCustomers();
+        long start = System.nanoTime();
+        long end = start + durationMillis * 1_000_000;
+        double ratePerNano = ordersPerSecond / 1e9;
+        long placed = 0;
+        double next = start + nextGap(ratePerNano);
+        while (next < end) {
+            long wait = (long) next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            place(nextOrder());
+            placed++;
+            next += nextGap(ratePerNano);
+        }
+        return placed;
+    }
+
+    /**
+     * Draws the next order and places it at once.
+     */
+    public TradeResult placeNext() {
+        checkCustomers();
+        return place(nextOrder());
+    }
+
+    private void checkCustomers() {
+        if (customers.isEmpty() && restockShare < 1) {
+            throw new IllegalStateException("Create or add customers before generating orders.");
+        }
+    }
+
+    private Order nextOrder() {
+        Market market = markets.get(marketPopularity.sample(random));
+        Product product = products.get(productPopularity.sample(random));
+        if (restockShare > 0 && random.nextDouble() < restockShare) {
+            Customer supplier = suppliers.get(random.nextInt(suppliers.size()));
+            return new Order(null, market, product, restockAmount, supplier);
+        }
+        Customers customer = customers.get(random.nextInt(customers.size()));
+        return new Order(customer, market, product, 1 + random.nextInt(maxQuantity), null);
+    }
+
+    private TradeResult place(Order order) {
+        TradeResult result;
+        if (order.customer != null) {
+            result = order.customer.tryBuyProductFromMarket(order.product, order.quantity, order.market);
+        } else if (order.supplier == order.market) {
+            result = TradeResult.NO_STOCK; // a market does not restock from itself
+        } else {
+            result = order.market.tryBuyProduct(order.product, order.quantity, order.product.getProductionCost(), order.supplier);
+        }
+        attempted++;
+        if (!result.isOk()) {
+            rejected++;
+        }
+        return result;
+    }
+
+    /**
+     * Time to the next arrival of a Poisson process with the given rate.
+     */
+    private double nextGap(double rate) {
+        return -Math.log(1 - random.nextDouble()) / rate;
+    }
+
+    private double nextGaussian() {
+        // Box-Muller
+        double u = 1 - random.nextDouble();
+        double v = random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+    }
+
+    private static final class Order {
+        final Customers customer; // null for a restock
+        final Market market;
+        final Product product;
+        final int quantity;
+        final Customer supplier; // null for a customer purchase
+
+        Order(Customers customer, Market market, Product product, int quantity, Customer supplier) {
+            this.customer = customer;
+            this.market = market;
+            this.product = product;
+            this.quantity = quantity;
+            this.supplier = supplier;
+        }
+    }
+}
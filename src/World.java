@@ -0,0 +1,35 @@
+/**
+ * Everything the application keeps track of: the factory, market and customer controllers,
+ * the raw material producers and the {@link OfferBook} of what the markets and factories sell.
+ * The journal and other whole-world tools work on this.
+ */
+public class World {
+    private final FactoryController factoryController;
+    private final MarketController marketController;
+    private final CustomerController customerController;
+    private final RawMaterialController rawMaterialController;
+    private final OfferBook offerBook = new OfferBook();
+
+    public World() {
+        this(new FactoryController(), new MarketController(), new CustomerController(), new RawMaterialController());
+    }
+
+    public World(FactoryController factoryController, MarketController marketController,
+                 CustomerController customerController, RawMaterialController rawMaterialController) {
+        if (factoryController == null || marketController == null || customerController == null || rawMaterialController == null) {
+            throw new IllegalArgumentException("Controllers cannot be null.");
+        }
+        this.factoryController = factoryController;
+        this.marketController = marketController;
+        this.customerController = customerController;
+        this.rawMaterialController = rawMaterialController;
+        factoryController.setOfferBook(offerBook);
+        marketController.setOfferBook(offerBook);
+    }
+
+    public FactoryController getFactoryController() { return factoryController; }
+    public MarketController getMarketController() { return marketController; }
+    public CustomerController getCustomerController() { return customerController; }
+    public RawMaterialController getRawMaterialController() { return rawMaterialController; }
+    public OfferBook getOfferBook() { return offerBook; }
+}
@@ -0,0 +1,664 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A full copy of the world in a compact binary file, so startup can load the latest snapshot and
+ * replay only the journal records written after it instead of the whole {@link TradeJournal}.
+ * <p>
+ * Taking a snapshot is split in two. {@link #capture(World)} locks every entity for as long as it
+ * takes to encode them into memory, which gives a consistent cut together with the journal sequence
+ * number at that point. {@link #save(Path)} then writes the bytes to disk without holding any lock,
+ * so it can run on a background thread while trading continues.
+ * Call capture on the thread that adds and removes entities (the Swing event thread), because the
+ * controllers themselves are not thread-safe.
+ * <p>
+ * Layout (version 2, big-endian):
+ * <pre>
+ * header:   int magic, int version, long journal sequence, long string table offset
+ * body:     factories, markets, customers and producers, each as an int count followed by the entities
+ * strings:  int count, then every string as int byte count + UTF-8 bytes
+ * trailer:  int crc32c of everything before it
+ * </pre>
+ * Item names in the body are int indexes into the string table, so a name that appears in a
+ * million inventories is stored once. Entity IDs are stored as longs and entity names, which are
+ * unique, inline as int byte count + UTF-8 bytes. Items a factory holds none of are left out.
+ * Loading maps the file into memory and decodes it in a single pass.
+ */
+public class WorldSnapshot {
+    private static final int MAGIC = 0x53434D53; // "SCMS"
+    private static final int VERSION = 2; // 2: entity IDs are longs
+    private static final int HEADER_BYTES = 24;
+
+    private final ByteBuffer data;
+    private final long journalSequence;
+
+    private WorldSnapshot(ByteBuffer data, long journalSequence) {
+        this.data = data;
+        this.journalSequence = journalSequence;
+    }
+
+    /**
+     * The sequence number of the last journal record included in this snapshot.
+     */
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public int getSizeInBytes() {
+        return data.remaining();
+    }
+
+    /**
+     * Encodes the whole world into memory. Trading on all entities is paused while this runs.
+     */
+    public static WorldSnapshot capture(World world) {
+        List<Factory> factories = new ArrayList<>(world.getFactoryController().getFactories());
+        List<Market> markets = new ArrayList<>(world.getMarketController().getMarkets());
+        List<Customers> customers = new ArrayList<>(world.getCustomerController().getCustomers());
+        List<RawMaterialProducer> producers = new ArrayList<>(world.getRawMaterialController().getProducers());
+        List<Customer> all = new ArrayList<>(factories.size() + markets.size() + customers.size() + producers.size());
+        all.addAll(factories);
+        all.addAll(markets);
+        all.addAll(customers);
+        all.addAll(producers);
+
+        Encoder out = new Encoder(64 + all.size() * 64);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(0); // journal sequence, filled in below
+        out.putLong(0); // string table offset, filled in below
+
+        long sequence;
+        List<EntityLock> locks = EntityLock.lockAll(all);
+        try {
+            TradeJournal journal = TradeJournal.getActive();
+            sequence = journal == null ? 0 : journal.getLastSequence();
+            out.putInt(factories.size());
+            for (Factory factory : factories) {
+                writeFactory(out, factory);
+            }
+            out.putInt(markets.size());
+            for (Market market : markets) {
+                writeMarket(out, market);
+            }
+            out.putInt(customers.size());
+            for (Customers customer : customers) {
+                writeCustomer(out, customer);
+            }
+            out.putInt(producers.size());
+            for (RawMaterialProducer producer : producers) {
+                writeProducer(out, producer);
+            }
+        } finally {
+            EntityLock.unlockAll(locks);
+        }
+
+        long stringTableOffset = out.position();
+        out.putStringTable();
+        ByteBuffer buffer = out.buffer;
+        buffer.putLong(8, sequence);
+        buffer.putLong(16, stringTableOffset);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        out.putInt((int) crc.getValue());
+        buffer = out.buffer;
+        buffer.flip();
+        return new WorldSnapshot(buffer, sequence);
+    }
+
+    /**
+     * Writes the snapshot to path. The file is written next to it first and then moved into place,
+     * so a crash while saving leaves the previous snapshot intact.
+     */
+    public void save(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = data.duplicate();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a snapshot into a world. Call it before opening the journal, then open the journal with
+     * the returned sequence so only later records are replayed.
+     * <p>
+     * The snapshot is decoded into a world of its own first and its entities are only added to the
+     * given world once all of them were read, so a snapshot that turns out to be damaged halfway
+     * leaves the world as it was, ready for replaying the whole journal instead.
+     *
+     * @return the journal sequence the snapshot was taken at.
+     * @throws IOException if the file cannot be read, is not a snapshot, or is damaged.
+     */
+    public static long load(Path path, World world) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large to map: " + size + " bytes.");
+            }
+            if (size < HEADER_BYTES + 4) {
+                throw new IOException("Snapshot is truncated.");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            World loaded = new World();
+            long sequence;
+            try {
+                sequence = load(in, loaded);
+            } catch (RuntimeException ex) {
+                // a damaged body that passed the CRC, e.g. an index or count out of range
+                throw new IOException("Snapshot is damaged: " + ex, ex);
+            }
+            moveInto(loaded, world);
+            return sequence;
+        }
+    }
+
+    private static void moveInto(World from, World to) {
+        for (Factory factory : from.getFactoryController().getFactories()) {
+            to.getFactoryController().addFactory(factory);
+        }
+        for (Market market : from.getMarketController().getMarkets()) {
+            to.getMarketController().addMarket(market);
+        }
+        for (Customers customer : from.getCustomerController().getCustomers()) {
+            to.getCustomerController().addCustomer(customer);
+        }
+        for (RawMaterialProducer producer : from.getRawMaterialController().getProducers()) {
+            to.getRawMaterialController().addProducer(producer);
+        }
+    }
+
+    private static long load(ByteBuffer in, World world) throws IOException {
+        int end = in.limit() - 4;
+        CRC32C crc = new CRC32C();
+        ByteBuffer checked = in.duplicate();
+        checked.limit(end);
+        crc.update(checked);
+        if ((int) crc.getValue() != in.getInt(end)) {
+            throw new IOException("Snapshot checksum does not match, the file is damaged.");
+        }
+        if (in.getInt(0) != MAGIC) {
+            throw new IOException("Not a snapshot file.");
+        }
+        int version = in.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ".");
+        }
+        long sequence = in.getLong(8);
+        long stringTableOffset = in.getLong(16);
+        if (stringTableOffset < HEADER_BYTES || stringTableOffset > end) {
+            throw new IOException("Snapshot header is damaged.");
+        }
+
+        in.position((int) stringTableOffset);
+        Decoder decoder = new Decoder(in, new String[in.getInt()]);
+        decoder.readStringTable();
+        in.position(HEADER_BYTES);
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            world.getFactoryController().addFactory(decoder.readFactory());
+        }
+        count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            world.getMarketController().addMarket(decoder.readMarket());
+        }
+        count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            world.getCustomerController().addCustomer(decoder.readCustomer());
+        }
+        count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            world.getRawMaterialController().addProducer(decoder.readProducer());
+        }
+        if (in.position() != stringTableOffset) {
+            throw new IOException("Snapshot body does not end where the string table starts.");
+        }
+        return sequence;
+    }
+
+    /**
+     * A 64-bit checksum of the whole state of the world: every entity's ID, name, balance, stock,
+     * prices and designs, as a snapshot would store them. It does not depend on the order entities
+     * or items happen to be kept in, so two worlds that went through the same operations have the
+     * same checksum, which is how a journal replay is checked against the run that recorded it.
+     * Amounts of money are compared bit for bit. Trading on all entities is paused while this runs.
+     */
+    public static long checksum(World world) {
+        List<Customer> all = new ArrayList<>();
+        all.addAll(world.getFactoryController().getFactories());
+        all.addAll(world.getMarketController().getMarkets());
+        all.addAll(world.getCustomerController().getCustomers());
+        all.addAll(world.getRawMaterialController().getProducers());
+        long sum = 0;
+        List<EntityLock> locks = EntityLock.lockAll(all);
+        try {
+            for (Customer entity : all) {
+                sum += mix(entityHash(entity));
+            }
+        } finally {
+            EntityLock.unlockAll(locks);
+        }
+        return mix(sum + all.size());
+    }
+
+    private static long entityHash(Customer entity) {
+        long h = combine(entity.getID(), hash(entity.getName()));
+        h = combine(h, Double.doubleToLongBits(entity.getBalance()));
+        if (entity instanceof Factory) {
+            Factory factory = (Factory) entity;
+            h = combine(h, factory.getCapacity());
+            h = combine(h, stockHash(factory.getProducts()));
+            h = combine(h, stockHash(factory.getByproducts()));
+            h = combine(h, stockHash(factory.getRawMaterials()));
+            for (ProductDesign design : factory.getDesigns()) { // in order: production records refer to designs by index
+                h = combine(h, designHash(design));
+            }
+        } else if (entity instanceof Market) {
+            Market market = (Market) entity;
+            h = combine(h, inventoryHash(market.getInventory()));
+            long prices = 0;
+            for (Map.Entry<Product, Double> entry : market.getProductPrices().entrySet()) {
+                prices += mix(combine(hash(entry.getKey().getName()), Double.doubleToLongBits(entry.getValue())));
+            }
+            h = combine(h, prices);
+        } else if (entity instanceof Customers) {
+            h = combine(h, inventoryHash(((Customers) entity).getInventory()));
+        } else if (entity instanceof RawMaterialProducer) {
+            RawMaterialProducer producer = (RawMaterialProducer) entity;
+            h = combine(h, Double.doubleToLongBits(producer.getStorageCapacity()));
+            h = combine(h, hash(producer.getMaterialProduced().getName()));
+            h = combine(h, Double.doubleToLongBits(producer.getMaterialProduced().getProductionCost()));
+            h = combine(h, Double.doubleToLongBits(producer.getSellingPrice()));
+            h = combine(h, Double.doubleToLongBits(producer.getStock()));
+        }
+        return h;
+    }
+
+    /**
+     * Order-independent: the entries' hashes are added up. Items with a count of 0 are left out:
+     * whether an empty entry is kept depends on the entity's history, and a snapshot does not store
+     * them. {@link #inventoryHash} works the same way.
+     */
+    private static long stockHash(Map<String, Integer> stock) {
+        long sum = 0;
+        for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+            if (entry.getValue() != 0) {
+                sum += mix(combine(hash(entry.getKey()), entry.getValue()));
+            }
+        }
+        return sum;
+    }
+
+    private static long inventoryHash(Map<Product, Integer> inventory) {
+        long sum = 0;
+        for (Map.Entry<Product, Integer> entry : inventory.entrySet()) {
+            if (entry.getValue() != 0) {
+                sum += mix(combine(hash(entry.getKey().getName()), entry.getValue()));
+            }
+        }
+        return sum;
+    }
+
+    private static long designHash(ProductDesign design) {
+        long h = hash(design.getProduct().getName());
+        ByProduct byproduct = design.getByproduct();
+        h = combine(h, byproduct == null ? 0 : hash(byproduct.getName()));
+        h = combine(h, Double.doubleToLongBits(design.getByproductAmount()));
+        h = combine(h, Double.doubleToLongBits(design.getProductionCost()));
+        h = combine(h, design.getRawmaterial() == null ? 0 : hash(design.getRawmaterial().getName()));
+        long inputs = 0;
+        for (Map.Entry<InventoryItem, Double> input : design.getinputRequirements().entrySet()) {
+            inputs += mix(combine(hash(input.getKey().getName()), Double.doubleToLongBits(input.getValue())));
+        }
+        return combine(h, inputs);
+    }
+
+    private static long combine(long hash, long value) {
+        return mix(hash * 31 + value);
+    }
+
+    /**
+     * 64-bit FNV-1a over the string's chars.
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * The SplitMix64 finalizer: spreads every input bit over the whole result.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // --- Writing ---
+
+    private static void writeFactory(Encoder out, Factory factory) {
+        out.putLong(factory.getID());
+        out.putText(factory.getName());
+        out.putDouble(factory.getBalance());
+        out.putInt(factory.getCapacity());
+        writeStock(out, factory.getProducts());
+        writeStock(out, factory.getByproducts());
+        writeStock(out, factory.getRawMaterials());
+        List<ProductDesign> designs = factory.getDesigns();
+        out.putInt(designs.size());
+        for (ProductDesign design : designs) {
+            writeDesign(out, design);
+        }
+    }
+
+    /**
+     * Writes the items with a count above zero. A factory's stock keeps an entry for every item it
+     * ever held, and adding 0 of an item is rejected on load.
+     */
+    private static void writeStock(Encoder out, Map<String, Integer> stock) {
+        int count = 0;
+        for (int amount : stock.values()) {
+            if (amount != 0) {
+                count++;
+            }
+        }
+        out.putInt(count);
+        for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+            if (entry.getValue() != 0) {
+                out.putString(entry.getKey());
+                out.putInt(entry.getValue());
+            }
+        }
+    }
+
+    private static void writeDesign(Encoder out, ProductDesign design) {
+        writeProduct(out, design.getProduct());
+        ByProduct byproduct = design.getByproduct();
+        out.putString(byproduct == null ? null : byproduct.getName());
+        out.putDouble(byproduct == null ? 0 : byproduct.getDisposalCost());
+        out.putDouble(design.getByproductAmount());
+        out.putDouble(design.getProductionCost());
+        out.putString(design.getRawmaterial() == null ? null : design.getRawmaterial().getName());
+        Map<InventoryItem, Double> inputs = design.getinputRequirements();
+        out.putInt(inputs.size());
+        for (Map.Entry<InventoryItem, Double> input : inputs.entrySet()) {
+            out.putByte(TradeJournal.kindOf(input.getKey()));
+            out.putString(input.getKey().getName());
+            out.putDouble(input.getValue());
+        }
+    }
+
+    private static void writeProduct(Encoder out, Product product) {
+        out.putString(product.getName());
+        out.putDouble(product.getProductionCost());
+    }
+
+    private static void writeMarket(Encoder out, Market market) {
+        out.putLong(market.getID());
+        out.putText(market.getName());
+        out.putDouble(market.getBalance());
+        Map<Product, Integer> inventory = market.getInventory();
+        out.putInt(inventory.size());
+        for (Map.Entry<Product, Integer> entry : inventory.entrySet()) {
+            writeProduct(out, entry.getKey());
+            out.putInt(entry.getValue());
+        }
+        Map<Product, Double> prices = market.getProductPrices();
+        out.putInt(prices.size());
+        for (Map.Entry<Product, Double> entry : prices.entrySet()) {
+            writeProduct(out, entry.getKey());
+            out.putDouble(entry.getValue());
+        }
+    }
+
+    private static void writeCustomer(Encoder out, Customers customer) {
+        out.putLong(customer.getID());
+        out.putText(customer.getName());
+        out.putDouble(customer.getBalance());
+        Map<Product, Integer> inventory = customer.getInventory();
+        out.putInt(inventory.size());
+        for (Map.Entry<Product, Integer> entry : inventory.entrySet()) {
+            writeProduct(out, entry.getKey());
+            out.putInt(entry.getValue());
+        }
+    }
+
+    private static void writeProducer(Encoder out, RawMaterialProducer producer) {
+        out.putLong(producer.getID());
+        out.putText(producer.getName());
+        out.putDouble(producer.getBalance());
+        out.putDouble(producer.getStorageCapacity());
+        out.putString(producer.getMaterialProduced().getName());
+        out.putDouble(producer.getMaterialProduced().getProductionCost());
+        out.putDouble(producer.getSellingPrice());
+        out.putDouble(producer.getStock());
+    }
+
+    /**
+     * Growable big-endian buffer that replaces item names with indexes into a string table.
+     * Index -1 stands for null.
+     */
+    private static final class Encoder {
+        ByteBuffer buffer;
+        private final HashMap<String, Integer> stringIndex = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        Encoder(int initialCapacity) {
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+
+        int position() {
+            return buffer.position();
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+
+        void putByte(byte value) { ensure(1); buffer.put(value); }
+        void putInt(int value) { ensure(4); buffer.putInt(value); }
+        void putLong(long value) { ensure(8); buffer.putLong(value); }
+        void putDouble(double value) { ensure(8); buffer.putDouble(value); }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            Integer index = stringIndex.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                stringIndex.put(value, index);
+            }
+            putInt(index);
+        }
+
+        void putText(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putStringTable() {
+            putInt(strings.size());
+            for (String value : strings) {
+                putText(value);
+            }
+        }
+    }
+
+    // --- Reading ---
+
+    /**
+     * Rebuilds entities from the body. Products with the same name share one object,
+     * as they compare equal by name anyway.
+     */
+    private static final class Decoder {
+        private final ByteBuffer in;
+        private final String[] strings;
+        private final Map<String, Product> products = new HashMap<>();
+        private byte[] scratch = new byte[64];
+
+        Decoder(ByteBuffer in, String[] strings) {
+            this.in = in;
+            this.strings = strings;
+        }
+
+        private String string() {
+            int index = in.getInt();
+            return index < 0 ? null : strings[index];
+        }
+
+        void readStringTable() {
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = text();
+            }
+        }
+
+        private String text() {
+            int length = in.getInt();
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            in.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private Product product() {
+            String name = string();
+            double cost = in.getDouble();
+            Product product = products.get(name);
+            if (product == null) {
+                product = new Product(name, cost);
+                products.put(name, product);
+            }
+            return product;
+        }
+
+        Factory readFactory() {
+            long id = in.getLong();
+            String name = text();
+            double balance = in.getDouble();
+            int capacity = in.getInt();
+            // Fill first with unlimited capacity: the stored stock may exceed a capacity that was lowered later.
+            Factory factory = new Factory(id, name, balance, Integer.MAX_VALUE);
+            // Snapshots written before empty items were left out can still hold counts of 0.
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                String item = string();
+                int amount = in.getInt();
+                if (amount != 0) {
+                    factory.addProduct(item, amount);
+                }
+            }
+            count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                String item = string();
+                int amount = in.getInt();
+                if (amount != 0) {
+                    factory.addByproduct(item, amount);
+                }
+            }
+            count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                String item = string();
+                int amount = in.getInt();
+                if (amount != 0) {
+                    factory.addRawMaterial(item, amount);
+                }
+            }
+            factory.setCapacity(capacity);
+            count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                factory.addDesign(readDesign());
+            }
+            return factory;
+        }
+
+        private ProductDesign readDesign() {
+            Product product = product();
+            String byproductName = string();
+            double disposalCost = in.getDouble();
+            double byproductAmount = in.getDouble();
+            double productionCost = in.getDouble();
+            String mainRaw = string();
+            ProductDesign design = new ProductDesign(product,
+                    byproductName == null ? null : new ByProduct(byproductName, disposalCost),
+                    mainRaw == null ? null : new RawMaterial(mainRaw));
+            design.setByproductAmount(byproductAmount);
+            design.setProductionCost(productionCost);
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                byte kind = in.get();
+                String name = string();
+                double amount = in.getDouble();
+                InventoryItem item;
+                if (kind == TradeJournal.KIND_PRODUCT) item = products.computeIfAbsent(name, n -> new Product(n, 0));
+                else if (kind == TradeJournal.KIND_BYPRODUCT) item = new ByProduct(name, 0);
+                else item = new RawMaterial(name);
+                design.addInputRequirement(item, amount);
+            }
+            return design;
+        }
+
+        Market readMarket() {
+            Market market = new Market(in.getLong(), text(), in.getDouble());
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                Product product = product();
+                market.addProduct(product, in.getInt(), product.getProductionCost());
+            }
+            count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                market.restorePrice(product(), in.getDouble());
+            }
+            return market;
+        }
+
+        Customers readCustomer() {
+            Customers customer = new Customers(in.getLong(), text(), in.getDouble());
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                customer.addToInventory(product(), in.getInt());
+            }
+            return customer;
+        }
+
+        RawMaterialProducer readProducer() {
+            long id = in.getLong();
+            String name = text();
+            double balance = in.getDouble();
+            double storageCapacity = in.getDouble();
+            RawMaterial material = new RawMaterial(string());
+            material.setProductionCost(in.getDouble());
+            double sellingPrice = in.getDouble();
+            return new RawMaterialProducer(id, name, balance, storageCapacity, material, sellingPrice, in.getDouble());
+        }
+    }
+}